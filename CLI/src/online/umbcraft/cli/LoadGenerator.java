@@ -0,0 +1,352 @@
+package online.umbcraft.cli;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p> Sends a configurable stream of messages to a WalkieTalkie and reports how it held up </p>
+ * <p>
+ * With a --rate, every message has an intended send time on a fixed schedule, and its latency is counted from
+ * that time rather than from when it actually went out. A stalled server then shows up as the whole queue of
+ * messages that should have been sent during the stall waiting, instead of as a single slow message, which is
+ * the coordinated omission correction. Service time, counted from the actual send, is reported next to it.
+ * Without a --rate every worker sends as fast as it gets answers, and only service time is meaningful
+ */
+public class LoadGenerator {
+
+    private String address = "127.0.0.1:25590";
+    private String rsa_public;
+    private String rsa_private;
+    private String rsa_remote;
+
+    private int concurrency = 16;
+    private double rate = 0;
+    private long duration_ms = 10000;
+    private int payload_min = 0;
+    private int payload_max = 0;
+    private final List<String> mix_reasons = new ArrayList<>();
+    private final List<Integer> mix_weights = new ArrayList<>();
+    private int mix_total = 0;
+    private long timeout_ms = 0;
+
+    private final LatencyHistogram corrected = new LatencyHistogram();
+    private final LatencyHistogram service = new LatencyHistogram();
+    private final Map<RadioError, LongAdder> errors = new EnumMap<>(RadioError.class);
+    private final Map<String, LongAdder> exceptions = new ConcurrentHashMap<>();
+    private final LongAdder unsuccessful = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+
+
+    public LoadGenerator(String address, String rsa_public, String rsa_private, String rsa_remote, String reason) {
+        this.address = address;
+        this.rsa_public = rsa_public;
+        this.rsa_private = rsa_private;
+        this.rsa_remote = rsa_remote;
+        addReason(reason, 1);
+        for (RadioError error : RadioError.values())
+            errors.put(error, new LongAdder());
+    }
+
+
+    private void addReason(String reason, int weight) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("weight of " + reason + " must be positive");
+        mix_reasons.add(reason);
+        mix_weights.add(weight);
+        mix_total += weight;
+    }
+
+
+    public void configure(String[] args, int on) throws IndexOutOfBoundsException {
+        if (on >= args.length)
+            return;
+
+        switch (args[on]) {
+            case "--concurrency":
+                concurrency = Integer.parseInt(args[on + 1]);
+                configure(args, on + 2);
+                return;
+            case "--rate":
+                rate = Double.parseDouble(args[on + 1]);
+                configure(args, on + 2);
+                return;
+            case "--duration":
+                duration_ms = (long) (Double.parseDouble(args[on + 1]) * 1000);
+                configure(args, on + 2);
+                return;
+            case "--timeout":
+                timeout_ms = Long.parseLong(args[on + 1]);
+                configure(args, on + 2);
+                return;
+            case "--payload":
+                // either a fixed size, or a range the size of each message is picked from uniformly
+                String[] range = args[on + 1].split("-");
+                payload_min = Integer.parseInt(range[0]);
+                payload_max = range.length > 1 ? Integer.parseInt(range[1]) : payload_min;
+                if (range.length > 2 || payload_max < payload_min)
+                    throw new IllegalArgumentException("payload range " + args[on + 1] + " is empty");
+                configure(args, on + 2);
+                return;
+            case "--mix":
+                // reasons and their weights, as in "lookup:8,store:2,stopserver:1"
+                mix_reasons.clear();
+                mix_weights.clear();
+                mix_total = 0;
+                for (String part : args[on + 1].split(",")) {
+                    String[] entry = part.split(":");
+                    addReason(entry[0], entry.length > 1 ? Integer.parseInt(entry[1]) : 1);
+                }
+                configure(args, on + 2);
+                return;
+            default:
+                configure(args, on + 1);
+                return;
+        }
+    }
+
+
+    /**
+     * sends messages until the duration is up, then prints the report
+     */
+    public void run() throws Exception {
+        if (concurrency < 1)
+            throw new IllegalArgumentException("concurrency must be at least 1");
+
+        HelpfulRSAKeyPair keys = new HelpfulRSAKeyPair(rsa_public, rsa_private);
+        PublicKey remote = HelpfulRSAKeyPair.publicFrom64(rsa_remote);
+
+        System.out.println("load testing " + address + " with " + concurrency + " workers, "
+                + (rate > 0 ? rate + " messages/s" : "as fast as possible") + ", for " + duration_ms + "ms");
+
+        final long started = System.nanoTime();
+        final long until = started + TimeUnit.MILLISECONDS.toNanos(duration_ms);
+        final Schedule schedule = rate > 0 ? new Schedule(started, rate) : null;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            Thread worker = new Thread(() -> {
+                while (true) {
+                    long intended;
+                    if (schedule != null) {
+                        intended = schedule.next();
+                        if (intended >= until)
+                            return;
+                        long wait = intended - System.nanoTime();
+                        if (wait > 0)
+                            sleepNanos(wait);
+                    } else {
+                        intended = System.nanoTime();
+                        if (intended >= until)
+                            return;
+                    }
+                    sendOne(keys, remote, intended);
+                }
+            }, "load-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        for (Thread worker : workers)
+            worker.join();
+
+        report(System.nanoTime() - started);
+    }
+
+
+    private void sendOne(HelpfulRSAKeyPair keys, PublicKey remote, long intended) {
+        ReasonMessage message = new ReasonMessage()
+                .setReason(pickReason())
+                .setRSAKeys(keys)
+                .setRemoteKey(remote);
+        if (timeout_ms > 0)
+            message.setTimeout(timeout_ms);
+
+        int size = payload_min == payload_max
+                ? payload_min
+                : ThreadLocalRandom.current().nextInt(payload_min, payload_max + 1);
+        if (size > 0) {
+            byte[] payload = new byte[size];
+            ThreadLocalRandom.current().nextBytes(payload);
+            message.putBytes("payload", payload);
+        }
+
+        long began = System.nanoTime();
+        ResponseMessage response = null;
+        RadioError error;
+        try {
+            response = message.send(address).get();
+            error = response.getTransmitError();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            // failures of the sending thread itself are counted by what went wrong there
+            Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+            error = errorOf(cause);
+            if (error == null)
+                exceptions.computeIfAbsent(cause.getClass().getSimpleName(), name -> new LongAdder()).increment();
+        }
+        long ended = System.nanoTime();
+
+        sent.increment();
+        corrected.record(TimeUnit.NANOSECONDS.toMicros(ended - intended));
+        service.record(TimeUnit.NANOSECONDS.toMicros(ended - began));
+
+        if (response == null && error == null)
+            return;
+        if (error != null)
+            errors.get(error).increment();
+        else if (!Boolean.TRUE.equals(response.getSuccess()))
+            unsuccessful.increment();
+    }
+
+
+    /**
+     * the error a failure to send a message stands for, or null if it does not match any
+     */
+    static RadioError errorOf(Throwable e) {
+        if (e instanceof RejectedExecutionException)
+            return RadioError.SHUTTING_DOWN;
+        if (e instanceof SocketTimeoutException)
+            return RadioError.DEADLINE_EXCEEDED;
+        if (e instanceof IOException)
+            return RadioError.FAILED_TO_CONNECT;
+        if (e instanceof GeneralSecurityException)
+            return RadioError.BAD_CRYPT_KEY;
+        if (e instanceof IllegalStateException)
+            return RadioError.NO_HOST_KEY;
+        return null;
+    }
+
+
+    String pickReason() {
+        if (mix_reasons.size() == 1)
+            return mix_reasons.get(0);
+
+        int pick = ThreadLocalRandom.current().nextInt(mix_total);
+        for (int i = 0; i < mix_reasons.size(); i++) {
+            pick -= mix_weights.get(i);
+            if (pick < 0)
+                return mix_reasons.get(i);
+        }
+        return mix_reasons.get(mix_reasons.size() - 1);
+    }
+
+
+    int getConcurrency() {
+        return concurrency;
+    }
+
+
+    double getRate() {
+        return rate;
+    }
+
+
+    int getPayloadMin() {
+        return payload_min;
+    }
+
+
+    int getPayloadMax() {
+        return payload_max;
+    }
+
+
+    List<String> getMixReasons() {
+        return mix_reasons;
+    }
+
+
+    List<Integer> getMixWeights() {
+        return mix_weights;
+    }
+
+
+    private static void sleepNanos(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private void report(long elapsed) {
+        long total = sent.sum();
+        double seconds = elapsed / 1e9;
+
+        System.out.println();
+        System.out.println("sent " + total + " messages in " + String.format("%.2f", seconds) + "s, "
+                + String.format("%.1f", total / seconds) + " messages/s");
+
+        long failed = unsuccessful.sum();
+        for (LongAdder count : errors.values())
+            failed += count.sum();
+        for (LongAdder count : exceptions.values())
+            failed += count.sum();
+        System.out.println("errors: " + failed);
+        for (Map.Entry<RadioError, LongAdder> entry : errors.entrySet()) {
+            if (entry.getValue().sum() > 0)
+                System.out.println(String.format("  %-20s %d", entry.getKey().name(), entry.getValue().sum()));
+        }
+        for (Map.Entry<String, LongAdder> entry : exceptions.entrySet())
+            System.out.println(String.format("  %-20s %d", entry.getKey(), entry.getValue().sum()));
+        if (unsuccessful.sum() > 0)
+            System.out.println(String.format("  %-20s %d", "NOT_SUCCESSFUL", unsuccessful.sum()));
+
+        System.out.println();
+        System.out.println(String.format("%12s %16s %16s", "percentile", "latency (us)", "service (us)"));
+        double[] percentiles = {0.5, 0.75, 0.9, 0.99, 0.999, 0.9999, 1.0};
+        for (double p : percentiles) {
+            System.out.println(String.format("%12s %16d %16d",
+                    p == 1.0 ? "max" : String.valueOf(p * 100), corrected.percentile(p), service.percentile(p)));
+        }
+        if (rate <= 0)
+            System.out.println("latency is only corrected for coordinated omission when a --rate is given");
+    }
+
+
+    /**
+     * the intended send times of a fixed rate, handed out in order to whichever worker asks next
+     */
+    static class Schedule {
+
+        private final long started;
+        private final long interval;
+        private final AtomicLong next = new AtomicLong();
+
+
+        Schedule(long started, double rate) {
+            this.started = started;
+            this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+
+
+        /**
+         * messages keep their place on the schedule however far behind the workers fall,
+         * so the send time does not depend on when it is asked for
+         */
+        long next() {
+            return started + next.getAndIncrement() * interval;
+        }
+    }
+}
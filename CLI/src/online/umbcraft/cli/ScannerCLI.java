@@ -1,6 +1,5 @@
 package online.umbcraft.cli;
 
-import com.sun.source.tree.Tree;
 import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
 import online.umbcraft.libraries.network.message.ReasonMessage;
 import online.umbcraft.libraries.network.message.ResponseMessage;
@@ -23,6 +22,16 @@ public class ScannerCLI {
 
 
         ScannerCLI cli = new ScannerCLI();
+        cli.configure(args, 0);
+
+        // --load sends a stream of messages instead of prompting, see LoadGenerator for its own options
+        for (String arg : args) {
+            if (arg.equals("--load")) {
+                cli.load(args);
+                return;
+            }
+        }
+
         System.out.println("--Scanner CLI--");
 
         Scanner sc = new Scanner(System.in);
@@ -68,6 +77,16 @@ public class ScannerCLI {
         System.out.println("Body: "+response);
     }
 
+    public void load(String[] args) {
+        LoadGenerator generator = new LoadGenerator(address, rsa_public, rsa_private, rsa_remote, reason);
+        try {
+            generator.configure(args, 0);
+            generator.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     public void configure(String[] args, int on) throws IndexOutOfBoundsException {
         if(on >= args.length)
             return;
@@ -0,0 +1,114 @@
+package online.umbcraft.cli;
+
+import online.umbcraft.libraries.network.errors.RadioError;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class LoadGeneratorTest {
+
+    private static LoadGenerator configured(String... args) {
+        LoadGenerator generator = new LoadGenerator("127.0.0.1:25590", null, null, null, "echo");
+        generator.configure(args, 0);
+        return generator;
+    }
+
+
+    @Test
+    public void scheduleIsFixedByTheRate() {
+        LoadGenerator.Schedule schedule = new LoadGenerator.Schedule(1000, 500);
+        long interval = TimeUnit.MILLISECONDS.toNanos(2);
+
+        Assert.assertEquals(1000, schedule.next());
+        Assert.assertEquals(1000 + interval, schedule.next());
+        Assert.assertEquals(1000 + 2 * interval, schedule.next());
+    }
+
+
+    @Test
+    public void scheduleDoesNotSlipWhenWorkersFallBehind() throws Exception {
+        LoadGenerator.Schedule schedule = new LoadGenerator.Schedule(0, 1000);
+        long interval = TimeUnit.MILLISECONDS.toNanos(1);
+
+        schedule.next();
+        // asking late still gives the next slot, not one counted from now
+        Thread.sleep(50);
+        Assert.assertEquals(interval, schedule.next());
+        Assert.assertEquals(2 * interval, schedule.next());
+    }
+
+
+    @Test
+    public void optionsAreParsed() {
+        LoadGenerator generator = configured("--load", "--concurrency", "4", "--rate", "250", "--payload", "128");
+
+        Assert.assertEquals(4, generator.getConcurrency());
+        Assert.assertEquals(250, generator.getRate(), 0);
+        Assert.assertEquals(128, generator.getPayloadMin());
+        Assert.assertEquals(128, generator.getPayloadMax());
+        Assert.assertEquals(Arrays.asList("echo"), generator.getMixReasons());
+    }
+
+
+    @Test
+    public void payloadRangeIsParsed() {
+        LoadGenerator generator = configured("--payload", "64-4096");
+
+        Assert.assertEquals(64, generator.getPayloadMin());
+        Assert.assertEquals(4096, generator.getPayloadMax());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyPayloadRangeFails() {
+        configured("--payload", "4096-64");
+    }
+
+
+    @Test
+    public void mixReplacesTheReason() {
+        LoadGenerator generator = configured("--mix", "lookup:8,store:2,stopserver");
+
+        Assert.assertEquals(Arrays.asList("lookup", "store", "stopserver"), generator.getMixReasons());
+        Assert.assertEquals(Arrays.asList(8, 2, 1), generator.getMixWeights());
+    }
+
+
+    @Test
+    public void mixIsPickedByWeight() {
+        LoadGenerator generator = configured("--mix", "often:9,rarely:1");
+
+        int often = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (generator.pickReason().equals("often"))
+                often++;
+        }
+        Assert.assertTrue(String.valueOf(often), often > 8500 && often < 9500);
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mixWeightMustBePositive() {
+        configured("--mix", "lookup:0");
+    }
+
+
+    @Test(expected = NumberFormatException.class)
+    public void mixWeightMustBeANumber() {
+        configured("--mix", "lookup:many");
+    }
+
+
+    @Test
+    public void sendFailuresAreClassified() {
+        Assert.assertEquals(RadioError.DEADLINE_EXCEEDED, LoadGenerator.errorOf(new SocketTimeoutException()));
+        Assert.assertEquals(RadioError.FAILED_TO_CONNECT, LoadGenerator.errorOf(new ConnectException()));
+        Assert.assertEquals(RadioError.SHUTTING_DOWN, LoadGenerator.errorOf(new RejectedExecutionException()));
+        Assert.assertNull(LoadGenerator.errorOf(new UnsupportedOperationException()));
+    }
+}
@@ -6,16 +6,30 @@ import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
 /**
  * <p>Wrapper class for a single RSA keypair</p>
+ *
+ * @see RadioKeyStore
  */
 public class HelpfulRSAKeyPair {
 
+    private static final int PUBLIC_CACHE_LIMIT = 1024;
+
+    // kept in access order so the least recently used key is dropped once the cache is full, guarded by itself
+    private static final Map<String, PublicKey> parsed_public = new LinkedHashMap<String, PublicKey>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PublicKey> eldest) {
+            return size() > PUBLIC_CACHE_LIMIT;
+        }
+    };
 
     private final PublicKey PUBLIC_KEY;
     private final PrivateKey PRIVATE_KEY;
+    private volatile String pub64;
 
 
     /**
@@ -66,7 +80,8 @@ public class HelpfulRSAKeyPair {
 
 
     /**
-     * Creates an RSA {@link PublicKey} from a base64 public key string
+     * <p> Creates an RSA {@link PublicKey} from a base64 public key string </p>
+     * keys are only parsed the first time they are seen, since the same few remote keys are used for every message
      *
      * @param pub_b64 the public RSA key encoded in base64
      * @return the created PublicKey object
@@ -74,15 +89,25 @@ public class HelpfulRSAKeyPair {
      */
     public static PublicKey publicFrom64(String pub_b64) throws InvalidKeySpecException {
 
-        PublicKey newPublic = null;
+        PublicKey newPublic;
+        synchronized (parsed_public) {
+            newPublic = parsed_public.get(pub_b64);
+        }
+        if (newPublic != null)
+            return newPublic;
 
         try {
             newPublic = KeyFactory.getInstance("RSA").generatePublic(
                     new X509EncodedKeySpec(Base64.decodeBase64(pub_b64)));
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
+            return null;
+        }
+
+        synchronized (parsed_public) {
+            PublicKey raced = parsed_public.putIfAbsent(pub_b64, newPublic);
+            return raced != null ? raced : newPublic;
         }
-        return newPublic;
     }
 
 
@@ -115,7 +140,10 @@ public class HelpfulRSAKeyPair {
      * @return the base64 encoded public key
      */
     public String pub64() {
-        return Base64.encodeBase64String(PUBLIC_KEY.getEncoded());
+        String encoded = pub64;
+        if (encoded == null)
+            pub64 = encoded = Base64.encodeBase64String(PUBLIC_KEY.getEncoded());
+        return encoded;
     }
 
 
@@ -9,9 +9,18 @@ import javax.crypto.*;
 
 /**
  * <p>Handles AES, RSA encrypting, decrypting, and RSA signing Strings</p>
+ * <p>
+ * Every thread keeps its own Signature and Cipher objects, and skips initialising them again
+ * while they are used with the same key they were last initialised with
  */
 public class MessageEncryptor {
 
+    private static final int AES = 0;
+    private static final int RSA = 1;
+    private static final String[] TRANSFORMS = {"AES", "RSA/ECB/PKCS1Padding"};
+
+    private static final ThreadLocal<Engines> engines = ThreadLocal.withInitial(Engines::new);
+
 
     /**
      * Signs (the hash of) a string using the stored RSA private key
@@ -38,8 +47,7 @@ public class MessageEncryptor {
      */
     public static String generateSignature(PrivateKey key, String input) throws InvalidKeyException, SignatureException {
         try {
-            Signature sign = Signature.getInstance("SHA256withRSA");
-            sign.initSign(key);
+            Signature sign = signer(key);
             sign.update(input.getBytes());
             byte[] sig_bytes = sign.sign();
 
@@ -51,6 +59,30 @@ public class MessageEncryptor {
     }
 
 
+    /**
+     * Signs (the hash of) part of a byte array using an RSA private key
+     *
+     * @param key    the private RSA key used to make the signature
+     * @param input  the bytes to sign
+     * @param offset where in the array the signed bytes start
+     * @param length how many bytes are signed
+     * @return the signature encoded in base64
+     * @throws InvalidKeyException if the key is bad
+     * @throws SignatureException  if something went wrong performing the signature
+     */
+    public static String generateSignature(PrivateKey key, byte[] input, int offset, int length) throws InvalidKeyException, SignatureException {
+        try {
+            Signature sign = signer(key);
+            sign.update(input, offset, length);
+
+            return Base64.encodeBase64String(sign.sign());
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+
     /**
      * Verifies an RSA signature for (the hash of) a string using its RSA keyset
      *
@@ -78,8 +110,7 @@ public class MessageEncryptor {
      */
     public static boolean verifySignature(PublicKey key, String input, String signature_b64) throws InvalidKeyException, SignatureException {
         try {
-            Signature verifying = Signature.getInstance("SHA256withRSA");
-            verifying.initVerify(key);
+            Signature verifying = verifier(key);
             verifying.update(input.getBytes());
 
             return verifying.verify(Base64.decodeBase64(signature_b64));
@@ -90,6 +121,77 @@ public class MessageEncryptor {
     }
 
 
+    /**
+     * Verifies an RSA signature for (the hash of) part of a byte array
+     *
+     * @param key           the public key used to verify the signature
+     * @param input         the bytes which were signed
+     * @param offset        where in the array the signed bytes start
+     * @param length        how many bytes were signed
+     * @param signature_b64 the signature in question (encoded in base64)
+     * @return whether or not the signature is valid
+     * @throws InvalidKeyException if key is bad
+     * @throws SignatureException  if something went wrong while verifying
+     */
+    public static boolean verifySignature(PublicKey key, byte[] input, int offset, int length, String signature_b64) throws InvalidKeyException, SignatureException {
+        try {
+            Signature verifying = verifier(key);
+            verifying.update(input, offset, length);
+
+            return verifying.verify(Base64.decodeBase64(signature_b64));
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+
+    /**
+     * Encrypts a byte array using an AES key, without any base64 encoding
+     *
+     * @param AESkey the AES key to be used
+     * @param input  the raw bytes
+     * @return the encrypted bytes
+     * @throws InvalidKeyException if AES key is bad
+     */
+    public static byte[] encryptAES(HelpfulAESKey AESkey, byte[] input) throws InvalidKeyException {
+        try {
+            Cipher cipher = cipher(AES, Cipher.ENCRYPT_MODE, AESkey.key());
+
+            return cipher.doFinal(input);
+
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException |
+                BadPaddingException | IllegalBlockSizeException e) {
+            e.printStackTrace();
+            return new byte[0];
+        }
+    }
+
+
+    /**
+     * Decrypts part of a byte array using an AES key, without any base64 decoding
+     *
+     * @param AESkey the AES key to be used to decrypt
+     * @param input  the encrypted bytes
+     * @param offset where in the array the encrypted bytes start
+     * @param length how many encrypted bytes there are
+     * @return the decrypted bytes
+     * @throws InvalidKeyException if AES key is bad
+     */
+    public static byte[] decryptAES(HelpfulAESKey AESkey, byte[] input, int offset, int length) throws InvalidKeyException {
+        try {
+            Cipher cipher = cipher(AES, Cipher.DECRYPT_MODE, AESkey.key());
+
+            return cipher.doFinal(input, offset, length);
+
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException
+                | IllegalBlockSizeException | BadPaddingException e) {
+            e.printStackTrace();
+            return new byte[0];
+        }
+    }
+
+
     /**
      * Encrypts a string using a base64 AES key
      *
@@ -103,8 +205,7 @@ public class MessageEncryptor {
         byte[] cipherText = new byte[0];
 
         try {
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, key);
+            Cipher cipher = cipher(AES, Cipher.ENCRYPT_MODE, key);
 
             cipherText = cipher.doFinal(input.getBytes());
 
@@ -146,8 +247,7 @@ public class MessageEncryptor {
 
         try {
 
-            Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, public_key);
+            Cipher cipher = cipher(RSA, Cipher.ENCRYPT_MODE, public_key);
             cipher.update(input.getBytes());
 
             cipherText = cipher.doFinal();
@@ -175,9 +275,7 @@ public class MessageEncryptor {
         byte[] plainText = new byte[0];
 
         try {
-            Cipher cipher = Cipher.getInstance("AES");
-
-            cipher.init(Cipher.DECRYPT_MODE, key);
+            Cipher cipher = cipher(AES, Cipher.DECRYPT_MODE, key);
 
             plainText = cipher.doFinal(Base64.decodeBase64(input_b64));
 
@@ -216,8 +314,7 @@ public class MessageEncryptor {
         byte[] plainText = new byte[0];
 
         try {
-            Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-            cipher.init(Cipher.DECRYPT_MODE, private_key);
+            Cipher cipher = cipher(RSA, Cipher.DECRYPT_MODE, private_key);
 
             plainText = cipher.doFinal(Base64.decodeBase64(input_b64));
 
@@ -229,4 +326,75 @@ public class MessageEncryptor {
 
         return new String(plainText);
     }
+
+
+    /**
+     * gets this thread's signing Signature, initialised for a key
+     */
+    private static Signature signer(PrivateKey key) throws NoSuchAlgorithmException, InvalidKeyException {
+        Engines own = engines.get();
+        if (own.signer == null)
+            own.signer = Signature.getInstance("SHA256withRSA");
+
+        // a signature goes back to its initialised state after sign(), so it only needs setting up for new keys
+        if (own.signer_key != key) {
+            own.signer_key = null;
+            own.signer.initSign(key);
+            own.signer_key = key;
+        }
+        return own.signer;
+    }
+
+
+    /**
+     * gets this thread's verifying Signature, initialised for a key
+     */
+    private static Signature verifier(PublicKey key) throws NoSuchAlgorithmException, InvalidKeyException {
+        Engines own = engines.get();
+        if (own.verifier == null)
+            own.verifier = Signature.getInstance("SHA256withRSA");
+
+        if (own.verifier_key != key) {
+            own.verifier_key = null;
+            own.verifier.initVerify(key);
+            own.verifier_key = key;
+        }
+        return own.verifier;
+    }
+
+
+    /**
+     * gets one of this thread's Ciphers, initialised for a mode and key
+     */
+    private static Cipher cipher(int transform, int mode, Key key)
+            throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException {
+        Engines own = engines.get();
+        if (own.ciphers[transform] == null)
+            own.ciphers[transform] = Cipher.getInstance(TRANSFORMS[transform]);
+
+        // a cipher goes back to its initialised state after doFinal(), so it only needs setting up for new keys
+        Cipher cipher = own.ciphers[transform];
+        if (own.cipher_keys[transform] != key || own.cipher_modes[transform] != mode) {
+            own.cipher_keys[transform] = null;
+            cipher.init(mode, key);
+            own.cipher_keys[transform] = key;
+            own.cipher_modes[transform] = mode;
+        }
+        return cipher;
+    }
+
+
+    /**
+     * the crypto objects owned by a single thread, and the keys they are currently initialised with
+     */
+    private static class Engines {
+
+        private Signature signer;
+        private Key signer_key;
+        private Signature verifier;
+        private Key verifier_key;
+        private final Cipher[] ciphers = new Cipher[TRANSFORMS.length];
+        private final Key[] cipher_keys = new Key[TRANSFORMS.length];
+        private final int[] cipher_modes = new int[TRANSFORMS.length];
+    }
 }
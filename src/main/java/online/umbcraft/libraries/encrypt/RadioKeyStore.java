@@ -0,0 +1,324 @@
+package online.umbcraft.libraries.encrypt;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * <p> RSA keypairs loaded once and handed out by alias </p>
+ * <p>
+ * Keys are parsed when they are added, from PKCS#8 or PEM files or from a JKS / PKCS12 keystore,
+ * so sending or answering a message never has to decode a key again. Handing out the same key objects
+ * every time also lets {@link MessageEncryptor} keep its signers initialised between messages
+ * <p>
+ * Private keys are kept in their CRT form whenever the file holds the CRT parameters,
+ * which makes signing and decrypting several times faster than with the modulus and exponent alone
+ *
+ * @see HelpfulRSAKeyPair
+ */
+public class RadioKeyStore {
+
+    private static final RadioKeyStore shared = new RadioKeyStore();
+
+    private static final int PARSED_CACHE_LIMIT = 1024;
+
+    // DER header wrapping a PKCS#1 RSAPrivateKey into a PKCS#8 PrivateKeyInfo: version 0 and the rsaEncryption OID
+    private static final byte[] PKCS8_RSA_HEADER = {
+            0x02, 0x01, 0x00,
+            0x30, 0x0D, 0x06, 0x09, 0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x01, 0x01, 0x05, 0x00
+    };
+
+    private final Map<String, HelpfulRSAKeyPair> keys;
+    private final Map<String, HelpfulRSAKeyPair> parsed;
+
+
+    /**
+     * Creates an empty RadioKeyStore, most programs only need the {@link #shared()} one
+     */
+    public RadioKeyStore() {
+        keys = new ConcurrentHashMap<>();
+        // lookups reorder the pairs, so it is locked even for reads
+        parsed = new LinkedHashMap<String, HelpfulRSAKeyPair>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, HelpfulRSAKeyPair> eldest) {
+                return size() > PARSED_CACHE_LIMIT;
+            }
+        };
+    }
+
+
+    /**
+     * Returns the RadioKeyStore shared by the whole process
+     *
+     * @return the process-wide keystore
+     */
+    public static RadioKeyStore shared() {
+        return shared;
+    }
+
+
+    /**
+     * Stores a keypair under an alias, replacing whatever was stored under it before
+     *
+     * @param alias the name to hand the keys out by
+     * @param pair  the RSA keypair
+     * @return itself
+     */
+    public RadioKeyStore add(String alias, HelpfulRSAKeyPair pair) {
+        if (alias == null || pair == null) throw new IllegalArgumentException("alias and keypair must not be null");
+        keys.put(alias, pair);
+        return this;
+    }
+
+
+    /**
+     * Returns the keypair stored under an alias
+     *
+     * @param alias the name the keys were stored under
+     * @return the keypair, or null if there is none
+     */
+    public HelpfulRSAKeyPair get(String alias) {
+        return keys.get(alias);
+    }
+
+
+    /**
+     * Returns the keypair stored under an alias, failing if there is none
+     *
+     * @param alias the name the keys were stored under
+     * @return the keypair
+     * @throws IllegalArgumentException if no keys are stored under the alias
+     */
+    public HelpfulRSAKeyPair require(String alias) {
+        HelpfulRSAKeyPair pair = keys.get(alias);
+        if (pair == null) throw new IllegalArgumentException("no RSA keys stored under alias " + alias);
+        return pair;
+    }
+
+
+    /**
+     * Removes the keypair stored under an alias
+     *
+     * @param alias the name the keys were stored under
+     * @return the removed keypair, or null if there was none
+     */
+    public HelpfulRSAKeyPair remove(String alias) {
+        return keys.remove(alias);
+    }
+
+
+    /**
+     * Returns every alias keys are stored under
+     *
+     * @return an unmodifiable view of the aliases
+     */
+    public Set<String> aliases() {
+        return Collections.unmodifiableSet(keys.keySet());
+    }
+
+
+    /**
+     * <p> Loads a private key file and stores it under an alias </p>
+     * the file may be DER encoded PKCS#8, or PEM holding a "PRIVATE KEY" (PKCS#8) or "RSA PRIVATE KEY" (PKCS#1) block.
+     * The public key is taken from a "PUBLIC KEY" block in the same file if there is one,
+     * otherwise it is derived from the CRT parameters of the private key
+     *
+     * @param alias the name to hand the keys out by
+     * @param file  the key file
+     * @return the loaded keypair
+     * @throws IOException             if the file could not be read
+     * @throws InvalidKeySpecException if the file does not hold a usable RSA private key
+     */
+    public HelpfulRSAKeyPair load(String alias, Path file) throws IOException, InvalidKeySpecException {
+        byte[] contents = Files.readAllBytes(file);
+        String text = new String(contents, StandardCharsets.US_ASCII);
+
+        PrivateKey priv;
+        PublicKey pub = null;
+
+        if (text.contains("-----BEGIN ")) {
+            byte[] pkcs8 = pemBlock(text, "PRIVATE KEY");
+            if (pkcs8 == null) {
+                byte[] pkcs1 = pemBlock(text, "RSA PRIVATE KEY");
+                if (pkcs1 == null) throw new InvalidKeySpecException("no RSA private key found in " + file);
+                pkcs8 = wrapPKCS1(pkcs1);
+            }
+            priv = factory().generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+
+            byte[] x509 = pemBlock(text, "PUBLIC KEY");
+            if (x509 != null)
+                pub = factory().generatePublic(new X509EncodedKeySpec(x509));
+        } else {
+            priv = factory().generatePrivate(new PKCS8EncodedKeySpec(contents));
+        }
+
+        if (pub == null)
+            pub = derivePublic(priv);
+
+        HelpfulRSAKeyPair pair = new HelpfulRSAKeyPair(pub, priv);
+        add(alias, pair);
+        return pair;
+    }
+
+
+    /**
+     * <p> Loads every RSA private key entry of a Java keystore </p>
+     * each entry is stored under its own alias, with the public key taken from its certificate
+     *
+     * @param file     the keystore file
+     * @param type     the keystore type, such as "JKS" or "PKCS12"
+     * @param password the password of the keystore, also used for its entries
+     * @return the aliases that were loaded
+     * @throws IOException              if the file could not be read
+     * @throws GeneralSecurityException if the keystore or one of its keys could not be opened
+     */
+    public List<String> loadKeyStore(Path file, String type, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(type);
+        try (InputStream in = Files.newInputStream(file)) {
+            store.load(in, password);
+        }
+
+        List<String> loaded = new ArrayList<>();
+        Enumeration<String> entries = store.aliases();
+        while (entries.hasMoreElements()) {
+            String alias = entries.nextElement();
+            if (!store.isKeyEntry(alias))
+                continue;
+
+            Key key = store.getKey(alias, password);
+            Certificate cert = store.getCertificate(alias);
+            if (!(key instanceof PrivateKey) || !"RSA".equals(key.getAlgorithm()))
+                continue;
+
+            PublicKey pub = cert != null ? cert.getPublicKey() : derivePublic((PrivateKey) key);
+            add(alias, new HelpfulRSAKeyPair(pub, (PrivateKey) key));
+            loaded.add(alias);
+        }
+        return loaded;
+    }
+
+
+    /**
+     * <p> Returns the keypair for a pair of base64 keys, only parsing them the first time they are seen </p>
+     * for callers that are handed keys as strings on every message, the parsed keypairs are kept in
+     * a bounded cache separate from the aliased keys, which drops the least recently used pair when full
+     *
+     * @param pub_key_b64  the public RSA key encoded in base64
+     * @param priv_key_b64 the private RSA key encoded in base64
+     * @return the parsed keypair
+     * @throws InvalidKeySpecException if either key is not valid RSA
+     */
+    public HelpfulRSAKeyPair pairFrom64(String pub_key_b64, String priv_key_b64) throws InvalidKeySpecException {
+        String cache_key = pub_key_b64 + ':' + priv_key_b64;
+        HelpfulRSAKeyPair pair;
+        synchronized (parsed) {
+            pair = parsed.get(cache_key);
+        }
+        if (pair != null)
+            return pair;
+
+        // parsing happens outside the lock, so a slow key does not hold up lookups of the others
+        pair = new HelpfulRSAKeyPair(pub_key_b64, priv_key_b64);
+        synchronized (parsed) {
+            HelpfulRSAKeyPair raced = parsed.putIfAbsent(cache_key, pair);
+            return raced != null ? raced : pair;
+        }
+    }
+
+
+    /**
+     * rebuilds the public key from the modulus and public exponent a CRT private key carries
+     */
+    private static PublicKey derivePublic(PrivateKey priv) throws InvalidKeySpecException {
+        if (!(priv instanceof RSAPrivateCrtKey))
+            throw new InvalidKeySpecException("private key has no CRT parameters to derive its public key from");
+
+        RSAPrivateCrtKey crt = (RSAPrivateCrtKey) priv;
+        return factory().generatePublic(new RSAPublicKeySpec(crt.getModulus(), crt.getPublicExponent()));
+    }
+
+
+    /**
+     * decodes the first PEM block of a type, or gives null if there is none
+     */
+    private static byte[] pemBlock(String text, String type) {
+        String begin = "-----BEGIN " + type + "-----";
+        String end = "-----END " + type + "-----";
+
+        int start = text.indexOf(begin);
+        if (start < 0)
+            return null;
+        int stop = text.indexOf(end, start);
+        if (stop < 0)
+            return null;
+
+        return Base64.decodeBase64(text.substring(start + begin.length(), stop).replaceAll("\\s", ""));
+    }
+
+
+    /**
+     * wraps a PKCS#1 RSAPrivateKey into the PKCS#8 PrivateKeyInfo the KeyFactory reads
+     */
+    private static byte[] wrapPKCS1(byte[] pkcs1) {
+        ByteArrayOutputStream octets = new ByteArrayOutputStream(pkcs1.length + 8);
+        octets.write(0x04);
+        writeLength(octets, pkcs1.length);
+        octets.write(pkcs1, 0, pkcs1.length);
+
+        int content_length = PKCS8_RSA_HEADER.length + octets.size();
+        ByteArrayOutputStream info = new ByteArrayOutputStream(content_length + 8);
+        info.write(0x30);
+        writeLength(info, content_length);
+        info.write(PKCS8_RSA_HEADER, 0, PKCS8_RSA_HEADER.length);
+        info.write(octets.toByteArray(), 0, octets.size());
+        return info.toByteArray();
+    }
+
+
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        if (length < 0x80) {
+            out.write(length);
+            return;
+        }
+        int bytes = length > 0xFFFFFF ? 4 : length > 0xFFFF ? 3 : length > 0xFF ? 2 : 1;
+        out.write(0x80 | bytes);
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8)
+            out.write(length >>> shift);
+    }
+
+
+    private static KeyFactory factory() {
+        try {
+            return KeyFactory.getInstance("RSA");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("RSA is not available", e);
+        }
+    }
+}
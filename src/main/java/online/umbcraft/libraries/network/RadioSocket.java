@@ -2,13 +2,26 @@ package online.umbcraft.libraries.network;
 
 import online.umbcraft.libraries.encrypt.HelpfulAESKey;
 import online.umbcraft.libraries.encrypt.MessageEncryptor;
+import online.umbcraft.libraries.network.compress.PayloadCodec;
+import online.umbcraft.libraries.network.compress.PayloadCodecs;
+import online.umbcraft.libraries.network.errors.RadioError;
 import online.umbcraft.libraries.network.message.RadioMessage;
+import online.umbcraft.libraries.network.pool.ObjectPool;
 import online.umbcraft.libraries.network.response.PortListener;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
@@ -20,16 +33,115 @@ import java.security.SignatureException;
  * <p>
  * A single socket used for a single transaction between client and server
  * encrypts the message as it sends it across
+ * <p>
+ * RadioSockets created through {@link #open(String, int)} or {@link #wrap(Socket)} come from a shared
+ * {@link ObjectPool} and go back into it when {@link #close()} is called,
+ * so they must not be touched after being closed. Threads which only hold on to a RadioSocket owned by another
+ * thread take its {@link #lease()} and use {@link #abort(int)} and {@link #close(int)}, which do nothing once
+ * the RadioSocket has been released, so they can never close a connection it was later reused for
+ * <p>
+ * Every message is sent as a small header (reason, sender key, timeout, compression codecs, whether it subscribes
+ * and body length) followed by the body (encrypted AES key, signature and encrypted text), so the receiver can
+ * decide whether it wants a message before reading the body with {@link #receiveHeader()} and {@link #receiveBody()}
+ * <p>
+ * The text is compressed before it is encrypted once it reaches the threshold given to
+ * {@link #setCompression(PayloadCodec, int)}, and the encrypted text is sent as raw bytes
  */
 public class RadioSocket {
 
-    final private Socket socket;
-    final private ObjectOutputStream oos;
-    final private ObjectInputStream ois;
+    /**
+     * the read timeout used when nothing else has been asked for, in milliseconds
+     */
+    public static final int DEFAULT_TIMEOUT = 3000;
+
+    /**
+     * stream frame carrying a {@link online.umbcraft.libraries.network.message.ResponseMessage}
+     */
+    public static final byte STREAM_DATA = 1;
+
+    /**
+     * stream frame sent by the responding side when it ends the stream, carrying the {@link RadioError} name if any
+     */
+    public static final byte STREAM_END = 2;
+
+    /**
+     * stream frame sent by the subscribing side when it no longer wants the stream
+     */
+    public static final byte STREAM_CANCEL = 3;
+
+    /**
+     * stream frame sent by the subscribing side to say how many more messages it is ready for
+     */
+    public static final byte STREAM_CREDIT = 4;
+
+    /**
+     * bodies up to this size are still read and thrown away when a message is rejected,
+     * so the rejection is not lost to a connection reset
+     */
+    private static final int DRAIN_LIMIT = 64 * 1024;
+
+    /**
+     * body buffers which grew past this size are not kept around in the pool
+     */
+    private static final int RETAIN_LIMIT = 64 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static volatile int max_body_length = 16 * 1024 * 1024;
+
+    private static final RadioSocketOptions DEFAULT_OPTIONS = new RadioSocketOptions();
+
+    private static final ObjectPool<RadioSocket> pool =
+            new ObjectPool<>("RadioSocket", 256, RadioSocket::new, RadioSocket::reset);
+
+    private Socket socket;
+    private final SocketOutput socket_out;
+    private final SocketInput socket_in;
+    private final DataOutputStream oos;
+    private final DataInputStream ois;
 
     final private MessageData message;
     final private MessageData remote;
 
+    private FrameOutput body_out;
+    private DataOutputStream body_writer;
+    private FrameInput body_in;
+    private DataInputStream body_reader;
+    private byte[] body_bytes;
+
+    private PayloadCodec compress_with;
+    private int compress_threshold;
+
+    private StreamCipher stream;
+    private final Object frame_lock = new Object();
+    private byte[] frame_body;
+
+    private final Object lease_lock = new Object();
+    private boolean pooled;
+    private boolean closed;
+    private int lease;
+
+
+    /**
+     * Creates an unbound RadioSocket to be kept in the pool
+     */
+    private RadioSocket() {
+        message = new MessageData();
+        remote = new MessageData();
+
+        // the streams over the connection are kept along with their buffers, and only pointed at each new socket
+        socket_out = new SocketOutput();
+        socket_in = new SocketInput();
+        oos = new DataOutputStream(socket_out);
+        ois = new DataInputStream(socket_in);
+
+        body_out = new FrameOutput();
+        body_writer = new DataOutputStream(body_out);
+        body_in = new FrameInput();
+        body_reader = new DataInputStream(body_in);
+        body_bytes = new byte[1024];
+    }
+
 
     /**
      * Creates a RadioSocket from a Socket, and assigns it a remove public key and own private key to use while encrypting
@@ -38,13 +150,9 @@ public class RadioSocket {
      * @throws IOException if something went wrong when creating the input/output streams
      */
     public RadioSocket(Socket socket) throws IOException {
-        this.socket = socket;
-        socket.setSoTimeout(3000);
-        oos = new ObjectOutputStream(socket.getOutputStream());
-        ois = new ObjectInputStream(socket.getInputStream());
-
-        message = new MessageData();
-        remote = new MessageData();
+        this();
+        DEFAULT_OPTIONS.apply(socket);
+        bind(socket);
     }
 
 
@@ -57,13 +165,262 @@ public class RadioSocket {
      * @throws IOException if something went wrong creating the socket or creating the input/output streams
      */
     public RadioSocket(final String ip, final int port) throws IOException {
-        this.socket = new Socket(ip, port);
-        socket.setSoTimeout(3000);
-        oos = new ObjectOutputStream(socket.getOutputStream());
-        ois = new ObjectInputStream(socket.getInputStream());
+        this(new Socket(ip, port));
+    }
 
-        message = new MessageData();
-        remote = new MessageData();
+
+    /**
+     * Takes a RadioSocket from the shared pool and connects it to an IP and port number
+     *
+     * @param ip   the IP to connect to
+     * @param port the port to connect to
+     * @return a connected RadioSocket, which goes back into the pool once closed
+     * @throws IOException if something went wrong creating the socket or creating the input/output streams
+     */
+    public static RadioSocket open(final String ip, final int port) throws IOException {
+        return open(ip, port, DEFAULT_OPTIONS);
+    }
+
+
+    /**
+     * Takes a RadioSocket from the shared pool and connects it to an IP and port number
+     *
+     * @param ip      the IP to connect to
+     * @param port    the port to connect to
+     * @param options the {@link RadioSocketOptions} to configure the socket with
+     * @return a connected RadioSocket, which goes back into the pool once closed
+     * @throws IOException if something went wrong creating the socket or creating the input/output streams
+     */
+    public static RadioSocket open(final String ip, final int port, final RadioSocketOptions options) throws IOException {
+        return open(ip, port, options.getConnectTimeout(), options);
+    }
+
+
+    /**
+     * Takes a RadioSocket from the shared pool and connects it to an IP and port number,
+     * giving up if the connection cannot be made in time
+     *
+     * @param ip         the IP to connect to
+     * @param port       the port to connect to
+     * @param timeout_ms the longest to wait for the connection, in milliseconds
+     * @return a connected RadioSocket, which goes back into the pool once closed
+     * @throws IOException if something went wrong creating the socket or creating the input/output streams
+     */
+    public static RadioSocket open(final String ip, final int port, final int timeout_ms) throws IOException {
+        return open(ip, port, timeout_ms, DEFAULT_OPTIONS);
+    }
+
+
+    /**
+     * Takes a RadioSocket from the shared pool and connects it to an IP and port number,
+     * giving up if the connection cannot be made in time
+     *
+     * @param ip         the IP to connect to
+     * @param port       the port to connect to
+     * @param timeout_ms the longest to wait for the connection in milliseconds,
+     *                   capped by the connect timeout of the options
+     * @param options    the {@link RadioSocketOptions} to configure the socket with
+     * @return a connected RadioSocket, which goes back into the pool once closed
+     * @throws IOException if something went wrong creating the socket or creating the input/output streams
+     */
+    public static RadioSocket open(final String ip, final int port, final int timeout_ms,
+                                   final RadioSocketOptions options) throws IOException {
+        Socket socket = new Socket();
+        try {
+            // applied before connecting so the receive buffer size can affect the TCP window
+            options.apply(socket);
+            socket.connect(new InetSocketAddress(ip, port), Math.min(timeout_ms, options.getConnectTimeout()));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return take(socket);
+    }
+
+
+    /**
+     * Takes a RadioSocket from the shared pool and binds it to an already connected Socket
+     *
+     * @param socket Socket object to be used for the transaction
+     * @return a bound RadioSocket, which goes back into the pool once closed
+     * @throws IOException if something went wrong when creating the input/output streams
+     */
+    public static RadioSocket wrap(Socket socket) throws IOException {
+        return wrap(socket, DEFAULT_OPTIONS);
+    }
+
+
+    /**
+     * Takes a RadioSocket from the shared pool and binds it to an already connected Socket
+     *
+     * @param socket  Socket object to be used for the transaction
+     * @param options the {@link RadioSocketOptions} to configure the socket with
+     * @return a bound RadioSocket, which goes back into the pool once closed
+     * @throws IOException if something went wrong when creating the input/output streams
+     */
+    public static RadioSocket wrap(Socket socket, RadioSocketOptions options) throws IOException {
+        try {
+            options.apply(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return take(socket);
+    }
+
+
+    /**
+     * takes a RadioSocket from the pool and binds it to an already configured socket
+     */
+    private static RadioSocket take(Socket socket) throws IOException {
+        RadioSocket job = pool.acquire();
+        job.pooled = true;
+        try {
+            job.bind(socket);
+        } catch (IOException e) {
+            job.close();
+            throw e;
+        }
+        return job;
+    }
+
+
+    /**
+     * Gives the pool shared by all pooled RadioSockets, mostly so that leak detection can be enabled on it
+     *
+     * @return the RadioSocket pool
+     */
+    public static ObjectPool<RadioSocket> pool() {
+        return pool;
+    }
+
+
+    /**
+     * Sets the largest message body any RadioSocket will accept,
+     * a sender announcing a bigger body gets disconnected before it is read
+     *
+     * @param max_bytes the largest body in bytes
+     */
+    public static void setMaxBodyLength(int max_bytes) {
+        if (max_bytes < 0) throw new IllegalArgumentException("max body length must not be negative");
+        max_body_length = max_bytes;
+    }
+
+
+    /**
+     * Gets the largest message body any RadioSocket will accept
+     *
+     * @return the largest body in bytes
+     */
+    public static int getMaxBodyLength() {
+        return max_body_length;
+    }
+
+
+    /**
+     * Attaches this RadioSocket to a connected Socket, pointing its reused streams at it
+     *
+     * @param socket Socket object to be used for the transaction
+     * @throws IOException if something went wrong when getting the input/output streams
+     */
+    private void bind(Socket socket) throws IOException {
+        synchronized (lease_lock) {
+            this.socket = socket;
+            closed = false;
+        }
+        socket_out.attach(socket.getOutputStream());
+        socket_in.attach(socket.getInputStream());
+    }
+
+
+    /**
+     * Drops every reference this RadioSocket holds so it can be reused by the pool
+     */
+    private void reset() {
+        socket = null;
+        socket_out.attach(null);
+        socket_in.attach(null);
+        pooled = false;
+        compress_with = null;
+        stream = null;
+        frame_body = null;
+        message.clear();
+        remote.clear();
+
+        // don't let one huge message pin a huge buffer in the pool forever
+        if (body_out.capacity() > RETAIN_LIMIT) {
+            body_out = new FrameOutput();
+            body_writer = new DataOutputStream(body_out);
+        }
+        if (body_bytes.length > RETAIN_LIMIT)
+            body_bytes = new byte[1024];
+    }
+
+
+    /**
+     * <p> Encrypts and signs a message body for a single recipient, without a connection </p>
+     * used to hand messages over in-process with the same protection they would have on the wire
+     *
+     * @param body       the encoded body of the message
+     * @param remote_pub the public key of the recipient
+     * @param self_priv  our private key, to sign the encrypted body with
+     * @return the envelope to hand to the recipient
+     * @throws InvalidKeyException if either key could not be used
+     * @throws SignatureException  if something goes wrong signing the message (bad private key?)
+     */
+    public static Envelope envelope(byte[] body, PublicKey remote_pub, PrivateKey self_priv)
+            throws InvalidKeyException, SignatureException {
+        return envelope(encryptAndSign(body, "", self_priv), remote_pub);
+    }
+
+
+    /**
+     * <p> Addresses a body sealed with {@link #seal(byte[], PayloadCodec, int, PrivateKey)} to a single recipient </p>
+     * the recipient gets exactly the bytes which were sealed, however the message was changed since
+     *
+     * @param sealed     the sealed body
+     * @param remote_pub the public key of the recipient
+     * @return the envelope to hand to the recipient
+     * @throws InvalidKeyException if the public key could not be used
+     */
+    public static Envelope envelope(SealedBody sealed, PublicKey remote_pub) throws InvalidKeyException {
+        return new Envelope(MessageEncryptor.encryptRSA(remote_pub, sealed.aes_key.key64()), sealed);
+    }
+
+
+    /**
+     * <p> Checks and decrypts a body made by {@link #envelope(byte[], PublicKey, PrivateKey)} </p>
+     *
+     * @param envelope   the envelope
+     * @param remote_pub the public key of the sender, to check the signature with
+     * @param self_priv  our private key, to decrypt with
+     * @return the encoded body of the message
+     * @throws InvalidKeyException if the signature does not match, or a key could not be used
+     * @throws SignatureException  if the signature could not be checked
+     * @throws IOException         if the body was compressed and could not be decompressed
+     */
+    public static byte[] openEnvelope(Envelope envelope, PublicKey remote_pub, PrivateKey self_priv)
+            throws InvalidKeyException, SignatureException, IOException {
+        SealedBody sealed = envelope.sealed;
+        if (!MessageEncryptor.verifySignature(remote_pub, sealed.body_enc, 0, sealed.body_enc.length, sealed.signature))
+            throw new InvalidKeyException("message signature is invalid");
+
+        HelpfulAESKey aes_key = new HelpfulAESKey(MessageEncryptor.decryptRSA(self_priv, envelope.aeskey_enc));
+        return decompress(sealed.codec, MessageEncryptor.decryptAES(aes_key, sealed.body_enc, 0, sealed.body_enc.length));
+    }
+
+
+    /**
+     * <p> Opens a sealed body with its own AES key, without any RSA or checking its signature </p>
+     * only for handing a sealed body to a recipient in the same process which trusts the sender
+     *
+     * @param sealed the sealed body
+     * @return the encoded body of the message, as it was when it was sealed
+     * @throws InvalidKeyException if the AES key could not be used
+     * @throws IOException         if the body was compressed and could not be decompressed
+     */
+    public static byte[] unseal(SealedBody sealed) throws InvalidKeyException, IOException {
+        return decompress(sealed.codec, MessageEncryptor.decryptAES(sealed.aes_key, sealed.body_enc, 0, sealed.body_enc.length));
     }
 
 
@@ -75,9 +432,84 @@ public class RadioSocket {
      * @param public_key_b64 the local RSA public key to be sent along with the message
      */
     public void setMessage(String to_write, String reason, String public_key_b64) {
+        setMessage(to_write.getBytes(StandardCharsets.UTF_8), reason, public_key_b64);
+    }
+
+
+    /**
+     * Sets the message to be encrypted and sent to the destination port
+     *
+     * @param to_write       the encoded body of the message to be transmitted
+     * @param reason         the reason for the message being sent
+     * @param public_key_b64 the local RSA public key to be sent along with the message
+     */
+    public void setMessage(byte[] to_write, String reason, String public_key_b64) {
         message.body = to_write;
+        message.sealed = null;
+        message.reason = reason;
+        message.public_key = public_key_b64;
+        message.accepts = PayloadCodecs.accepted();
+    }
+
+
+    /**
+     * Sets how the message is compressed before being encrypted
+     *
+     * @param codec     the {@link PayloadCodec} to compress with, or null to never compress
+     * @param threshold the smallest message body in bytes that is worth compressing
+     */
+    public void setCompression(PayloadCodec codec, int threshold) {
+        compress_with = codec;
+        compress_threshold = threshold;
+    }
+
+
+    /**
+     * Sets how long the remote side has to answer the message, sent along with it so the
+     * remote side can drop the message once nobody is waiting for the answer anymore
+     *
+     * @param timeout_ms the time left until the sender gives up in milliseconds, or 0 for no deadline
+     */
+    public void setMessageTimeout(long timeout_ms) {
+        message.timeout = timeout_ms;
+    }
+
+
+    /**
+     * Sets whether the message asks to keep the connection open as a subscription if it is answered successfully
+     *
+     * @param subscribe if the message subscribes
+     */
+    public void setSubscribe(boolean subscribe) {
+        message.subscribe = subscribe;
+    }
+
+
+    /**
+     * Sets how long reads from the remote socket may block for
+     *
+     * @param timeout_ms the read timeout in milliseconds
+     * @throws IOException if the timeout could not be applied to the socket
+     */
+    public void setReadTimeout(int timeout_ms) throws IOException {
+        socket.setSoTimeout(timeout_ms);
+    }
+
+
+    /**
+     * Sets an already sealed message to be sent to the destination port,
+     * so encoding it only has to encrypt its AES key for the recipient
+     *
+     * @param sealed         the body sealed by {@link #seal(byte[], PayloadCodec, int, PrivateKey)}
+     * @param reason         the reason for the message being sent
+     * @param public_key_b64 the local RSA public key to be sent along with the message
+     */
+    public void setMessage(SealedBody sealed, String reason, String public_key_b64) {
+        message.body = null;
+        message.sealed = sealed;
         message.reason = reason;
         message.public_key = public_key_b64;
+        message.accepts = PayloadCodecs.accepted();
     }
 
 
@@ -88,12 +520,79 @@ public class RadioSocket {
      * @param self_priv  our socket's private key, to be used for decrypting their message
      * @throws InvalidKeyException if the remote RSA key is bad
      * @throws SignatureException  if something goes wrong signing the message (bad private key?)
+     * @throws IOException         if the message could not be compressed
+     */
+    public void encodeMessage(PublicKey remote_pub, PrivateKey self_priv) throws InvalidKeyException, SignatureException, IOException {
+        SealedBody sealed = message.sealed != null
+                ? message.sealed
+                : seal(message.body, compress_with, compress_threshold, self_priv);
+
+        message.codec = sealed.codec;
+        message.aes_key = sealed.aes_key;
+        message.aeskey_enc = MessageEncryptor.encryptRSA(remote_pub, sealed.aes_key.key64());
+        message.body_enc = sealed.body_enc;
+        message.body_enc_offset = 0;
+        message.body_enc_length = sealed.body_enc.length;
+        message.signature = sealed.signature;
+    }
+
+
+    /**
+     * <p> Compresses, encrypts and signs a message body without picking a recipient yet </p>
+     * the same sealed body can be sent to any number of recipients,
+     * each of them only costing an RSA encryption of the AES key
+     *
+     * @param body      the encoded body of the message
+     * @param codec     the {@link PayloadCodec} to compress with, or null to never compress
+     * @param threshold the smallest message body in bytes that is worth compressing
+     * @param self_priv our private key, to sign the encrypted body with
+     * @return the sealed body
+     * @throws InvalidKeyException if the AES key could not be used
+     * @throws SignatureException  if something goes wrong signing the message (bad private key?)
+     * @throws IOException         if the message could not be compressed
      */
-    public void encodeMessage(PublicKey remote_pub, PrivateKey self_priv) throws InvalidKeyException, SignatureException {
-        message.aes_key = new HelpfulAESKey();
-        message.aeskey_enc = MessageEncryptor.encryptRSA(remote_pub, message.aes_key.key64());
-        message.body_enc = MessageEncryptor.encryptAES(message.aes_key, message.body);
-        message.signature = MessageEncryptor.generateSignature(self_priv, message.body_enc);
+    public static SealedBody seal(byte[] body, PayloadCodec codec, int threshold, PrivateKey self_priv)
+            throws InvalidKeyException, SignatureException, IOException {
+        byte[] plain = body;
+
+        String used = "";
+        if (codec != null && plain.length >= threshold) {
+            byte[] packed = codec.encode(plain);
+
+            // incompressible bodies are sent as they are
+            if (packed.length < plain.length) {
+                plain = packed;
+                used = codec.name();
+            }
+        }
+
+        return encryptAndSign(plain, used, self_priv);
+    }
+
+
+    /**
+     * encrypts a body which is ready to go with a new AES key, and signs the result
+     */
+    private static SealedBody encryptAndSign(byte[] plain, String codec, PrivateKey self_priv)
+            throws InvalidKeyException, SignatureException {
+        HelpfulAESKey aes_key = new HelpfulAESKey();
+        byte[] body_enc = MessageEncryptor.encryptAES(aes_key, plain);
+        String signature = MessageEncryptor.generateSignature(self_priv, body_enc, 0, body_enc.length);
+        return new SealedBody(codec, aes_key, body_enc, signature);
+    }
+
+
+    /**
+     * undoes the compression of a decrypted body, if it was compressed
+     */
+    private static byte[] decompress(String codec_name, byte[] plain) throws IOException {
+        if (codec_name.isEmpty())
+            return plain;
+
+        PayloadCodec codec = PayloadCodecs.get(codec_name);
+        if (codec == null)
+            throw new IOException("message was compressed with unknown codec " + codec_name);
+        return codec.decode(plain, max_body_length);
     }
 
 
@@ -103,38 +602,320 @@ public class RadioSocket {
      * @throws IOException if an error was encountered writing to the remote socket
      */
     public void sendMessage() throws IOException {
+        body_out.reset();
+        body_writer.writeUTF(message.aeskey_enc);
+        body_writer.writeUTF(message.signature);
+        body_writer.writeInt(message.body_enc_length);
+        body_writer.write(message.body_enc, message.body_enc_offset, message.body_enc_length);
+
         oos.writeUTF(message.reason);
         oos.writeUTF(message.public_key);
-        oos.writeUTF(message.aeskey_enc);
-        oos.writeUTF(message.signature);
-        oos.writeUTF(message.body_enc);
+        oos.writeLong(message.timeout);
+        oos.writeUTF(message.codec);
+        oos.writeUTF(message.accepts);
+        oos.writeBoolean(message.subscribe);
+        oos.writeInt(body_out.size());
+        body_out.writeTo(oos);
         oos.flush();
     }
 
 
     /**
-     * receives a message from the remote port
+     * <p> Sends an unencrypted rejection in place of a reply </p>
+     * used to turn a message away before spending any crypto on it,
+     * the rejecting {@link RadioError} is sent in the reason field which replies otherwise leave empty
+     *
+     * @param error the reason the message was rejected
+     * @throws IOException if an error was encountered writing to the remote socket
+     */
+    public void sendRejection(RadioError error) throws IOException {
+        // a small unread body is read first, unread data would make closing reset the connection
+        if (remote.body_length > 0 && remote.body_enc == null && remote.body_length <= DRAIN_LIMIT)
+            skipBody();
+
+        message.clear();
+        message.reason = error.name();
+        message.public_key = "";
+        message.codec = "";
+        message.accepts = "";
+        message.aeskey_enc = "";
+        message.signature = "";
+        message.body_enc = EMPTY;
+        sendMessage();
+    }
+
+
+    /**
+     * get the error the remote side rejected our message with, if it was rejected
+     *
+     * @return the rejecting {@link RadioError}, or null if the remote message is a real reply
+     */
+    public RadioError getRemoteRejection() {
+        if (remote.reason == null || remote.reason.isEmpty())
+            return null;
+        try {
+            return RadioError.valueOf(remote.reason);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * receives a whole message from the remote port
      *
      * @throws IOException if an error was encountered reading from the remote socket
      */
     public void receiveRemote() throws IOException {
+        receiveHeader();
+        receiveBody();
+    }
+
+
+    /**
+     * <p> receives only the header of a message from the remote port </p>
+     * the reason, sender key and timeout can be inspected before deciding whether to read the body
+     *
+     * @throws IOException if an error was encountered reading from the remote socket, or the body is too large
+     */
+    public void receiveHeader() throws IOException {
         remote.reason = ois.readUTF();
         remote.public_key = ois.readUTF();
-        remote.aeskey_enc = ois.readUTF();
-        remote.signature = ois.readUTF();
-        remote.body_enc = ois.readUTF();
+        remote.timeout = ois.readLong();
+        remote.codec = ois.readUTF();
+        remote.accepts = ois.readUTF();
+        remote.subscribe = ois.readBoolean();
+        remote.body_length = ois.readInt();
+
+        if (remote.body_length < 0 || remote.body_length > max_body_length)
+            throw new IOException("message body of " + remote.body_length + " bytes is not allowed");
+    }
+
+
+    /**
+     * receives the body of a message whose header was read with {@link #receiveHeader()}
+     *
+     * @throws IOException if an error was encountered reading from the remote socket
+     */
+    public void receiveBody() throws IOException {
+        int length = remote.body_length;
+        if (length == 0) {
+            remote.aeskey_enc = "";
+            remote.signature = "";
+            remote.body_enc = EMPTY;
+            return;
+        }
+
+        if (body_bytes.length < length)
+            body_bytes = new byte[Math.max(length, body_bytes.length * 2)];
+        ois.readFully(body_bytes, 0, length);
+
+        body_in.load(body_bytes, length);
+        remote.aeskey_enc = body_reader.readUTF();
+        remote.signature = body_reader.readUTF();
+
+        // the encrypted text is left where it is in the buffer instead of being copied out
+        int enc_length = body_reader.readInt();
+        if (enc_length < 0 || enc_length > body_in.available())
+            throw new IOException("encrypted text length " + enc_length + " does not fit the message body");
+        remote.body_enc = body_bytes;
+        remote.body_enc_offset = body_in.position();
+        remote.body_enc_length = enc_length;
     }
 
 
     /**
-     * decodes the received message body
+     * reads and throws away the body of a message whose header was read with {@link #receiveHeader()}
+     *
+     * @throws IOException if an error was encountered reading from the remote socket
+     */
+    public void skipBody() throws IOException {
+        int left = remote.body_length;
+        while (left > 0) {
+            int skipped = ois.skipBytes(left);
+            if (skipped <= 0) {
+                ois.readByte();
+                skipped = 1;
+            }
+            left -= skipped;
+        }
+        remote.body_enc = EMPTY;
+    }
+
+
+    /**
+     * decodes the received message body, decompressing it if it was compressed
      *
      * @param self_priv our socket's private key, to be used for decrypting their message
      * @throws InvalidKeyException if our private key didn't work to decode the message
+     * @throws IOException         if the body could not be decompressed
      */
-    public void decodeRemote(PrivateKey self_priv) throws InvalidKeyException {
+    public void decodeRemote(PrivateKey self_priv) throws InvalidKeyException, IOException {
         remote.aes_key = new HelpfulAESKey(MessageEncryptor.decryptRSA(self_priv, remote.aeskey_enc));
-        remote.body = MessageEncryptor.decryptAES(remote.aes_key, remote.body_enc);
+        byte[] plain = MessageEncryptor.decryptAES(remote.aes_key, remote.body_enc, remote.body_enc_offset, remote.body_enc_length);
+        remote.body = decompress(remote.codec, plain);
+    }
+
+
+    /**
+     * <p> Turns this connection into a long-lived stream once a message and its reply have been exchanged </p>
+     * the frames sent afterwards with {@link #sendFrame(byte, byte[])} are encrypted and authenticated with
+     * session keys derived from the AES keys of that exchange, so they cost no RSA operations
+     *
+     * @param initiator if this side sent the message which asked for the stream
+     * @throws IOException if the session keys could not be set up
+     */
+    public void openStream(boolean initiator) throws IOException {
+        HelpfulAESKey request_key = initiator ? message.aes_key : remote.aes_key;
+        HelpfulAESKey reply_key = initiator ? remote.aes_key : message.aes_key;
+        if (request_key == null || reply_key == null)
+            throw new IllegalStateException("a message and its reply must be exchanged before opening a stream");
+
+        try {
+            stream = new StreamCipher(request_key.key().getEncoded(), reply_key.key().getEncoded(), initiator);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("could not set up stream keys", e);
+        }
+        socket.setSoTimeout(0);
+    }
+
+
+    /**
+     * <p> Encrypts and sends a single frame over an open stream </p>
+     * may be called from any thread, frames are written one at a time in the order they are sealed
+     *
+     * @param type the frame type, such as {@link #STREAM_DATA}
+     * @param body the frame contents, which are encrypted in place
+     * @throws IOException if an error was encountered writing to the remote socket
+     */
+    public void sendFrame(byte type, byte[] body) throws IOException {
+        if (stream == null)
+            throw new IllegalStateException("no stream has been opened");
+
+        synchronized (frame_lock) {
+            byte[] mac = stream.seal(type, body);
+            oos.writeByte(type);
+            oos.writeInt(body.length);
+            oos.write(body);
+            oos.write(mac);
+            oos.flush();
+        }
+    }
+
+
+    /**
+     * grants the other side of an open stream credit for more messages
+     *
+     * @param granted how many more messages this side is ready for
+     * @throws IOException if an error was encountered writing to the remote socket
+     */
+    public void sendCredit(int granted) throws IOException {
+        sendFrame(STREAM_CREDIT, new byte[]{
+                (byte) (granted >>> 24), (byte) (granted >>> 16), (byte) (granted >>> 8), (byte) granted});
+    }
+
+
+    /**
+     * reads the credit granted by a {@link #STREAM_CREDIT} frame
+     *
+     * @param body the contents of the frame
+     * @return how many more messages the other side is ready for
+     * @throws IOException if the frame does not hold a credit
+     */
+    public static int readCredit(byte[] body) throws IOException {
+        if (body.length != 4)
+            throw new IOException("credit frame of " + body.length + " bytes is not valid");
+        return (body[0] & 0xFF) << 24 | (body[1] & 0xFF) << 16 | (body[2] & 0xFF) << 8 | (body[3] & 0xFF);
+    }
+
+
+    /**
+     * receives, verifies and decrypts the next frame of an open stream, blocking until it arrives
+     *
+     * @return the type of the frame, its contents are given by {@link #getFrameBody()}
+     * @throws IOException if an error was encountered reading from the remote socket, or the frame failed to verify
+     */
+    public byte receiveFrame() throws IOException {
+        if (stream == null)
+            throw new IllegalStateException("no stream has been opened");
+
+        byte type = ois.readByte();
+        int length = ois.readInt();
+        if (length < 0 || length > max_body_length)
+            throw new IOException("stream frame of " + length + " bytes is not allowed");
+
+        byte[] body = new byte[length];
+        ois.readFully(body);
+        byte[] mac = new byte[StreamCipher.MAC_LENGTH];
+        ois.readFully(mac);
+
+        stream.open(type, body, mac);
+        frame_body = body;
+        return type;
+    }
+
+
+    /**
+     * get the contents of the last frame received with {@link #receiveFrame()}
+     *
+     * @return the decrypted frame contents
+     */
+    public byte[] getFrameBody() {
+        return frame_body;
+    }
+
+
+    /**
+     * <p> Tells the remote side nothing more will be sent, while still reading what it sends </p>
+     * ends a stream without resetting the connection, which could lose frames the remote side has not read yet
+     */
+    public void shutdownOutput() {
+        try {
+            if (socket != null) socket.shutdownOutput();
+        } catch (IOException ignored) {
+        }
+    }
+
+
+    /**
+     * <p> Closes the underlying socket without releasing this RadioSocket </p>
+     * used by other threads to stop a stream whose reading thread still owns this RadioSocket,
+     * that thread is woken up by the closed socket and calls {@link #close()} itself
+     */
+    public void abort() {
+        abort(lease());
+    }
+
+
+    /**
+     * <p> Closes the underlying socket without releasing this RadioSocket, if it is still on the same lease </p>
+     * does nothing once the RadioSocket has been closed, even if the pool has since handed it to someone else
+     *
+     * @param lease the lease taken from {@link #lease()} while the connection was still in use
+     */
+    public void abort(int lease) {
+        Socket to_close;
+        synchronized (lease_lock) {
+            if (closed || lease != this.lease)
+                return;
+            to_close = socket;
+        }
+        try {
+            if (to_close != null) to_close.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+
+    /**
+     * Gives the lease of this RadioSocket, which changes every time it is closed
+     *
+     * @return a number identifying the current use of this RadioSocket
+     */
+    public int lease() {
+        synchronized (lease_lock) {
+            return lease;
+        }
     }
 
 
@@ -147,18 +928,46 @@ public class RadioSocket {
      * @throws InvalidKeyException if the public key is bad
      */
     public Boolean verifyRemoteSignature(PublicKey remote_pub) throws SignatureException, InvalidKeyException {
-        return MessageEncryptor.verifySignature(remote_pub, remote.body_enc, remote.signature);
+        return MessageEncryptor.verifySignature(remote_pub, remote.body_enc, remote.body_enc_offset,
+                remote.body_enc_length, remote.signature);
     }
 
     /**
-     * get the remote body
+     * get the remote body as text
      *
      * @return the body of the remote message
      */
     public String getRemoteBody() {
+        return remote.body == null ? null : new String(remote.body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * get the remote body as it was encoded by the sender
+     *
+     * @return the decrypted and decompressed body of the remote message
+     */
+    public byte[] getRemoteBodyBytes() {
         return remote.body;
     }
 
+    /**
+     * get the length of the body received
+     *
+     * @return the number of bytes of body the remote message had
+     */
+    public int getRemoteBodyLength() {
+        return remote.body_length;
+    }
+
+    /**
+     * get the length of the body last sent
+     *
+     * @return the number of bytes of body sent by the last call to {@link #sendMessage()}
+     */
+    public int getSentBodyLength() {
+        return body_out.size();
+    }
+
     /**
      * get the remote reason
      *
@@ -178,21 +987,81 @@ public class RadioSocket {
     }
 
     /**
-     * closes all streams / sockets used by this object
+     * get the codec the remote body was compressed with
+     *
+     * @return the {@link PayloadCodec} name, or an empty string if the body is not compressed
+     */
+    public String getRemoteCodec() {
+        return remote.codec;
+    }
+
+    /**
+     * get the codecs the remote side is able to decompress a reply with
+     *
+     * @return the comma separated {@link PayloadCodec} names, most preferred first
+     */
+    public String getRemoteAccepts() {
+        return remote.accepts;
+    }
+
+    /**
+     * get whether the remote side asked to keep the connection open as a subscription
+     *
+     * @return if the remote message subscribes
+     */
+    public boolean isRemoteSubscribing() {
+        return remote.subscribe;
+    }
+
+    /**
+     * get how long the remote side said it would wait for an answer
+     *
+     * @return the remote timeout in milliseconds, or 0 if it set no deadline
+     */
+    public long getRemoteTimeout() {
+        return remote.timeout;
+    }
+
+    /**
+     * <p> closes all streams / sockets used by this object </p>
+     * pooled RadioSockets are handed back to the pool afterwards, even if closing failed
      *
      * @throws IOException if something goes wrong while closing the socket / io streams
      */
     public void close() throws IOException {
-        oos.close();
-        ois.close();
-        socket.close();
+        close(lease());
+    }
+
+
+    /**
+     * <p> closes all streams / sockets used by this object, if it is still on the same lease </p>
+     * closing more than once only releases the RadioSocket once, and a lease taken before an earlier close
+     * does nothing, even if the pool has since handed the RadioSocket to someone else
+     *
+     * @param lease the lease taken from {@link #lease()} while the connection was still in use
+     * @throws IOException if something goes wrong while closing the socket / io streams
+     */
+    public void close(int lease) throws IOException {
+        synchronized (lease_lock) {
+            if (closed || lease != this.lease)
+                return;
+            closed = true;
+            this.lease++;
+        }
+
+        // the buffered streams stay open to be reused, closing the socket closes what is under them
+        try {
+            if (socket != null) socket.close();
+        } finally {
+            if (pooled) pool.release(this);
+        }
     }
 
 
     /**
      * all information pertaining to a single message
      */
-    private class MessageData {
+    private static class MessageData {
 
         /**
          * the reason this message was/is being sent
@@ -202,12 +1071,37 @@ public class RadioSocket {
         /**
          * the plaintext body of the message
          */
-        private String body;
+        private byte[] body;
+
+        /**
+         * the body already compressed, encrypted and signed for any recipient, if it was sealed in advance
+         */
+        private SealedBody sealed;
+
+        /**
+         * the AES-encoded body of the message, which may be part of a larger buffer
+         */
+        private byte[] body_enc;
+
+        /**
+         * where in body_enc the encoded body starts
+         */
+        private int body_enc_offset;
 
         /**
-         * the AES-encoded body of the message
+         * the length in bytes of the encoded body
          */
-        private String body_enc;
+        private int body_enc_length;
+
+        /**
+         * the {@link PayloadCodec} the body was compressed with before encoding, empty if it was not
+         */
+        private String codec = "";
+
+        /**
+         * the {@link PayloadCodec}s the sender can decompress, comma separated
+         */
+        private String accepts = "";
 
         /**
          * the AES key with which the body of this message was encoded
@@ -228,6 +1122,168 @@ public class RadioSocket {
          * a signature generated by the sender using their private key
          */
         private String signature;
+
+        /**
+         * how long the sender will wait for an answer in milliseconds, 0 if there is no deadline
+         */
+        private long timeout;
+
+        /**
+         * whether the sender wants to keep the connection open as a subscription
+         */
+        private boolean subscribe;
+
+        /**
+         * the length in bytes of the body, as announced in the header
+         */
+        private int body_length;
+
+
+        /**
+         * forgets every field of the message so it can be reused
+         */
+        private void clear() {
+            reason = null;
+            body = null;
+            sealed = null;
+            body_enc = null;
+            body_enc_offset = 0;
+            body_enc_length = 0;
+            codec = "";
+            accepts = "";
+            aes_key = null;
+            aeskey_enc = null;
+            public_key = null;
+            signature = null;
+            timeout = 0;
+            subscribe = false;
+            body_length = 0;
+        }
+    }
+
+
+    /**
+     * <p> A message body compressed, encrypted with its own AES key and signed, but not yet addressed to anyone </p>
+     * sending it to a recipient only takes encrypting the AES key with their public key,
+     * see {@link #seal(byte[], PayloadCodec, int, PrivateKey)}
+     */
+    public static final class SealedBody {
+
+        private final String codec;
+        private final HelpfulAESKey aes_key;
+        private final byte[] body_enc;
+        private final String signature;
+
+        private SealedBody(String codec, HelpfulAESKey aes_key, byte[] body_enc, String signature) {
+            this.codec = codec;
+            this.aes_key = aes_key;
+            this.body_enc = body_enc;
+            this.signature = signature;
+        }
+
+        /**
+         * gives the codec the body was compressed with
+         *
+         * @return the {@link PayloadCodec} name, or an empty string if the body is not compressed
+         */
+        public String getCodec() {
+            return codec;
+        }
+
+        /**
+         * gives the size of the encrypted body
+         *
+         * @return the length in bytes
+         */
+        public int length() {
+            return body_enc.length;
+        }
+    }
+
+
+    /**
+     * a message body encrypted and signed for a single recipient, see {@link #envelope(byte[], PublicKey, PrivateKey)}
+     */
+    public static final class Envelope {
+
+        private final String aeskey_enc;
+        private final SealedBody sealed;
+
+        private Envelope(String aeskey_enc, SealedBody sealed) {
+            this.aeskey_enc = aeskey_enc;
+            this.sealed = sealed;
+        }
+    }
+
+
+    /**
+     * a byte buffer for writing message bodies into, reused from one message to the next
+     */
+    private static class FrameOutput extends ByteArrayOutputStream {
+
+        private FrameOutput() {
+            super(1024);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+
+
+    /**
+     * a buffered stream to the connection, which keeps its buffer when it moves on to another connection
+     */
+    private static class SocketOutput extends BufferedOutputStream {
+
+        private SocketOutput() {
+            super(null, 8192);
+        }
+
+        private void attach(OutputStream stream) {
+            out = stream;
+            count = 0;
+        }
+    }
+
+
+    /**
+     * a buffered stream from the connection, which keeps its buffer when it moves on to another connection
+     */
+    private static class SocketInput extends BufferedInputStream {
+
+        private SocketInput() {
+            super(null, 8192);
+        }
+
+        private void attach(InputStream stream) {
+            in = stream;
+            pos = 0;
+            count = 0;
+            markpos = -1;
+        }
+    }
+
+
+    /**
+     * a view over a byte buffer for reading message bodies from, reused from one message to the next
+     */
+    private static class FrameInput extends ByteArrayInputStream {
+
+        private FrameInput() {
+            super(new byte[0]);
+        }
+
+        private void load(byte[] bytes, int length) {
+            buf = bytes;
+            pos = 0;
+            count = length;
+            mark = 0;
+        }
+
+        private int position() {
+            return pos;
+        }
     }
 
 }
@@ -0,0 +1,252 @@
+package online.umbcraft.libraries.network;
+
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.response.WalkieTalkie;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+
+
+/**
+ * <p> TCP settings applied to the sockets {@link RadioSocket}s are sent over </p>
+ * <p>
+ * Set per {@link WalkieTalkie} for the listening and accepted sockets of its ports,
+ * and per {@link ReasonMessage} for the sockets it connects with.
+ * Buffer sizes and the backlog left at 0 keep the operating system's default
+ * <p>
+ * TCP_NODELAY is on by default, since waiting to fill a packet only delays small request / reply messages
+ */
+public class RadioSocketOptions {
+
+    private boolean tcp_nodelay = true;
+    private boolean keepalive = false;
+    private int send_buffer = 0;
+    private int receive_buffer = 0;
+    private int backlog = 0;
+    private int connect_timeout_ms = RadioSocket.DEFAULT_TIMEOUT;
+    private int read_timeout_ms = RadioSocket.DEFAULT_TIMEOUT;
+
+
+    /**
+     * Creates RadioSocketOptions with the default settings
+     */
+    public RadioSocketOptions() {
+    }
+
+
+    /**
+     * Creates a copy of other RadioSocketOptions
+     *
+     * @param other the options to copy
+     */
+    public RadioSocketOptions(RadioSocketOptions other) {
+        tcp_nodelay = other.tcp_nodelay;
+        keepalive = other.keepalive;
+        send_buffer = other.send_buffer;
+        receive_buffer = other.receive_buffer;
+        backlog = other.backlog;
+        connect_timeout_ms = other.connect_timeout_ms;
+        read_timeout_ms = other.read_timeout_ms;
+    }
+
+
+    /**
+     * Sets whether small writes are sent right away instead of being held back to fill a packet (TCP_NODELAY)
+     *
+     * @param nodelay if Nagle's algorithm should be turned off
+     * @return itself
+     */
+    public RadioSocketOptions setTcpNoDelay(boolean nodelay) {
+        tcp_nodelay = nodelay;
+        return this;
+    }
+
+
+    /**
+     * Sets whether idle connections are probed to detect a dead peer (SO_KEEPALIVE)
+     *
+     * @param keepalive if keepalive probes should be sent
+     * @return itself
+     */
+    public RadioSocketOptions setKeepAlive(boolean keepalive) {
+        this.keepalive = keepalive;
+        return this;
+    }
+
+
+    /**
+     * Sets the size of the socket send buffer (SO_SNDBUF)
+     *
+     * @param bytes the buffer size in bytes, or 0 for the system default
+     * @return itself
+     */
+    public RadioSocketOptions setSendBuffer(int bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("buffer size must not be negative");
+        send_buffer = bytes;
+        return this;
+    }
+
+
+    /**
+     * Sets the size of the socket receive buffer (SO_RCVBUF)
+     *
+     * @param bytes the buffer size in bytes, or 0 for the system default
+     * @return itself
+     */
+    public RadioSocketOptions setReceiveBuffer(int bytes) {
+        if (bytes < 0) throw new IllegalArgumentException("buffer size must not be negative");
+        receive_buffer = bytes;
+        return this;
+    }
+
+
+    /**
+     * Sets how many connections may wait to be accepted on a listening port
+     *
+     * @param backlog the backlog length, or 0 for the system default
+     * @return itself
+     */
+    public RadioSocketOptions setBacklog(int backlog) {
+        if (backlog < 0) throw new IllegalArgumentException("backlog must not be negative");
+        this.backlog = backlog;
+        return this;
+    }
+
+
+    /**
+     * Sets the longest to wait for a connection to be made
+     *
+     * @param timeout_ms the connect timeout in milliseconds
+     * @return itself
+     */
+    public RadioSocketOptions setConnectTimeout(int timeout_ms) {
+        if (timeout_ms <= 0) throw new IllegalArgumentException("timeout must be positive");
+        connect_timeout_ms = timeout_ms;
+        return this;
+    }
+
+
+    /**
+     * <p> Sets the longest a single read may block for (SO_TIMEOUT) </p>
+     * a {@link ReasonMessage} waits for its reply for as long as its own timeout has left instead
+     *
+     * @param timeout_ms the read timeout in milliseconds
+     * @return itself
+     */
+    public RadioSocketOptions setReadTimeout(int timeout_ms) {
+        if (timeout_ms <= 0) throw new IllegalArgumentException("timeout must be positive");
+        read_timeout_ms = timeout_ms;
+        return this;
+    }
+
+
+    /**
+     * Gives whether TCP_NODELAY is set
+     *
+     * @return if Nagle's algorithm is turned off
+     */
+    public boolean getTcpNoDelay() {
+        return tcp_nodelay;
+    }
+
+
+    /**
+     * Gives whether SO_KEEPALIVE is set
+     *
+     * @return if keepalive probes are sent
+     */
+    public boolean getKeepAlive() {
+        return keepalive;
+    }
+
+
+    /**
+     * Gives the socket send buffer size
+     *
+     * @return the size in bytes, or 0 for the system default
+     */
+    public int getSendBuffer() {
+        return send_buffer;
+    }
+
+
+    /**
+     * Gives the socket receive buffer size
+     *
+     * @return the size in bytes, or 0 for the system default
+     */
+    public int getReceiveBuffer() {
+        return receive_buffer;
+    }
+
+
+    /**
+     * Gives the backlog of listening ports
+     *
+     * @return the backlog length, or 0 for the system default
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+
+    /**
+     * Gives the connect timeout
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getConnectTimeout() {
+        return connect_timeout_ms;
+    }
+
+
+    /**
+     * Gives the read timeout
+     *
+     * @return the timeout in milliseconds
+     */
+    public int getReadTimeout() {
+        return read_timeout_ms;
+    }
+
+
+    /**
+     * Applies these options to a socket, before or after it is connected
+     * (the receive buffer only affects the TCP window if set before connecting)
+     *
+     * @param socket the socket to configure
+     * @throws SocketException if an option could not be set
+     */
+    public void apply(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcp_nodelay);
+        socket.setKeepAlive(keepalive);
+        socket.setSoTimeout(read_timeout_ms);
+        if (send_buffer > 0) socket.setSendBufferSize(send_buffer);
+        if (receive_buffer > 0) socket.setReceiveBufferSize(receive_buffer);
+    }
+
+
+    /**
+     * Binds a listening channel with these options,
+     * connections accepted from it inherit the receive buffer size
+     *
+     * @param channel the unbound listening channel
+     * @param port    the port to bind to
+     * @throws IOException if the channel could not be bound
+     */
+    public void bind(ServerSocketChannel channel, int port) throws IOException {
+        if (receive_buffer > 0) channel.socket().setReceiveBufferSize(receive_buffer);
+        channel.bind(new InetSocketAddress(port), backlog);
+    }
+
+
+    @Override
+    public String toString() {
+        return "RadioSocketOptions{nodelay=" + tcp_nodelay + ", keepalive=" + keepalive
+                + ", sndbuf=" + send_buffer + ", rcvbuf=" + receive_buffer + ", backlog=" + backlog
+                + ", connect_timeout_ms=" + connect_timeout_ms + ", read_timeout_ms=" + read_timeout_ms + "}";
+    }
+}
@@ -0,0 +1,136 @@
+package online.umbcraft.libraries.network;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+
+/**
+ * <p> The session crypto of a long-lived {@link RadioSocket} stream </p>
+ * <p>
+ * Once a subscription has been set up with a normal RSA-keyed exchange, both sides know the AES key of the
+ * request and the AES key of the reply, and every later frame is protected with keys derived from the two.
+ * Each direction has its own encryption and HMAC key, frames are encrypted with AES-CTR using their sequence
+ * number as the counter, and the HMAC covers the sequence number too, so a frame which is dropped,
+ * replayed or reordered fails to verify
+ */
+class StreamCipher {
+
+    static final int MAC_LENGTH = 32;
+
+    private final SecretKeySpec send_key;
+    private final Mac send_mac;
+    private final SecretKeySpec receive_key;
+    private final Mac receive_mac;
+    private final Cipher cipher;
+
+    private long send_seq;
+    private long receive_seq;
+
+
+    /**
+     * Derives the keys of a stream from the two AES keys of the exchange that set it up
+     *
+     * @param request_key the AES key of the message which asked for the stream
+     * @param reply_key   the AES key of the reply to it
+     * @param initiator   if this is the side which sent the request
+     * @throws GeneralSecurityException if AES-CTR or HMAC-SHA256 is not available
+     */
+    StreamCipher(byte[] request_key, byte[] reply_key, boolean initiator) throws GeneralSecurityException {
+        byte[] secret = new byte[request_key.length + reply_key.length];
+        System.arraycopy(request_key, 0, secret, 0, request_key.length);
+        System.arraycopy(reply_key, 0, secret, request_key.length, reply_key.length);
+
+        Mac kdf = Mac.getInstance("HmacSHA256");
+        kdf.init(new SecretKeySpec(secret, "HmacSHA256"));
+
+        String self = initiator ? "client" : "server";
+        String other = initiator ? "server" : "client";
+
+        send_key = new SecretKeySpec(derive(kdf, self + " cipher"), 0, 16, "AES");
+        receive_key = new SecretKeySpec(derive(kdf, other + " cipher"), 0, 16, "AES");
+
+        send_mac = Mac.getInstance("HmacSHA256");
+        send_mac.init(new SecretKeySpec(derive(kdf, self + " mac"), "HmacSHA256"));
+        receive_mac = Mac.getInstance("HmacSHA256");
+        receive_mac.init(new SecretKeySpec(derive(kdf, other + " mac"), "HmacSHA256"));
+
+        cipher = Cipher.getInstance("AES/CTR/NoPadding");
+        Arrays.fill(secret, (byte) 0);
+    }
+
+
+    private static byte[] derive(Mac kdf, String label) {
+        return kdf.doFinal(label.getBytes(StandardCharsets.US_ASCII));
+    }
+
+
+    /**
+     * encrypts the body of the next outgoing frame in place
+     *
+     * @param type  the frame type, covered by the HMAC
+     * @param body  the plaintext, replaced by the ciphertext
+     * @return the HMAC to send after the frame
+     */
+    synchronized byte[] seal(byte type, byte[] body) throws IOException {
+        long seq = send_seq++;
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, send_key, counter(seq));
+            cipher.doFinal(body, 0, body.length, body, 0);
+            return mac(send_mac, seq, type, body);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("could not encrypt stream frame", e);
+        }
+    }
+
+
+    /**
+     * verifies and decrypts the body of the next incoming frame in place
+     *
+     * @param type the frame type, covered by the HMAC
+     * @param body the ciphertext, replaced by the plaintext
+     * @param mac  the HMAC sent after the frame
+     * @throws IOException if the frame was tampered with, dropped, replayed or reordered
+     */
+    synchronized void open(byte type, byte[] body, byte[] mac) throws IOException {
+        long seq = receive_seq++;
+        try {
+            if (!MessageDigest.isEqual(mac, mac(receive_mac, seq, type, body)))
+                throw new IOException("stream frame " + seq + " failed to verify");
+
+            cipher.init(Cipher.DECRYPT_MODE, receive_key, counter(seq));
+            cipher.doFinal(body, 0, body.length, body, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("could not decrypt stream frame", e);
+        }
+    }
+
+
+    /**
+     * every frame starts its own counter block, the sequence number in the high half and the block count below it
+     */
+    private static IvParameterSpec counter(long seq) {
+        byte[] iv = new byte[16];
+        for (int i = 0; i < 8; i++)
+            iv[i] = (byte) (seq >>> (56 - i * 8));
+        return new IvParameterSpec(iv);
+    }
+
+
+    private static byte[] mac(Mac mac, long seq, byte type, byte[] body) {
+        for (int shift = 56; shift >= 0; shift -= 8)
+            mac.update((byte) (seq >>> shift));
+        mac.update(type);
+        int length = body.length;
+        for (int shift = 24; shift >= 0; shift -= 8)
+            mac.update((byte) (length >>> shift));
+        mac.update(body);
+        return mac.doFinal();
+    }
+}
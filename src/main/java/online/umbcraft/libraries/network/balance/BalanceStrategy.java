@@ -0,0 +1,21 @@
+package online.umbcraft.libraries.network.balance;
+
+
+/**
+ * <p> The ways an {@link EndpointGroup} can pick which endpoint receives the next message </p>
+ */
+public enum BalanceStrategy {
+
+
+    /**
+     * scans every available endpoint and picks the one with the fewest requests in flight
+     */
+    LEAST_OUTSTANDING,
+
+
+    /**
+     * picks two available endpoints at random and uses whichever has fewer requests in flight
+     */
+    POWER_OF_TWO
+
+}
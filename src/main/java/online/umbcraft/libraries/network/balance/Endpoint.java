@@ -0,0 +1,169 @@
+package online.umbcraft.libraries.network.balance;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * <p> A single IP:port belonging to an {@link EndpointGroup} </p>
+ * <p>
+ * keeps track of how many requests are currently in flight to it,
+ * and whether it has been ejected from the group after failing
+ */
+public class Endpoint {
+
+    private final String ip;
+    private final int port;
+
+    private final AtomicInteger outstanding;
+    private final AtomicInteger failures;
+    private final AtomicBoolean probing;
+    private volatile long ejected_until;
+
+
+    /**
+     * Creates an Endpoint for a certain IP and port
+     *
+     * @param ip   the IP of the remote {@link online.umbcraft.libraries.network.response.WalkieTalkie}
+     * @param port the port it listens on
+     */
+    public Endpoint(String ip, int port) {
+        this.ip = ip;
+        this.port = port;
+        outstanding = new AtomicInteger();
+        failures = new AtomicInteger();
+        probing = new AtomicBoolean();
+    }
+
+
+    /**
+     * Gets the IP of this endpoint
+     *
+     * @return the IP
+     */
+    public String getIP() {
+        return ip;
+    }
+
+
+    /**
+     * Gets the port of this endpoint
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+
+    /**
+     * Gets the address of this endpoint
+     *
+     * @return the address in the form IP:port
+     */
+    public String getAddress() {
+        return ip + ":" + port;
+    }
+
+
+    /**
+     * Gives how many requests are currently in flight to this endpoint
+     *
+     * @return the number of outstanding requests
+     */
+    public int outstanding() {
+        return outstanding.get();
+    }
+
+
+    /**
+     * Gives whether this endpoint is currently ejected from its group
+     *
+     * @param now the current time in milliseconds
+     * @return if the endpoint should not be sent regular traffic
+     */
+    public boolean isEjected(long now) {
+        return ejected_until > now;
+    }
+
+
+    /**
+     * Gives the time at which this endpoint's ejection ends
+     *
+     * @return the end of the ejection in milliseconds, or 0 if it was never ejected
+     */
+    long ejectedUntil() {
+        return ejected_until;
+    }
+
+
+    /**
+     * Gives whether this endpoint has come back from an ejection but not yet proven healthy
+     *
+     * @return if the endpoint is waiting on a probe request
+     */
+    boolean needsProbe() {
+        return failures.get() > 0;
+    }
+
+
+    /**
+     * Claims the single probe request allowed for an endpoint coming back from an ejection
+     *
+     * @return if the caller may send the probe
+     */
+    boolean tryProbe() {
+        return probing.compareAndSet(false, true);
+    }
+
+
+    /**
+     * Marks a request to this endpoint as started
+     */
+    void begin() {
+        outstanding.incrementAndGet();
+    }
+
+
+    /**
+     * Marks a request to this endpoint as successfully finished and restores it to the group
+     */
+    void succeeded() {
+        outstanding.decrementAndGet();
+        failures.set(0);
+        probing.set(false);
+    }
+
+
+    /**
+     * Marks a request to this endpoint as finished with a connection level failure
+     * and ejects it, doubling the ejection time for every failure in a row
+     *
+     * @param base_eject_ms the ejection time for the first failure
+     * @param max_eject_ms  the longest an endpoint can be ejected for
+     */
+    void failed(long base_eject_ms, long max_eject_ms) {
+        outstanding.decrementAndGet();
+        int in_a_row = Math.min(failures.incrementAndGet(), 31);
+        long eject = Math.min(max_eject_ms, base_eject_ms << (in_a_row - 1));
+        if (eject <= 0) eject = max_eject_ms;
+
+        ejected_until = System.currentTimeMillis() + eject;
+        probing.set(false);
+    }
+
+
+    /**
+     * Marks a request to this endpoint as finished without saying anything about the endpoint's health
+     */
+    void finished() {
+        outstanding.decrementAndGet();
+        probing.set(false);
+    }
+
+
+    @Override
+    public String toString() {
+        return getAddress();
+    }
+}
@@ -0,0 +1,273 @@
+package online.umbcraft.libraries.network.balance;
+
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * <p> A set of identical {@link online.umbcraft.libraries.network.response.WalkieTalkie} endpoints sharing one server key </p>
+ * <p>
+ * {@link online.umbcraft.libraries.network.message.ReasonMessage#send(EndpointGroup)} uses the group to pick
+ * an endpoint for every message it sends. Endpoints which fail with {@link RadioError#FAILED_TO_CONNECT},
+ * {@link RadioError#BAD_NETWORK_READ} or {@link RadioError#SHUTTING_DOWN} are ejected for a while,
+ * and once the ejection runs out a single probe request is let through to decide whether they are healthy again
+ */
+public class EndpointGroup {
+
+    private final PublicKey server_key;
+    private final List<Endpoint> endpoints;
+
+    private volatile BalanceStrategy strategy;
+    private volatile long base_eject_ms;
+    private volatile long max_eject_ms;
+
+
+    /**
+     * Creates an empty EndpointGroup
+     *
+     * @param server_key the RSA public key shared by every endpoint in the group
+     */
+    public EndpointGroup(PublicKey server_key) {
+        this.server_key = server_key;
+        endpoints = new CopyOnWriteArrayList<>();
+        strategy = BalanceStrategy.POWER_OF_TWO;
+        base_eject_ms = 1000;
+        max_eject_ms = 30000;
+    }
+
+
+    /**
+     * Adds an endpoint to this group
+     *
+     * @param ip   the IP of the endpoint
+     * @param port the port of the endpoint
+     * @return itself
+     */
+    public EndpointGroup add(String ip, int port) {
+        endpoints.add(new Endpoint(ip, port));
+        return this;
+    }
+
+
+    /**
+     * Adds an endpoint to this group
+     *
+     * @param address the address of the endpoint, made up of IP:port
+     * @return itself
+     */
+    public EndpointGroup add(String address) {
+        String[] split = address.split(":");
+
+        if (split.length != 2)
+            throw new IllegalArgumentException("Invalid address format");
+
+        try {
+            return add(split[0], Integer.parseInt(split[1]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid address format");
+        }
+    }
+
+
+    /**
+     * Removes an endpoint from this group, requests already in flight to it are not affected
+     *
+     * @param address the address of the endpoint, made up of IP:port
+     * @return itself
+     */
+    public EndpointGroup remove(String address) {
+        endpoints.removeIf(endpoint -> endpoint.getAddress().equals(address));
+        return this;
+    }
+
+
+    /**
+     * Sets how this group picks an endpoint for each message
+     *
+     * @param strategy the new {@link BalanceStrategy}
+     * @return itself
+     */
+    public EndpointGroup setStrategy(BalanceStrategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+
+    /**
+     * Sets how long failing endpoints are ejected for
+     * <p>
+     * the first failure ejects an endpoint for the base time, and every failure in a row doubles it
+     *
+     * @param base_ms ejection time after the first failure in milliseconds
+     * @param max_ms  the longest an endpoint can be ejected for in milliseconds
+     * @return itself
+     */
+    public EndpointGroup setEjectTime(long base_ms, long max_ms) {
+        base_eject_ms = base_ms;
+        max_eject_ms = max_ms;
+        return this;
+    }
+
+
+    /**
+     * Gets the RSA public key shared by every endpoint in this group
+     *
+     * @return the server public key
+     */
+    public PublicKey getServerKey() {
+        return server_key;
+    }
+
+
+    /**
+     * Gets every endpoint in this group, ejected or not
+     *
+     * @return all endpoints of the group
+     */
+    public Collection<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+
+    /**
+     * <p> Picks the endpoint that should receive the next message and marks a request to it as started </p>
+     * the caller must hand the endpoint back through {@link #report(Endpoint, ResponseMessage)}
+     *
+     * @return the chosen endpoint
+     * @throws IllegalStateException if the group has no endpoints
+     */
+    public Endpoint pick() {
+        return pick(null);
+    }
+
+
+    /**
+     * <p> Picks the endpoint that should receive the next message and marks a request to it as started </p>
+     * the caller must hand the endpoint back through {@link #report(Endpoint, ResponseMessage)}
+     *
+     * @param avoid an endpoint not to pick unless it is the only one left, may be null
+     * @return the chosen endpoint
+     * @throws IllegalStateException if the group has no endpoints
+     */
+    public Endpoint pick(Endpoint avoid) {
+        if (endpoints.isEmpty())
+            throw new IllegalStateException("NO ENDPOINTS IN GROUP");
+
+        long now = System.currentTimeMillis();
+        List<Endpoint> healthy = new ArrayList<>(endpoints.size());
+
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint == avoid || endpoint.isEjected(now))
+                continue;
+
+            // an endpoint that came back from an ejection gets exactly one probe before regular traffic
+            if (endpoint.needsProbe()) {
+                if (endpoint.tryProbe()) {
+                    endpoint.begin();
+                    return endpoint;
+                }
+                continue;
+            }
+            healthy.add(endpoint);
+        }
+
+        Endpoint chosen;
+        if (healthy.isEmpty())
+            chosen = leastEjected(avoid);
+        else if (strategy == BalanceStrategy.LEAST_OUTSTANDING)
+            chosen = leastOutstanding(healthy);
+        else
+            chosen = powerOfTwo(healthy);
+
+        chosen.begin();
+        return chosen;
+    }
+
+
+    /**
+     * Records the result of a message sent to an endpoint from {@link #pick()}
+     *
+     * @param endpoint the endpoint the message was sent to
+     * @param response the response (or transmit error) that came back
+     */
+    public void report(Endpoint endpoint, ResponseMessage response) {
+        RadioError error = response.getTransmitError();
+
+        if (error == RadioError.FAILED_TO_CONNECT || error == RadioError.BAD_NETWORK_READ
+                || error == RadioError.SHUTTING_DOWN)
+            endpoint.failed(base_eject_ms, max_eject_ms);
+        else if (error == null)
+            endpoint.succeeded();
+        else
+            endpoint.finished();
+    }
+
+
+    /**
+     * Records that a message sent to an endpoint from {@link #pick()} was given up on by the sender,
+     * such as the slower copy of a hedged message, without saying anything about the endpoint's health
+     *
+     * @param endpoint the endpoint the message was sent to
+     */
+    public void abandon(Endpoint endpoint) {
+        endpoint.finished();
+    }
+
+
+    /**
+     * picks the endpoint with the fewest requests in flight, starting from a random spot to spread out ties
+     */
+    private Endpoint leastOutstanding(List<Endpoint> healthy) {
+        int size = healthy.size();
+        int start = ThreadLocalRandom.current().nextInt(size);
+
+        Endpoint best = null;
+        for (int i = 0; i < size; i++) {
+            Endpoint endpoint = healthy.get((start + i) % size);
+            if (best == null || endpoint.outstanding() < best.outstanding())
+                best = endpoint;
+        }
+        return best;
+    }
+
+
+    /**
+     * picks two distinct endpoints at random and keeps the one with fewer requests in flight
+     */
+    private Endpoint powerOfTwo(List<Endpoint> healthy) {
+        int size = healthy.size();
+        if (size == 1)
+            return healthy.get(0);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) second++;
+
+        Endpoint a = healthy.get(first);
+        Endpoint b = healthy.get(second);
+        return a.outstanding() <= b.outstanding() ? a : b;
+    }
+
+
+    /**
+     * when everything is ejected, sends traffic to whichever endpoint comes back soonest instead of failing outright
+     */
+    private Endpoint leastEjected(Endpoint avoid) {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint == avoid && endpoints.size() > 1)
+                continue;
+            if (best == null || endpoint.ejectedUntil() < best.ejectedUntil())
+                best = endpoint;
+        }
+        return best;
+    }
+}
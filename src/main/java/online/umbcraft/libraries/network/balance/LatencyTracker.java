@@ -0,0 +1,87 @@
+package online.umbcraft.libraries.network.balance;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * <p> Keeps a window of recent round trip times for a single message reason </p>
+ * <p>
+ * used to decide how long to wait before hedging a request,
+ * the 95th percentile is recomputed every so often instead of on every read
+ */
+public class LatencyTracker {
+
+    private static final Map<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+
+    private static final int WINDOW = 512;
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private final AtomicLongArray samples;
+    private final AtomicInteger recorded;
+    private volatile long p95_ms;
+
+
+    /**
+     * Creates an empty LatencyTracker
+     */
+    public LatencyTracker() {
+        samples = new AtomicLongArray(WINDOW);
+        recorded = new AtomicInteger();
+        p95_ms = -1;
+    }
+
+
+    /**
+     * Gets the shared tracker for a certain message reason, creating it if needed
+     *
+     * @param reason the message reason
+     * @return the tracker holding round trip times for that reason
+     */
+    public static LatencyTracker forReason(String reason) {
+        return trackers.computeIfAbsent(reason, r -> new LatencyTracker());
+    }
+
+
+    /**
+     * Records how long a single successful round trip took
+     *
+     * @param millis the round trip time in milliseconds
+     */
+    public void record(long millis) {
+        int count = recorded.getAndIncrement();
+        samples.set(count & (WINDOW - 1), millis);
+
+        int seen = count + 1;
+        if (seen == MIN_SAMPLES || (seen > MIN_SAMPLES && seen % RECOMPUTE_EVERY == 0))
+            p95_ms = computePercentile(0.95);
+    }
+
+
+    /**
+     * Gives the 95th percentile round trip time over the recent window
+     *
+     * @return the percentile in milliseconds, or -1 if too few samples have been recorded yet
+     */
+    public long p95() {
+        return p95_ms;
+    }
+
+
+    /**
+     * sorts a copy of the window and reads off a percentile
+     */
+    private long computePercentile(double percentile) {
+        int size = Math.min(recorded.get(), WINDOW);
+        long[] copy = new long[size];
+        for (int i = 0; i < size; i++)
+            copy[i] = samples.get(i);
+
+        Arrays.sort(copy);
+        return copy[Math.min(size - 1, (int) Math.ceil(percentile * size) - 1)];
+    }
+}
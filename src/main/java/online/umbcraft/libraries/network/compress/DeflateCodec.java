@@ -0,0 +1,98 @@
+package online.umbcraft.libraries.network.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * <p> Compresses message bodies with DEFLATE (java.util.zip) </p>
+ * <p>
+ * Each thread keeps its own Deflater and Inflater, since setting them up costs far more than
+ * compressing a typical message. Registered with {@link PayloadCodecs} as "deflate" by default
+ */
+public class DeflateCodec implements PayloadCodec {
+
+    private final String name;
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters;
+
+
+    /**
+     * Creates a DeflateCodec named "deflate" which favours speed over size
+     */
+    public DeflateCodec() {
+        this("deflate", Deflater.BEST_SPEED);
+    }
+
+
+    /**
+     * Creates a DeflateCodec
+     *
+     * @param name  the name to announce the codec under
+     * @param level the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public DeflateCodec(String name, int level) {
+        this.name = name;
+        this.level = level;
+        deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+        inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+    }
+
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+
+    @Override
+    public byte[] encode(byte[] raw) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 2));
+        byte[] chunk = new byte[Math.min(64 * 1024, Math.max(1024, raw.length))];
+        while (!deflater.finished()) {
+            int written = deflater.deflate(chunk);
+            out.write(chunk, 0, written);
+        }
+        return out.toByteArray();
+    }
+
+
+    @Override
+    public byte[] decode(byte[] encoded, int max_length) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(encoded);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(max_length, encoded.length * 4));
+        byte[] chunk = new byte[Math.min(64 * 1024, Math.max(1024, encoded.length * 2))];
+        try {
+            while (!inflater.finished()) {
+                int read = inflater.inflate(chunk);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("compressed body is truncated");
+
+                if (out.size() + read > max_length)
+                    throw new IOException("compressed body expands past " + max_length + " bytes");
+                out.write(chunk, 0, read);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("compressed body is corrupt", e);
+        }
+        return out.toByteArray();
+    }
+
+
+    @Override
+    public String toString() {
+        return "DeflateCodec{" + name + ", level=" + level + "}";
+    }
+}
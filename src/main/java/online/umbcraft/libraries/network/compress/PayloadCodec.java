@@ -0,0 +1,44 @@
+package online.umbcraft.libraries.network.compress;
+
+import java.io.IOException;
+
+
+/**
+ * <p> A way of compressing message bodies before they are encrypted </p>
+ * <p>
+ * Codecs are looked up by name through {@link PayloadCodecs}, so both sides of a connection must have registered
+ * a codec under the same name for it to be used. Implementations must be safe to use from many threads at once
+ *
+ * @see DeflateCodec
+ */
+public interface PayloadCodec {
+
+
+    /**
+     * Gives the name this codec is announced under in message headers
+     *
+     * @return the codec name, which must not contain commas
+     */
+    String name();
+
+
+    /**
+     * Compresses a message body
+     *
+     * @param raw the uncompressed bytes
+     * @return the compressed bytes
+     * @throws IOException if the bytes could not be compressed
+     */
+    byte[] encode(byte[] raw) throws IOException;
+
+
+    /**
+     * Decompresses a message body
+     *
+     * @param encoded    the compressed bytes
+     * @param max_length the most bytes the body may decompress to, so small messages cannot expand without bound
+     * @return the uncompressed bytes
+     * @throws IOException if the bytes are corrupt, or decompress to more than max_length
+     */
+    byte[] decode(byte[] encoded, int max_length) throws IOException;
+}
@@ -0,0 +1,100 @@
+package online.umbcraft.libraries.network.compress;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * <p> The {@link PayloadCodec}s this process can compress and decompress message bodies with </p>
+ * <p>
+ * Every message header lists the codecs its sender can decode, and the receiver compresses its reply
+ * with the first of those it has registered as well. A message is only compressed once its body
+ * reaches the sender's compression threshold, and only if compressing actually made it smaller.
+ * <p>
+ * "deflate" is always available. Other codecs (such as LZ4 or Zstandard bindings) can be added with
+ * {@link #register(PayloadCodec)}, and are preferred over the ones registered before them
+ */
+public class PayloadCodecs {
+
+    private static final Map<String, PayloadCodec> codecs = new ConcurrentHashMap<>();
+    private static volatile String accepted = "";
+
+    static {
+        register(new DeflateCodec());
+    }
+
+
+    private PayloadCodecs() {
+    }
+
+
+    /**
+     * Makes a codec available for compressing and decompressing message bodies,
+     * replacing any codec registered under the same name
+     *
+     * @param codec the codec to add
+     */
+    public static synchronized void register(PayloadCodec codec) {
+        String name = codec.name();
+        if (name.isEmpty() || name.indexOf(',') >= 0)
+            throw new IllegalArgumentException("invalid codec name '" + name + "'");
+
+        codecs.put(name, codec);
+
+        // newest first, so a codec registered on purpose is preferred over the built in one
+        List<String> names = new ArrayList<>();
+        names.add(name);
+        for (String other : accepted.split(","))
+            if (!other.isEmpty() && !other.equals(name))
+                names.add(other);
+        accepted = String.join(",", names);
+    }
+
+
+    /**
+     * Gets a registered codec by name
+     *
+     * @param name the codec name
+     * @return the codec, or null if none is registered under that name
+     */
+    public static PayloadCodec get(String name) {
+        return codecs.get(name);
+    }
+
+
+    /**
+     * Gives the names of every registered codec, most preferred first,
+     * in the form sent in message headers
+     *
+     * @return the comma separated codec names
+     */
+    public static String accepted() {
+        return accepted;
+    }
+
+
+    /**
+     * Picks the codec to compress a reply with
+     *
+     * @param remote_accepted the comma separated codec names the remote side can decode, most preferred first
+     * @return the first of those that is registered here, or null if there is none
+     */
+    public static PayloadCodec pick(String remote_accepted) {
+        if (remote_accepted == null || remote_accepted.isEmpty())
+            return null;
+
+        int start = 0;
+        while (start < remote_accepted.length()) {
+            int end = remote_accepted.indexOf(',', start);
+            if (end < 0) end = remote_accepted.length();
+
+            PayloadCodec codec = codecs.get(remote_accepted.substring(start, end));
+            if (codec != null)
+                return codec;
+            start = end + 1;
+        }
+        return null;
+    }
+}
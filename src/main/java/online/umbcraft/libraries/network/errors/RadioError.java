@@ -77,6 +77,40 @@ public enum RadioError {
     /**
      * {@link RadioMessage} encountered a bad signature from the reply
      */
-    INVALID_SIGNATURE;
+    INVALID_SIGNATURE,
+
+
+    /**
+     * the deadline of the {@link RadioMessage} ran out before a reply arrived
+     */
+    DEADLINE_EXCEEDED,
+
+
+    /**
+     * the receiver was already handling as many messages as it could,
+     * and turned this one away without processing it
+     */
+    OVERLOADED,
+
+
+    /**
+     * the sender has sent more messages with this reason than the receiver allows,
+     * and this one was turned away without processing it
+     */
+    RATE_LIMITED,
+
+
+    /**
+     * the receiver is shutting down and turned this message away without processing it,
+     * so it is safe to send again elsewhere
+     */
+    SHUTTING_DOWN,
+
+
+    /**
+     * the message body was compressed with a codec the receiver does not have,
+     * and it was turned away without processing it
+     */
+    UNSUPPORTED_CODEC;
 
 }
@@ -0,0 +1,173 @@
+package online.umbcraft.libraries.network.message;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p> The replies to a broadcast {@link ReasonMessage}, handed out in the order they arrive </p>
+ * <p>
+ * Every target produces exactly one {@link Reply}, holding either the target's response or a 'TRANSMIT_ERROR',
+ * so iterating always ends once every target has been heard from or has timed out.
+ * The replies can only be taken once, by a single consumer
+ *
+ * @see ReasonMessage#broadcast(java.util.Collection, int)
+ */
+public class BroadcastResults implements Iterable<BroadcastResults.Reply> {
+
+    private final int size;
+    private final BlockingQueue<Reply> arrived;
+    private int taken;
+
+
+    /**
+     * Creates BroadcastResults waiting on a number of replies
+     *
+     * @param size how many targets the message is being sent to
+     */
+    BroadcastResults(int size) {
+        this.size = size;
+        arrived = new LinkedBlockingQueue<>();
+    }
+
+
+    /**
+     * hands over the reply of a single target
+     */
+    void deliver(BroadcastTarget target, ResponseMessage response) {
+        arrived.add(new Reply(target, response));
+    }
+
+
+    /**
+     * Gives how many targets the message was sent to
+     *
+     * @return the number of replies there will be
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Gives whether there are replies that have not been taken yet
+     *
+     * @return if {@link #take()} has replies left to give
+     */
+    public synchronized boolean hasMore() {
+        return taken < size;
+    }
+
+
+    /**
+     * Waits for the next reply to arrive
+     *
+     * @return the earliest reply not taken yet
+     * @throws InterruptedException   if the thread was interrupted while waiting
+     * @throws NoSuchElementException if every reply has already been taken
+     */
+    public synchronized Reply take() throws InterruptedException {
+        if (taken >= size) throw new NoSuchElementException("every reply has been taken");
+        Reply reply = arrived.take();
+        taken++;
+        return reply;
+    }
+
+
+    /**
+     * Waits a limited time for the next reply to arrive
+     *
+     * @param timeout how long to wait
+     * @param unit    the unit of the timeout
+     * @return the earliest reply not taken yet, or null if none arrived in time
+     * @throws InterruptedException   if the thread was interrupted while waiting
+     * @throws NoSuchElementException if every reply has already been taken
+     */
+    public synchronized Reply poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (taken >= size) throw new NoSuchElementException("every reply has been taken");
+        Reply reply = arrived.poll(timeout, unit);
+        if (reply != null)
+            taken++;
+        return reply;
+    }
+
+
+    /**
+     * Waits for every reply not taken yet
+     *
+     * @return the remaining replies, in the order they arrived
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public List<Reply> awaitAll() throws InterruptedException {
+        List<Reply> replies = new ArrayList<>();
+        while (hasMore())
+            replies.add(take());
+        return replies;
+    }
+
+
+    /**
+     * <p> Iterates over the replies as they arrive, blocking until the next one is there </p>
+     * if the thread is interrupted while waiting, the interrupt flag is set again and an IllegalStateException is thrown
+     *
+     * @return an iterator over the replies not taken yet
+     */
+    @Override
+    public Iterator<Reply> iterator() {
+        return new Iterator<Reply>() {
+
+            @Override
+            public boolean hasNext() {
+                return hasMore();
+            }
+
+            @Override
+            public Reply next() {
+                try {
+                    return take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while waiting for a broadcast reply", e);
+                }
+            }
+        };
+    }
+
+
+    /**
+     * the outcome of sending a broadcast message to a single target
+     */
+    public static class Reply {
+
+        private final BroadcastTarget target;
+        private final ResponseMessage response;
+
+        private Reply(BroadcastTarget target, ResponseMessage response) {
+            this.target = target;
+            this.response = response;
+        }
+
+        /**
+         * Gets the target this reply came from
+         *
+         * @return the target
+         */
+        public BroadcastTarget getTarget() {
+            return target;
+        }
+
+        /**
+         * Gets the response of the target
+         *
+         * @return the reply, or a message containing the 'TRANSMIT_ERROR' if something went wrong
+         */
+        public ResponseMessage getResponse() {
+            return response;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package online.umbcraft.libraries.network.message;
+
+import java.security.PublicKey;
+
+
+/**
+ * <p> A single recipient of a broadcast {@link ReasonMessage} </p>
+ * unlike the endpoints of an {@link online.umbcraft.libraries.network.balance.EndpointGroup},
+ * every target of a broadcast has its own RSA public key
+ *
+ * @see ReasonMessage#broadcast(java.util.Collection, int)
+ */
+public class BroadcastTarget {
+
+    private final String ip;
+    private final int port;
+    private final PublicKey key;
+
+
+    /**
+     * Creates a BroadcastTarget
+     *
+     * @param ip   the IP of the remote {@link online.umbcraft.libraries.network.response.WalkieTalkie}
+     * @param port the port it listens on
+     * @param key  the RSA public key of the {@link online.umbcraft.libraries.network.response.ReasonResponder}
+     */
+    public BroadcastTarget(String ip, int port, PublicKey key) {
+        if (ip == null || key == null) throw new IllegalArgumentException("ip and key must not be null");
+        this.ip = ip;
+        this.port = port;
+        this.key = key;
+    }
+
+
+    /**
+     * Gets the IP of this target
+     *
+     * @return the IP
+     */
+    public String getIP() {
+        return ip;
+    }
+
+
+    /**
+     * Gets the port of this target
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+
+    /**
+     * Gets the RSA public key of this target
+     *
+     * @return the public key
+     */
+    public PublicKey getKey() {
+        return key;
+    }
+
+
+    /**
+     * Gets the address of this target
+     *
+     * @return the address in the form IP:port
+     */
+    public String getAddress() {
+        return ip + ":" + port;
+    }
+
+
+    @Override
+    public String toString() {
+        return getAddress();
+    }
+}
@@ -0,0 +1,157 @@
+package online.umbcraft.libraries.network.message;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * <p> The fields of a received message, decoded only as far as they are read </p>
+ * <p>
+ * Every key is indexed when the message arrives, remembering where its value starts but skipping over the
+ * values themselves, and only the value asked for is decoded. So a responder reading two keys of a large message
+ * pays for those two values and the keys, not for the whole body. Indexing every key up front refuses duplicate
+ * keys and trailing bytes right away, the same as {@link MessageCodec#decode(byte[])} does.
+ * Anything that needs every field (iterating, changing the message, printing it)
+ * decodes the rest once and works on a plain map from then on.
+ * Reads lock the fields, since a received message may be read by more than one thread at once
+ *
+ * @see MessageCodec
+ */
+class LazyFields extends AbstractMap<String, Object> {
+
+    private final byte[] bytes;
+    private final int end;
+    private final int depth;
+
+    private final Map<String, Integer> offsets;
+    private final Map<String, Object> decoded;
+
+    private Map<String, Object> full;
+
+
+    /**
+     * @param bytes the buffer holding the message, which must not change afterwards
+     * @param start where the field count starts, just past the marker byte
+     * @param end   where the message ends
+     * @param depth how many messages this one is nested in
+     * @throws IllegalArgumentException if the fields are not valid
+     */
+    LazyFields(byte[] bytes, int start, int end, int depth) {
+        this.bytes = bytes;
+        this.end = end;
+        this.depth = depth;
+
+        MessageCodec.Reader in = new MessageCodec.Reader(bytes, start, end);
+        try {
+            MessageCodec.checkDepth(depth);
+
+            int count = in.readVarInt();
+            offsets = new HashMap<>(Math.max(4, Math.min(count, 1024) * 2));
+            for (int i = 0; i < count; i++) {
+                String key = in.readString();
+                if (offsets.put(key, in.pos) != null)
+                    throw new IOException("key " + key + " appears twice");
+                MessageCodec.skipValue(in);
+            }
+            in.expectEnd();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid message: " + e.getMessage(), e);
+        }
+
+        decoded = new HashMap<>();
+    }
+
+
+    @Override
+    public synchronized Object get(Object key) {
+        if (full != null)
+            return full.get(key);
+
+        if (decoded.containsKey(key))
+            return decoded.get(key);
+
+        Integer offset = offsets.get(key);
+        if (offset == null)
+            return null;
+
+        Object value = decodeAt(offset);
+        decoded.put((String) key, value);
+        return value;
+    }
+
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        if (full != null)
+            return full.containsKey(key);
+        return offsets.containsKey(key);
+    }
+
+
+    @Override
+    public synchronized int size() {
+        return full != null ? full.size() : offsets.size();
+    }
+
+
+    @Override
+    public Object put(String key, Object value) {
+        return materialize().put(key, value);
+    }
+
+
+    @Override
+    public Object remove(Object key) {
+        return materialize().remove(key);
+    }
+
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return materialize().entrySet();
+    }
+
+
+    /**
+     * decodes a single value, nested messages stay lazy themselves
+     */
+    private Object decodeAt(int offset) {
+        MessageCodec.Reader in = new MessageCodec.Reader(bytes, offset, end);
+        try {
+            if (bytes[offset] == MessageCodec.MESSAGE) {
+                in.readByte();
+                int length = in.readVarInt();
+                MessageCodec.Reader nested = in.slice(length);
+                return new RadioMessage(new LazyFields(bytes, nested.pos, nested.end, depth + 1));
+            }
+            return MessageCodec.readValue(in, depth);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid message: " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * decodes every field still left, in their original order
+     */
+    private synchronized Map<String, Object> materialize() {
+        if (full != null)
+            return full;
+
+        Map<String, Object> all = new LinkedHashMap<>(Math.max(4, offsets.size() * 2));
+
+        // sorting the keys by where their values start restores the order they were sent in
+        offsets.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue())
+                .forEach(field -> all.put(field.getKey(), decoded.containsKey(field.getKey())
+                        ? decoded.get(field.getKey())
+                        : decodeAt(field.getValue())));
+
+        full = all;
+        return full;
+    }
+}
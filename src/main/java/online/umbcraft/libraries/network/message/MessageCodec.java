@@ -0,0 +1,393 @@
+package online.umbcraft.libraries.network.message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * <p> The compact binary form {@link RadioMessage}s are sent in </p>
+ * <p>
+ * A message starts with a marker byte (which JSON text can never start with) and a field count,
+ * followed by every field as its key, a type tag, and its value. Numbers are variable length and zigzag encoded,
+ * byte arrays are sent as they are, and nested messages and lists carry their length in bytes
+ * so that readers can skip over them without decoding them
+ * <p>
+ * Values may be Strings, Integers, Longs, Doubles, Booleans, byte arrays, {@link RadioMessage}s,
+ * Lists of any of these, or null.
+ * Messages and lists nested deeper than {@link #MAX_DEPTH}, keys appearing twice and bytes left over after
+ * the last field are refused, so a hostile sender cannot overflow the stack of the reader,
+ * and every reader agrees on what a message holds
+ */
+public class MessageCodec {
+
+    /**
+     * the first byte of every binary encoded message
+     */
+    public static final byte MARKER = (byte) 0xB1;
+
+    /**
+     * the deepest messages and lists may be nested inside each other
+     */
+    public static final int MAX_DEPTH = 64;
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte INT = 2;
+    static final byte LONG = 3;
+    static final byte DOUBLE = 4;
+    static final byte TRUE = 5;
+    static final byte FALSE = 6;
+    static final byte BYTES = 7;
+    static final byte MESSAGE = 8;
+    static final byte LIST = 9;
+
+
+    private MessageCodec() {
+    }
+
+
+    /**
+     * Encodes the fields of a message
+     *
+     * @param fields the key-value pairs of the message
+     * @return the binary form of the message
+     */
+    public static byte[] encode(Map<String, Object> fields) {
+        Writer out = new Writer(256);
+        out.write(MARKER);
+        writeFields(out, fields);
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Gives whether some bytes hold a binary encoded message rather than JSON text
+     *
+     * @param bytes the encoded message
+     * @return if the bytes start with the binary marker
+     */
+    public static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MARKER;
+    }
+
+
+    /**
+     * Decodes every field of a binary encoded message
+     *
+     * @param bytes the binary form of a message
+     * @return the key-value pairs of the message, in the order they were encoded
+     * @throws IOException if the bytes are not a valid message
+     */
+    public static Map<String, Object> decode(byte[] bytes) throws IOException {
+        if (!isBinary(bytes))
+            throw new IOException("not a binary encoded message");
+
+        Reader in = new Reader(bytes, 1, bytes.length);
+        Map<String, Object> fields = readFields(in, 0);
+        if (in.pos != bytes.length)
+            throw new IOException("trailing bytes after message");
+        return fields;
+    }
+
+
+    private static void writeFields(Writer out, Map<String, Object> fields) {
+        out.writeVarInt(fields.size());
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            out.writeString(field.getKey());
+            writeValue(out, field.getValue());
+        }
+    }
+
+
+    private static void writeValue(Writer out, Object value) {
+        if (value == null) {
+            out.write(NULL);
+        } else if (value instanceof String) {
+            out.write(STRING);
+            out.writeString((String) value);
+        } else if (value instanceof Integer) {
+            out.write(INT);
+            out.writeVarLong(zigzag((Integer) value));
+        } else if (value instanceof Long) {
+            out.write(LONG);
+            out.writeVarLong(zigzag((Long) value));
+        } else if (value instanceof Double) {
+            out.write(DOUBLE);
+            out.writeFixedLong(Double.doubleToLongBits((Double) value));
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.write(BYTES);
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (value instanceof RadioMessage) {
+            Writer nested = new Writer(64);
+            writeFields(nested, ((RadioMessage) value).fields);
+            out.write(MESSAGE);
+            out.writeVarInt(nested.size());
+            nested.writeTo(out);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            Writer nested = new Writer(64);
+            nested.writeVarInt(list.size());
+            for (Object element : list)
+                writeValue(nested, element);
+            out.write(LIST);
+            out.writeVarInt(nested.size());
+            nested.writeTo(out);
+        } else {
+            throw new IllegalArgumentException("cannot encode value of type " + value.getClass().getSimpleName());
+        }
+    }
+
+
+    static Map<String, Object> readFields(Reader in, int depth) throws IOException {
+        int count = in.readVarInt();
+        Map<String, Object> fields = new LinkedHashMap<>(Math.max(4, Math.min(count, 1024) * 2));
+        for (int i = 0; i < count; i++) {
+            String key = in.readString();
+            if (fields.containsKey(key))
+                throw new IOException("key " + key + " appears twice");
+            fields.put(key, readValue(in, depth));
+        }
+        return fields;
+    }
+
+
+    /**
+     * decodes a single value
+     *
+     * @param depth how many messages and lists the value is nested in
+     */
+    static Object readValue(Reader in, int depth) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readString();
+            case INT:
+                return readInt(in);
+            case LONG:
+                return unzigzag(in.readVarLong());
+            case DOUBLE:
+                return Double.longBitsToDouble(in.readFixedLong());
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case BYTES:
+                return in.readBytes(in.readVarInt());
+            case MESSAGE: {
+                checkDepth(depth + 1);
+                int length = in.readVarInt();
+                Reader nested = in.slice(length);
+                RadioMessage message = new RadioMessage(readFields(nested, depth + 1));
+                nested.expectEnd();
+                return message;
+            }
+            case LIST: {
+                checkDepth(depth + 1);
+                int length = in.readVarInt();
+                Reader nested = in.slice(length);
+                int count = nested.readVarInt();
+                List<Object> list = new ArrayList<>(Math.min(count, length));
+                for (int i = 0; i < count; i++)
+                    list.add(readValue(nested, depth + 1));
+                nested.expectEnd();
+                return list;
+            }
+            default:
+                throw new IOException("unknown value type " + tag);
+        }
+    }
+
+
+    /**
+     * refuses values nested deeper than {@link #MAX_DEPTH}
+     */
+    static void checkDepth(int depth) throws IOException {
+        if (depth > MAX_DEPTH)
+            throw new IOException("values are nested deeper than " + MAX_DEPTH);
+    }
+
+
+    /**
+     * moves past a value without decoding it
+     */
+    static void skipValue(Reader in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+            case TRUE:
+            case FALSE:
+                return;
+            case INT:
+                readInt(in);
+                return;
+            case LONG:
+                in.readVarLong();
+                return;
+            case DOUBLE:
+                in.skip(8);
+                return;
+            case STRING:
+            case BYTES:
+            case MESSAGE:
+            case LIST:
+                in.skip(in.readVarInt());
+                return;
+            default:
+                throw new IOException("unknown value type " + tag);
+        }
+    }
+
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+
+    // an int is sent as a varlong, so a sender can put more in it than an int holds
+    private static int readInt(Reader in) throws IOException {
+        long value = unzigzag(in.readVarLong());
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw new IOException("int out of range");
+        return (int) value;
+    }
+
+
+    /**
+     * a growable byte buffer with the primitive writes the encoding needs
+     */
+    static class Writer extends ByteArrayOutputStream {
+
+        Writer(int size) {
+            super(size);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeFixedLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8)
+                write((int) (value >>> shift));
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeTo(Writer other) {
+            other.write(buf, 0, count);
+        }
+    }
+
+
+    /**
+     * a bounds checked cursor over part of a byte array
+     */
+    static class Reader {
+
+        final byte[] bytes;
+        int pos;
+        final int end;
+
+        Reader(byte[] bytes, int pos, int end) {
+            this.bytes = bytes;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        private void require(int count) throws IOException {
+            if (count < 0 || end - pos < count)
+                throw new IOException("message is truncated");
+        }
+
+        byte readByte() throws IOException {
+            require(1);
+            return bytes[pos++];
+        }
+
+        int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE)
+                throw new IOException("length out of range");
+            return (int) value;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("malformed number");
+        }
+
+        long readFixedLong() throws IOException {
+            require(8);
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | (bytes[pos++] & 0xFF);
+            return value;
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            require(length);
+            String value = new String(bytes, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            require(length);
+            byte[] value = new byte[length];
+            System.arraycopy(bytes, pos, value, 0, length);
+            pos += length;
+            return value;
+        }
+
+        void skip(int length) throws IOException {
+            require(length);
+            pos += length;
+        }
+
+        Reader slice(int length) throws IOException {
+            require(length);
+            Reader nested = new Reader(bytes, pos, pos + length);
+            pos += length;
+            return nested;
+        }
+
+        void expectEnd() throws IOException {
+            if (pos != end)
+                throw new IOException("value length does not match its contents");
+        }
+    }
+}
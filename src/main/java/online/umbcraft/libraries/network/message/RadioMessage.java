@@ -1,22 +1,34 @@
 package online.umbcraft.libraries.network.message;
 
+import kong.unirest.json.JSONArray;
 import kong.unirest.json.JSONException;
 import kong.unirest.json.JSONObject;
 import online.umbcraft.libraries.network.response.ReasonResponder;
 import online.umbcraft.libraries.network.response.WalkieTalkie;
-
+import org.apache.commons.codec.binary.Base64;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 
 /**
- * <p>A key-value based text message that can be sent over the network </p>
+ * <p>A key-value based message that can be sent over the network </p>
  *
- * <p> Messages are collections of string key-value pairs </p>
+ * <p> Messages are collections of key-value pairs, whose values may be strings, numbers, booleans,
+ * raw bytes, nested messages or lists of these </p>
  * <p> The unspoken standard for messages is that: </p>
  * <p> - each request message must include a 'reason', </p>
  * <p> - each response message must include a 'success', </p>
  * <p> - and if the success is false then the 'reason' for that failure </p>
  * when {@link RadioMessage}s are sent they return a Future containing the response from the receiver
+ * <p>
+ * Messages are sent in the compact binary form of {@link MessageCodec}, so numbers and bytes are never
+ * turned into text. {@link #json()} still gives a JSON view of the message for debugging
  *
  * @see ReasonResponder
  * @see WalkieTalkie
@@ -24,7 +36,7 @@ import java.util.logging.Logger;
 public class RadioMessage {
 
     final static protected Logger logger = WalkieTalkie.getLogger();
-    protected JSONObject message;
+    protected Map<String, Object> fields;
     protected boolean debug;
 
 
@@ -32,7 +44,7 @@ public class RadioMessage {
      * Creates a blank RadioMessage
      */
     public RadioMessage() {
-        message = new JSONObject();
+        fields = new LinkedHashMap<>();
     }
 
 
@@ -42,7 +54,34 @@ public class RadioMessage {
      * @param json JSON string from which the message is generated
      */
     public RadioMessage(String json) {
-        message = new JSONObject(json);
+        fields = fromJSON(new JSONObject(json));
+    }
+
+
+    /**
+     * <p> Creates a RadioMessage from its encoded form, either binary (see {@link MessageCodec}) or JSON text </p>
+     * binary messages are decoded lazily, one field at a time as they are read,
+     * so the array is kept and must not be changed afterwards
+     *
+     * @param encoded the encoded message
+     * @throws IllegalArgumentException if the bytes are not a valid message, for binary messages a broken value
+     *                                  may only be noticed once it is read
+     */
+    public RadioMessage(byte[] encoded) {
+        if (!MessageCodec.isBinary(encoded))
+            fields = fromJSON(new JSONObject(new String(encoded, StandardCharsets.UTF_8)));
+        else
+            fields = new LazyFields(encoded, 1, encoded.length, 0);
+    }
+
+
+    /**
+     * Creates a RadioMessage holding already decoded fields
+     *
+     * @param fields the key-value pairs of the message
+     */
+    RadioMessage(Map<String, Object> fields) {
+        this.fields = fields;
     }
 
 
@@ -54,9 +93,9 @@ public class RadioMessage {
      */
     public RadioMessage clear() {
         if (debug)
-            logger.info("clearing message contents for message " + message);
+            logger.info("clearing message contents for message " + this);
 
-        message = new JSONObject();
+        fields = new LinkedHashMap<>();
         return this;
     }
 
@@ -70,12 +109,122 @@ public class RadioMessage {
      */
     public RadioMessage put(String key, String val) {
 
-        if (debug) logger.info("inserting " + key + " = " + val + " into message " + message);
-        message.put(key, val);
+        if (debug) logger.info("inserting " + key + " = " + val + " into message " + this);
+        store(key, val);
+        return this;
+    }
+
+
+    /**
+     * adds a new key/value pair holding a whole number to the message
+     *
+     * @param key message key
+     * @param val message value
+     * @return itself
+     */
+    public RadioMessage putInt(String key, int val) {
+        if (debug) logger.info("inserting " + key + " = " + val + " into message " + this);
+        store(key, val);
+        return this;
+    }
+
+
+    /**
+     * adds a new key/value pair holding a large whole number to the message
+     *
+     * @param key message key
+     * @param val message value
+     * @return itself
+     */
+    public RadioMessage putLong(String key, long val) {
+        if (debug) logger.info("inserting " + key + " = " + val + " into message " + this);
+        store(key, val);
+        return this;
+    }
+
+
+    /**
+     * adds a new key/value pair holding a decimal number to the message
+     *
+     * @param key message key
+     * @param val message value
+     * @return itself
+     */
+    public RadioMessage putDouble(String key, double val) {
+        if (debug) logger.info("inserting " + key + " = " + val + " into message " + this);
+        store(key, val);
+        return this;
+    }
+
+
+    /**
+     * adds a new key/value pair holding a boolean to the message
+     *
+     * @param key message key
+     * @param val message value
+     * @return itself
+     */
+    public RadioMessage putBoolean(String key, boolean val) {
+        if (debug) logger.info("inserting " + key + " = " + val + " into message " + this);
+        store(key, val);
+        return this;
+    }
+
+
+    /**
+     * adds a new key/value pair holding raw bytes to the message, which are sent without any text encoding
+     *
+     * @param key message key
+     * @param val message value
+     * @return itself
+     */
+    public RadioMessage putBytes(String key, byte[] val) {
+        if (debug) logger.info("inserting " + key + " = " + (val == null ? null : val.length + " bytes") + " into message " + this);
+        store(key, val);
+        return this;
+    }
+
+
+    /**
+     * adds a new key/value pair holding another message to the message
+     *
+     * @param key message key
+     * @param val message value
+     * @return itself
+     */
+    public RadioMessage putMessage(String key, RadioMessage val) {
+        if (debug) logger.info("inserting " + key + " = " + val + " into message " + this);
+        store(key, val);
         return this;
     }
 
 
+    /**
+     * adds a new key/value pair holding a list to the message,
+     * the elements may be of any type a message value can be
+     *
+     * @param key message key
+     * @param val message value
+     * @return itself
+     */
+    public RadioMessage putList(String key, List<?> val) {
+        if (debug) logger.info("inserting " + key + " = " + val + " into message " + this);
+        store(key, val == null ? null : new ArrayList<Object>(val));
+        return this;
+    }
+
+
+    /**
+     * every put goes through here, so subclasses can guard reserved keys in one place
+     *
+     * @param key message key
+     * @param val message value
+     */
+    protected void store(String key, Object val) {
+        fields.put(key, val);
+    }
+
+
     /**
      * combines itself with a second {@link RadioMessage}
      * absorbs any new key/value pairs for which this did not yet contain the key
@@ -85,13 +234,13 @@ public class RadioMessage {
      * @return itself
      */
     public RadioMessage merge(RadioMessage other) {
-        if (debug) logger.info("merging message " + message + " with message " + other + "...");
+        if (debug) logger.info("merging message " + this + " with message " + other + "...");
 
-        for (String key : other.message.toMap().keySet())
-            if (!message.has(key))
-                message.put(key, other.get(key));
+        for (Map.Entry<String, Object> field : other.fields.entrySet())
+            if (!fields.containsKey(field.getKey()))
+                fields.put(field.getKey(), field.getValue());
 
-        if (debug) logger.info("resulting message: " + message);
+        if (debug) logger.info("resulting message: " + this);
 
         return this;
     }
@@ -103,7 +252,7 @@ public class RadioMessage {
      * @return itself
      */
     public RadioMessage enableDebug() {
-        logger.info("debugging enabled for message " + message);
+        logger.info("debugging enabled for message " + this);
 
         debug = true;
         return this;
@@ -116,50 +265,251 @@ public class RadioMessage {
      * @return itself
      */
     public RadioMessage disableDebug() {
-        logger.info("debugging disabled for message " + message);
+        logger.info("debugging disabled for message " + this);
 
         debug = false;
         return this;
     }
 
 
+    /**
+     * Gives whether this message holds a value for a certain key
+     *
+     * @param key the string key of a key-value pair inside this message
+     * @return if the key is present
+     */
+    public boolean has(String key) {
+        return fields.containsKey(key);
+    }
+
+
     /**
      * Gets the value of a certain key in this message
      * returns null if no value exists
      *
      * @param key the string key of a key-value pair inside this message
-     * @return the key's associated value (or null if there is no value)
+     * @return the key's associated value as text (or null if there is no value)
      */
     public String get(String key) {
 
-        try {
-            if (debug)
-                logger.info("pulling key " + key + " from message, result is " + message.getString(key));
+        Object value = value(key);
+        if (debug)
+            logger.info("pulling key " + key + " from message, result is " + value);
+
+        if (value == null || value instanceof String)
+            return (String) value;
+        if (value instanceof byte[])
+            return Base64.encodeBase64String((byte[]) value);
+        if (value instanceof RadioMessage)
+            return ((RadioMessage) value).json();
+        if (value instanceof List)
+            return toJSON((List<?>) value).toString();
+        return value.toString();
+    }
+
 
-            return message.getString(key);
-        } catch (JSONException e) {
-            logger.severe("no key " + key + " in message " + message);
-            return null;
-        }
+    /**
+     * Gets the whole number value of a certain key in this message
+     *
+     * @param key the string key of a key-value pair inside this message
+     * @return the key's associated value (or null if there is no value)
+     * @throws NumberFormatException if the value is not a whole number
+     */
+    public Integer getInt(String key) {
+        Object value = value(key);
+        if (value == null || value instanceof Integer)
+            return (Integer) value;
+        if (value instanceof Number)
+            return Math.toIntExact(((Number) value).longValue());
+        return Integer.parseInt(value.toString());
+    }
+
+
+    /**
+     * Gets the large whole number value of a certain key in this message
+     *
+     * @param key the string key of a key-value pair inside this message
+     * @return the key's associated value (or null if there is no value)
+     * @throws NumberFormatException if the value is not a whole number
+     */
+    public Long getLong(String key) {
+        Object value = value(key);
+        if (value == null || value instanceof Long)
+            return (Long) value;
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        return Long.parseLong(value.toString());
+    }
+
+
+    /**
+     * Gets the decimal number value of a certain key in this message
+     *
+     * @param key the string key of a key-value pair inside this message
+     * @return the key's associated value (or null if there is no value)
+     * @throws NumberFormatException if the value is not a number
+     */
+    public Double getDouble(String key) {
+        Object value = value(key);
+        if (value == null || value instanceof Double)
+            return (Double) value;
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+        return Double.parseDouble(value.toString());
+    }
+
+
+    /**
+     * Gets the boolean value of a certain key in this message
+     *
+     * @param key the string key of a key-value pair inside this message
+     * @return the key's associated value (or null if there is no value)
+     */
+    public Boolean getBoolean(String key) {
+        Object value = value(key);
+        if (value == null || value instanceof Boolean)
+            return (Boolean) value;
+        return Boolean.parseBoolean(value.toString());
+    }
+
+
+    /**
+     * Gets the raw bytes value of a certain key in this message,
+     * values that came in as JSON text are base64 decoded
+     *
+     * @param key the string key of a key-value pair inside this message
+     * @return the key's associated value (or null if there is no value)
+     */
+    public byte[] getBytes(String key) {
+        Object value = value(key);
+        if (value == null || value instanceof byte[])
+            return (byte[]) value;
+        return Base64.decodeBase64(value.toString());
+    }
+
+
+    /**
+     * Gets the nested message value of a certain key in this message
+     *
+     * @param key the string key of a key-value pair inside this message
+     * @return the key's associated value (or null if there is no value)
+     * @throws ClassCastException if the value is not a message
+     */
+    public RadioMessage getMessage(String key) {
+        return (RadioMessage) value(key);
+    }
+
+
+    /**
+     * Gets the list value of a certain key in this message
+     *
+     * @param key the string key of a key-value pair inside this message
+     * @return an unmodifiable view of the key's associated value (or null if there is no value)
+     * @throws ClassCastException if the value is not a list
+     */
+    @SuppressWarnings("unchecked")
+    public List<Object> getList(String key) {
+        List<Object> value = (List<Object>) value(key);
+        return value == null ? null : Collections.unmodifiableList(value);
+    }
+
+
+    /**
+     * looks up the raw value of a key, logging if it is missing
+     */
+    protected Object value(String key) {
+        Object value = fields.get(key);
+        if (value == null && !fields.containsKey(key))
+            logger.severe("no key " + key + " in message " + this);
+        return value;
+    }
+
+
+    /**
+     * Gives the content of this message in its compact binary form, as it is sent over the network
+     *
+     * @return the binary encoded message
+     * @see MessageCodec
+     */
+    public byte[] encode() {
+        return MessageCodec.encode(fields);
     }
 
 
     /**
      * Gives the content of this message in the form of a JSON string
+     * raw bytes are shown in base64
      *
-     * @return the exact JSON form of this message
+     * @return the JSON form of this message
      */
     public String json() {
-        return message.toString();
+        return toJSON(fields).toString();
     }
 
 
     /**
      * Gives the content of this message in the form of a JSON string
      *
-     * @return the exact JSON form of this message
+     * @return the JSON form of this message
      */
     public String toString() {
-        return message.toString();
+        return json();
+    }
+
+
+    private static JSONObject toJSON(Map<String, Object> fields) {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Object> field : fields.entrySet())
+            json.put(field.getKey(), toJSONValue(field.getValue()));
+        return json;
+    }
+
+
+    private static JSONArray toJSON(List<?> list) {
+        JSONArray json = new JSONArray();
+        for (Object element : list)
+            json.put(toJSONValue(element));
+        return json;
+    }
+
+
+    private static Object toJSONValue(Object value) {
+        if (value == null)
+            return JSONObject.NULL;
+        if (value instanceof byte[])
+            return Base64.encodeBase64String((byte[]) value);
+        if (value instanceof RadioMessage)
+            return toJSON(((RadioMessage) value).fields);
+        if (value instanceof List)
+            return toJSON((List<?>) value);
+        return value;
+    }
+
+
+    private static Map<String, Object> fromJSON(JSONObject json) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (String key : json.keySet())
+            fields.put(key, fromJSONValue(json.get(key)));
+        return fields;
+    }
+
+
+    private static Object fromJSONValue(Object value) {
+        if (value == null || value == JSONObject.NULL)
+            return null;
+        if (value instanceof JSONObject)
+            return new RadioMessage(fromJSON((JSONObject) value));
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++)
+                list.add(fromJSONValue(array.get(i)));
+            return list;
+        }
+        if (value instanceof String || value instanceof Boolean || value instanceof Integer || value instanceof Long)
+            return value;
+        if (value instanceof Number)
+            return ((Number) value).doubleValue();
+        throw new JSONException("unsupported JSON value " + value);
     }
 }
@@ -1,22 +1,61 @@
 package online.umbcraft.libraries.network.message;
 
 import online.umbcraft.libraries.network.RadioSocket;
+import online.umbcraft.libraries.network.RadioSocketOptions;
+import online.umbcraft.libraries.network.balance.Endpoint;
+import online.umbcraft.libraries.network.balance.EndpointGroup;
+import online.umbcraft.libraries.network.balance.LatencyTracker;
+import online.umbcraft.libraries.network.compress.PayloadCodec;
+import online.umbcraft.libraries.network.compress.PayloadCodecs;
+import online.umbcraft.libraries.network.response.Loopback;
 import online.umbcraft.libraries.network.response.ReasonResponder;
+import online.umbcraft.libraries.network.response.SubscriptionResponder;
 import online.umbcraft.libraries.network.response.WalkieTalkie;
 import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.encrypt.RadioKeyStore;
 import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.trace.RadioTrace;
 
 import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ReasonMessage extends RadioMessage {
 
+    // sends the backup copy of hedged messages whose first attempt is taking too long
+    private static final ScheduledThreadPoolExecutor hedge_timer = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread timer = new Thread(task, "RadioScanner hedge timer");
+        timer.setDaemon(true);
+        return timer;
+    });
+
+    static {
+        hedge_timer.setRemoveOnCancelPolicy(true);
+    }
 
     protected HelpfulRSAKeyPair keypair;
     protected PublicKey remotePub;
 
+    protected long timeout_ms = RadioSocket.DEFAULT_TIMEOUT;
+    protected boolean hedge;
+    protected long deadline;
+    protected RadioSocketOptions socket_options;
+    protected PayloadCodec codec;
+    protected int compression_threshold;
+    protected int stream_window = 64;
+
     /**
      * Creates a blank RadioMessage
      */
@@ -33,13 +72,23 @@ public class ReasonMessage extends RadioMessage {
         super(json);
     }
 
+    /**
+     * Creates a RadioMessage from its encoded form, either binary or JSON text
+     *
+     * @param encoded the encoded message
+     */
+    public ReasonMessage(byte[] encoded) {
+        super(encoded);
+    }
+
     /**
      * sets the reason for this message being sent
      *
      * @return the reason for this message
      */
     public String getReason() {
-        return message.getString("reason");
+        Object reason = fields.get("reason");
+        return reason == null ? null : reason.toString();
     }
 
     /**
@@ -50,12 +99,13 @@ public class ReasonMessage extends RadioMessage {
      */
     public ReasonMessage setReason(String reason) {
         if (debug) logger.info("setting reason " + reason);
-        message.put("reason", reason);
+        fields.put("reason", reason);
         return this;
     }
 
     /**
-     * sets the RSA keys that will be used for encryption when this message is sent
+     * <p> sets the RSA keys that will be used for encryption when this message is sent </p>
+     * the keys are only parsed the first time they are seen, see {@link RadioKeyStore#pairFrom64(String, String)}
      *
      * @param public_key  public RSA key in base64
      * @param private_key private RSA key in base64
@@ -63,7 +113,20 @@ public class ReasonMessage extends RadioMessage {
      * @throws InvalidKeySpecException if either of the provided keys are not valid RSA
      */
     public ReasonMessage setRSAKeys(String public_key, String private_key) throws InvalidKeySpecException {
-        return setRSAKeys(new HelpfulRSAKeyPair(public_key, private_key));
+        return setRSAKeys(RadioKeyStore.shared().pairFrom64(public_key, private_key));
+    }
+
+
+    /**
+     * sets the RSA keys that will be used for encryption when this message is sent
+     * to the ones stored in the shared {@link RadioKeyStore} under an alias
+     *
+     * @param alias the name the keys are stored under
+     * @return itself
+     * @throws IllegalArgumentException if no keys are stored under the alias
+     */
+    public ReasonMessage setKeyAlias(String alias) {
+        return setRSAKeys(RadioKeyStore.shared().require(alias));
     }
 
 
@@ -74,7 +137,7 @@ public class ReasonMessage extends RadioMessage {
      * @return itself
      */
     public ReasonMessage setRSAKeys(HelpfulRSAKeyPair keys) {
-        if (debug) logger.info("putting RSA keys into message " + message);
+        if (debug) logger.info("putting RSA keys into message " + this);
 
         keypair = keys;
         return this;
@@ -83,13 +146,176 @@ public class ReasonMessage extends RadioMessage {
 
 
     public ReasonMessage setRemoteKey(PublicKey remote) {
-        if (debug) logger.info("setting remote key for message " + message);
+        if (debug) logger.info("setting remote key for message " + this);
 
         remotePub = remote;
         return this;
     }
 
 
+    /**
+     * <p> sets how long a reply may take once this message is sent </p>
+     * the deadline is sent along with the message, so the receiving {@link ReasonResponder}
+     * can drop the message instead of answering after the sender has given up
+     *
+     * @param timeout_ms the deadline in milliseconds, counted from the call to send
+     * @return itself
+     */
+    public ReasonMessage setTimeout(long timeout_ms) {
+        if (timeout_ms <= 0) throw new IllegalArgumentException("timeout must be positive");
+        if (debug) logger.info("setting timeout " + timeout_ms + "ms for message " + this);
+
+        this.timeout_ms = timeout_ms;
+        return this;
+    }
+
+
+    /**
+     * gets how long a reply may take once this message is sent
+     *
+     * @return the deadline in milliseconds
+     */
+    public long getTimeout() {
+        return timeout_ms;
+    }
+
+
+    /**
+     * sets the TCP settings of the connections this message is sent over
+     *
+     * @param options the {@link RadioSocketOptions} to use, or null for the defaults
+     * @return itself
+     */
+    public ReasonMessage setSocketOptions(RadioSocketOptions options) {
+        if (debug) logger.info("setting socket options " + options + " for message " + this);
+
+        socket_options = options;
+        return this;
+    }
+
+
+    /**
+     * gets the TCP settings of the connections this message is sent over
+     *
+     * @return the {@link RadioSocketOptions} in use, or null for the defaults
+     */
+    public RadioSocketOptions getSocketOptions() {
+        return socket_options;
+    }
+
+
+    /**
+     * <p> compresses this message before it is encrypted, if it is at least 'threshold' bytes long </p>
+     * the receiver must have a {@link PayloadCodec} registered under the same name,
+     * otherwise the message is turned away with {@link RadioError#UNSUPPORTED_CODEC}
+     *
+     * @param codec_name the name of a codec registered with {@link PayloadCodecs}
+     * @param threshold  the smallest message in bytes worth compressing
+     * @return itself
+     */
+    public ReasonMessage enableCompression(String codec_name, int threshold) {
+        PayloadCodec found = PayloadCodecs.get(codec_name);
+        if (found == null) throw new IllegalArgumentException("no codec registered as " + codec_name);
+        if (threshold < 0) throw new IllegalArgumentException("threshold must not be negative");
+        if (debug) logger.info("compressing message " + this + " with " + codec_name);
+
+        codec = found;
+        compression_threshold = threshold;
+        return this;
+    }
+
+
+    /**
+     * sends this message uncompressed, the reply may still come back compressed
+     *
+     * @return itself
+     */
+    public ReasonMessage disableCompression() {
+        codec = null;
+        return this;
+    }
+
+
+    /**
+     * <p> sets how many messages of a subscription may be on their way before the listener has handled them </p>
+     * a responder with no credit left must wait for the listener to catch up, so a slow listener
+     * holds at most this many messages in memory on either side
+     *
+     * @param window the number of messages, 64 by default
+     * @return itself
+     */
+    public ReasonMessage setStreamWindow(int window) {
+        if (window <= 0) throw new IllegalArgumentException("window must be positive");
+        stream_window = window;
+        return this;
+    }
+
+
+    /**
+     * <p> Enables hedged sending for {@link #send(EndpointGroup)} </p>
+     * if no reply has arrived within the 95th percentile round trip time seen for this reason, or the first
+     * attempt fails, a duplicate is sent to a second endpoint and whichever successful reply comes first is used.
+     * only enable this for reasons which are safe to handle twice
+     *
+     * @return itself
+     */
+    public ReasonMessage enableHedging() {
+        if (debug) logger.info("hedging enabled for message " + this);
+
+        hedge = true;
+        return this;
+    }
+
+
+    /**
+     * Disables hedged sending for this message
+     *
+     * @return itself
+     */
+    public ReasonMessage disableHedging() {
+        if (debug) logger.info("hedging disabled for message " + this);
+
+        hedge = false;
+        return this;
+    }
+
+
+    /**
+     * <p> marks the point in time at which the sender of this (received) message stops waiting for a reply </p>
+     * set by the {@link online.umbcraft.libraries.network.response.PortListener} when the message arrives
+     *
+     * @param deadline_nanos the deadline as a {@link System#nanoTime()} value, or 0 for no deadline
+     * @return itself
+     */
+    public ReasonMessage setDeadline(long deadline_nanos) {
+        deadline = deadline_nanos;
+        return this;
+    }
+
+
+    /**
+     * gives how long the sender of this (received) message is still waiting for a reply,
+     * so long running {@link ReasonResponder}s can give up early
+     *
+     * @return the time left in milliseconds, or {@link Long#MAX_VALUE} if the sender set no deadline
+     */
+    public long getTimeRemaining() {
+        if (deadline == 0)
+            return Long.MAX_VALUE;
+        return TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+    }
+
+
+    /**
+     * gives whether the sender of this (received) message has already given up on a reply
+     *
+     * @return if the deadline has passed
+     */
+    public boolean isExpired() {
+        return deadline != 0 && deadline - System.nanoTime() <= 0;
+    }
+
+
     /**
      * <p> encrypts and sends itself to a {@link ReasonResponder} at a specified IP and port </p>
      *
@@ -100,65 +326,459 @@ public class ReasonMessage extends RadioMessage {
     public Future<ResponseMessage> send(String IP, int port) {
 
         if (debug)
-            logger.info("sending message " + message + " to " + IP + ":" + port);
+            logger.info("sending message " + this + " to " + IP + ":" + port);
+
+        checkSendable(remotePub);
+
+        final PublicKey remote = remotePub;
+        final long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+        return WalkieTalkie.sharedExecutor().submit(() -> transmit(IP, port, remote, until, null, null, null));
+    }
+
+
+    /**
+     * <p> encrypts and sends itself to one of the {@link ReasonResponder}s in a group of identical endpoints </p>
+     * the endpoint is picked by the group's {@link online.umbcraft.libraries.network.balance.BalanceStrategy},
+     * and the message is encrypted for the group's shared server key
+     *
+     * @param group the endpoints that can receive this message
+     * @return A {@link Future} containing the reply sent by the {@link ReasonResponder} which received the message
+     */
+    public Future<ResponseMessage> send(EndpointGroup group) {
+
+        if (debug)
+            logger.info("sending message " + this + " to endpoint group " + group.getEndpoints());
+
+        checkSendable(group.getServerKey());
+
+        final long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+        final boolean hedged = hedge && group.getEndpoints().size() > 1;
+
+        if (!hedged)
+            return WalkieTalkie.sharedExecutor().submit(() -> attempt(group, null, until, null));
+
+        // the attempts are chained rather than waited on, so no thread of the executor is held while they run
+        Hedge hedged_send = new Hedge(group, until);
+        hedged_send.start();
+        return hedged_send.result;
+    }
+
+
+    /**
+     * <p> a message sent to one endpoint of a group, and to a second one if the first is slow or fails </p>
+     * the backup goes out once the first attempt has taken longer than the 95th percentile round trip time seen
+     * for the reason, or right away if the first attempt fails. the first successful reply wins and the other
+     * attempt is cut off, if both fail the reply of the last one to finish is given
+     */
+    private final class Hedge {
+
+        private final EndpointGroup group;
+        private final long until;
+        private final CompletableFuture<ResponseMessage> result = new CompletableFuture<>();
+        private final InFlight primary_flight = new InFlight();
+        private final InFlight backup_flight = new InFlight();
+
+        private Endpoint first;
+        private boolean backup_sent;
+        private int running;
+        private ScheduledFuture<?> timer;
+
+
+        private Hedge(EndpointGroup group, long until) {
+            this.group = group;
+            this.until = until;
+        }
+
+
+        private void start() {
+            first = group.pick();
+            synchronized (this) {
+                running = 1;
+            }
+            launch(first, primary_flight, backup_flight);
+
+            long hedge_delay = LatencyTracker.forReason(getReason()).p95();
+            if (hedge_delay >= 0 && !result.isDone()) {
+                ScheduledFuture<?> scheduled = hedge_timer.schedule(() -> {
+                    if (debug) logger.info("no reply within " + hedge_delay + "ms, hedging message " + ReasonMessage.this);
+                    sendBackup();
+                }, hedge_delay, TimeUnit.MILLISECONDS);
+                synchronized (this) {
+                    timer = scheduled;
+                }
+                if (result.isDone())
+                    scheduled.cancel(false);
+            }
+        }
+
+
+        /**
+         * sends the duplicate to a second endpoint, unless it was sent already or a reply has won
+         */
+        private void sendBackup() {
+            synchronized (this) {
+                if (backup_sent || result.isDone())
+                    return;
+                backup_sent = true;
+                running++;
+            }
+            launch(group.pick(first), backup_flight, primary_flight);
+        }
+
+
+        private void launch(Endpoint endpoint, InFlight own, InFlight other) {
+            try {
+                CompletableFuture.supplyAsync(() -> attempt(group, endpoint, until, own), WalkieTalkie.sharedExecutor())
+                        .whenComplete((response, failure) -> finished(response, failure, other));
+            } catch (RejectedExecutionException e) {
+                finished(new ResponseMessage().put("TRANSMIT_ERROR", RadioError.SHUTTING_DOWN.name()), null, other);
+            }
+        }
+
+
+        private void finished(ResponseMessage response, Throwable failure, InFlight other) {
+            boolean hedge_now = false;
+            synchronized (this) {
+                running--;
+                if (failure == null && response.getTransmitError() == null) {
+                    // interrupting the loser would not wake it from a socket read, closing its connection does
+                    other.cancel();
+                    result.complete(response);
+                } else if (!backup_sent) {
+                    hedge_now = true;
+                } else if (running == 0) {
+                    if (failure != null)
+                        result.completeExceptionally(failure);
+                    else
+                        result.complete(response);
+                }
+
+                if (result.isDone() && timer != null)
+                    timer.cancel(false);
+            }
+
+            if (hedge_now) {
+                if (debug) logger.info("first attempt failed, hedging message " + ReasonMessage.this + " right away");
+                sendBackup();
+            }
+        }
+    }
+
+
+    /**
+     * <p> subscribes to a {@link SubscriptionResponder} at a specified IP and port </p>
+     * <p>
+     * this message is sent like any other, and if the first reply is successful the connection stays open
+     * for the responder to keep sending messages over, without any further RSA operations.
+     * every message, starting with the first reply, is handed to the listener on a thread of the shared executor
+     * <p>
+     * the timeout of this message only applies to the first reply
+     *
+     * @param IP       the destination IPv4 address
+     * @param port     the destination port
+     * @param listener receives the messages of the subscription
+     * @return the subscription, which can be cancelled at any time
+     */
+    public Subscription subscribe(String IP, int port, SubscriptionListener listener) {
+
+        if (debug)
+            logger.info("subscribing with message " + this + " to " + IP + ":" + port);
+
+        checkSendable(remotePub);
+
+        final PublicKey remote = remotePub;
+        final long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+        final Subscription subscription = new Subscription(listener, stream_window);
+
+        WalkieTalkie.sharedExecutor().execute(() ->
+                subscription.run(transmit(IP, port, remote, until, null, subscription, null)));
+        return subscription;
+    }
+
+
+    /**
+     * <p> encrypts this message once and sends it to many {@link ReasonResponder}s, each with their own key </p>
+     * <p>
+     * the body is encoded, compressed, encrypted and signed a single time, and only its AES key is
+     * encrypted again for each target. At most 'parallelism' targets are being sent to at once,
+     * each of them getting the full timeout of the message from when it is sent to them
+     * <p>
+     * the replies can be taken from the returned {@link BroadcastResults} as they arrive,
+     * later changes to this message do not affect the broadcast
+     *
+     * @param targets     the recipients of the message
+     * @param parallelism how many targets to send to at the same time
+     * @return the replies of every target, in the order they arrive
+     */
+    public BroadcastResults broadcast(Collection<BroadcastTarget> targets, int parallelism) {
+        if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be positive");
+
+        if (debug)
+            logger.info("broadcasting message " + this + " to " + targets.size() + " targets");
+
+        final List<BroadcastTarget> queued = new ArrayList<>(targets);
+        for (BroadcastTarget target : queued)
+            checkSendable(target.getKey());
+
+        final BroadcastResults results = new BroadcastResults(queued.size());
+
+        RadioSocket.SealedBody sealed;
+        try {
+            sealed = RadioSocket.seal(encode(), codec, compression_threshold, keypair.priv());
+        } catch (Exception e) {
+            if (debug) logger.severe(RadioError.BAD_CRYPT_KEY.name());
+            for (BroadcastTarget target : queued)
+                results.deliver(target, new ResponseMessage().put("TRANSMIT_ERROR", RadioError.BAD_CRYPT_KEY.name()));
+            return results;
+        }
 
+        // a few workers share the targets between them, rather than a thread per target
+        final AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            int index;
+            while ((index = next.getAndIncrement()) < queued.size()) {
+                BroadcastTarget target = queued.get(index);
+                long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+                results.deliver(target, transmit(target.getIP(), target.getPort(), target.getKey(), until, sealed, null, null));
+            }
+        };
+
+        for (int i = Math.min(parallelism, queued.size()); i > 0; i--)
+            WalkieTalkie.sharedExecutor().execute(worker);
+
+        return results;
+    }
+
+
+    /**
+     * <p> sends a single copy of this message to an endpoint of the group, and reports the outcome back to the group </p>
+     * if the endpoint could not be reached or was shutting down the message was never processed,
+     * so it is sent again to another endpoint while time remains
+     *
+     * @param group     the group the endpoint belongs to
+     * @param endpoint  the endpoint picked for this attempt, or null to pick one now
+     * @param until     the deadline of the message as a {@link System#nanoTime()} value
+     * @param in_flight lets another thread cut this attempt off, or null if it cannot be cancelled
+     * @return the reply, or a message containing the 'TRANSMIT_ERROR' if something went wrong
+     */
+    private ResponseMessage attempt(EndpointGroup group, Endpoint endpoint, long until, InFlight in_flight) {
+        if (endpoint == null)
+            endpoint = group.pick();
+
+        int tries_left = group.getEndpoints().size();
+        while (true) {
+            ResponseMessage response = transmit(endpoint.getIP(), endpoint.getPort(), group.getServerKey(), until,
+                    null, null, in_flight);
+
+            // a cancelled attempt failing says nothing about the endpoint
+            if (in_flight != null && in_flight.isCancelled()) {
+                group.abandon(endpoint);
+                return response;
+            }
+            group.report(endpoint, response);
+
+            RadioError error = response.getTransmitError();
+            boolean unprocessed = error == RadioError.FAILED_TO_CONNECT || error == RadioError.SHUTTING_DOWN;
+            if (!unprocessed || --tries_left <= 0 || until - System.nanoTime() <= 0)
+                return response;
+
+            if (debug) logger.info("endpoint " + endpoint.getAddress() + " gave " + error + ", retrying elsewhere");
+            endpoint = group.pick(endpoint);
+        }
+    }
+
+
+    /**
+     * makes sure everything needed to encrypt and send this message has been set
+     */
+    private void checkSendable(PublicKey remote) {
         if (getReason() == null) {
             throw new IllegalStateException("NO MESSAGE REASON SPECIFIED");
         }
         if (keypair == null) {
             throw new IllegalStateException("NO RSA KEYPAIR SPECIFIED");
         }
-        if (remotePub == null) {
+        if (remote == null) {
             throw new IllegalStateException("NO REMOTE KEY SPECIFIED");
         }
+    }
 
-        return WalkieTalkie.sharedExecutor().submit(() -> {
 
-            ResponseMessage toReturn;
-            RadioSocket job = null;
+    /**
+     * encrypts and sends itself over the current thread, blocking until a response arrives
+     *
+     * @param IP     the destination IPv4 address
+     * @param port   the destination port
+     * @param remote the public key of the receiving {@link ReasonResponder}
+     * @param until  the deadline of the message as a {@link System#nanoTime()} value
+     * @param sealed the body already sealed for a broadcast, or null to encode and seal it now
+     * @param stream    the subscription to hand the connection to after a successful reply, or null to close it
+     * @param in_flight  lets another thread cut this message off by closing its connection, or null
+     * @return the reply, or a message containing the 'TRANSMIT_ERROR' if something went wrong
+     */
+    private ResponseMessage transmit(String IP, int port, PublicKey remote, long until,
+                                     RadioSocket.SealedBody sealed, Subscription stream, InFlight in_flight) {
 
-            RadioError error = RadioError.FAILED_TO_CONNECT;
+        ResponseMessage toReturn;
+        RadioSocket job = null;
 
-            try {
-                job = new RadioSocket(IP, port);
-                job.setMessage(message.toString(), getReason(), keypair.pub64());
-
-                error = RadioError.BAD_CRYPT_KEY;
-                job.encodeMessage(remotePub, keypair.priv());
+        // a responder in this same JVM answers without a connection
+        if (stream == null) {
+            ResponseMessage local = Loopback.transmit(IP, port, this, sealed, keypair, remote, until);
+            if (local != null)
+                return local;
+        }
 
-                error = RadioError.BAD_NETWORK_WRITE;
-                job.sendMessage();
+        long started = System.nanoTime();
+        RadioError error = RadioError.DEADLINE_EXCEEDED;
+        RadioTrace trace = RadioTrace.begin("client");
+        if (trace != null) {
+            trace.setReason(getReason());
+            trace.setPeer(remote);
+        }
 
-                error = RadioError.BAD_NETWORK_READ;
-                job.receiveRemote();
+        try {
+            int remaining = remainingMillis(until);
+
+            error = RadioError.FAILED_TO_CONNECT;
+            job = socket_options == null
+                    ? RadioSocket.open(IP, port, remaining)
+                    : RadioSocket.open(IP, port, remaining, socket_options);
+            if (in_flight != null && !in_flight.attach(job))
+                throw new SocketException("message was cancelled");
+            if (sealed == null) {
+                job.setMessage(encode(), getReason(), keypair.pub64());
+                job.setCompression(codec, compression_threshold);
+            } else {
+                job.setMessage(sealed, getReason(), keypair.pub64());
+            }
+            job.setSubscribe(stream != null);
 
-                error = RadioError.INVALID_SIGNATURE;
-                job.verifyRemoteSignature(remotePub);
+            error = RadioError.BAD_CRYPT_KEY;
+            if (trace != null) trace.stage(RadioTrace.Stage.ENCRYPT);
+            job.encodeMessage(remote, keypair.priv());
 
-                error = RadioError.BAD_CRYPT_KEY;
-                job.decodeRemote(keypair.priv());
+            error = RadioError.DEADLINE_EXCEEDED;
+            job.setMessageTimeout(remainingMillis(until));
 
-                error = RadioError.INVALID_JSON;
-                toReturn = new ResponseMessage(job.getRemoteBody());
+            error = RadioError.BAD_NETWORK_WRITE;
+            if (trace != null) trace.stage(RadioTrace.Stage.WRITE);
+            job.sendMessage();
 
-            } catch (Exception e) {
-                if (debug) logger.severe(error.name());
+            error = RadioError.DEADLINE_EXCEEDED;
+            job.setReadTimeout(remainingMillis(until));
 
-                toReturn = new ResponseMessage()
-                        .put("TRANSMIT_ERROR", error.name());
+            error = RadioError.BAD_NETWORK_READ;
+            if (trace != null) trace.stage(RadioTrace.Stage.READ);
+            job.receiveRemote();
 
-                if (error == RadioError.INVALID_JSON)
-                    toReturn.put("body", job.getRemoteBody());
+            RadioError rejection = job.getRemoteRejection();
+            if (rejection != null) {
+                error = rejection;
+                throw new IllegalStateException("message was rejected by the receiver");
             }
 
-            try {
-                if (job != null) job.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            error = RadioError.INVALID_SIGNATURE;
+            if (trace != null) trace.stage(RadioTrace.Stage.VERIFY);
+            job.verifyRemoteSignature(remote);
+
+            error = RadioError.BAD_CRYPT_KEY;
+            if (trace != null) trace.stage(RadioTrace.Stage.DECRYPT);
+            job.decodeRemote(keypair.priv());
+
+            error = RadioError.INVALID_JSON;
+            toReturn = new ResponseMessage(job.getRemoteBodyBytes());
+
+            LatencyTracker.forReason(getReason()).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+            if (stream != null && toReturn.getSuccess()) {
+                error = RadioError.BAD_CRYPT_KEY;
+                job.openStream(true);
+
+                // the subscription owns the connection from here on
+                if (stream.attach(job))
+                    job = null;
             }
 
-            return toReturn;
-        });
+        } catch (Exception e) {
+            // the read timeout always matches what is left of the deadline
+            if (e instanceof SocketTimeoutException && error == RadioError.BAD_NETWORK_READ)
+                error = RadioError.DEADLINE_EXCEEDED;
+
+            if (debug) logger.severe(error.name());
+
+            toReturn = new ResponseMessage()
+                    .put("TRANSMIT_ERROR", error.name());
+
+            if (error == RadioError.INVALID_JSON)
+                toReturn.put("body", job.getRemoteBody());
+        }
+
+        if (trace != null) {
+            RadioError failed = toReturn.getTransmitError();
+            trace.end(job == null ? 0 : job.getRemoteBodyLength(), job == null ? 0 : job.getSentBodyLength(), failed);
+        }
+
+        try {
+            if (job != null) job.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return toReturn;
+    }
+
+
+    /**
+     * the connection a single attempt is using, so the thread waiting on it can cut it off
+     */
+    private static final class InFlight {
+
+        private RadioSocket job;
+        private int lease;
+        private boolean cancelled;
+
+
+        /**
+         * remembers the connection of the attempt, or refuses it if the attempt was already cancelled
+         */
+        synchronized boolean attach(RadioSocket job) {
+            if (cancelled)
+                return false;
+            this.job = job;
+            lease = job.lease();
+            return true;
+        }
+
+
+        /**
+         * closes the connection of the attempt, which wakes it up from whatever it is blocked on
+         */
+        synchronized void cancel() {
+            cancelled = true;
+            if (job != null)
+                job.abort(lease);
+        }
+
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+
+    /**
+     * gives the time left until a deadline
+     *
+     * @param until the deadline as a {@link System#nanoTime()} value
+     * @return the time left in milliseconds, at least 1
+     * @throws SocketTimeoutException if the deadline has already passed
+     */
+    private static int remainingMillis(long until) throws SocketTimeoutException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(until - System.nanoTime());
+        if (remaining <= 0)
+            throw new SocketTimeoutException("deadline exceeded");
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
     }
 
 
@@ -216,12 +836,67 @@ public class ReasonMessage extends RadioMessage {
      */
     @Override
     public ReasonMessage put(String key, String val) {
-        if (key.equals("reason")) throw new IllegalArgumentException("reserved key");
         super.put(key, val);
         return this;
     }
 
 
+    @Override
+    public ReasonMessage putInt(String key, int val) {
+        super.putInt(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ReasonMessage putLong(String key, long val) {
+        super.putLong(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ReasonMessage putDouble(String key, double val) {
+        super.putDouble(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ReasonMessage putBoolean(String key, boolean val) {
+        super.putBoolean(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ReasonMessage putBytes(String key, byte[] val) {
+        super.putBytes(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ReasonMessage putMessage(String key, RadioMessage val) {
+        super.putMessage(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ReasonMessage putList(String key, List<?> val) {
+        super.putList(key, val);
+        return this;
+    }
+
+
+    @Override
+    protected void store(String key, Object val) {
+        if (key.equals("reason")) throw new IllegalArgumentException("reserved key");
+        super.store(key, val);
+    }
+
+
     @Override
     public ReasonMessage clear() {
         super.clear();
@@ -1,5 +1,9 @@
 package online.umbcraft.libraries.network.message;
 
+import online.umbcraft.libraries.network.errors.RadioError;
+
+import java.util.List;
+
 public class ResponseMessage extends RadioMessage {
 
 
@@ -19,15 +23,43 @@ public class ResponseMessage extends RadioMessage {
         super(json);
     }
 
+    /**
+     * Creates a RadioMessage from its encoded form, either binary or JSON text
+     *
+     * @param encoded the encoded message
+     */
+    public ResponseMessage(byte[] encoded) {
+        super(encoded);
+    }
+
     /**
      * gets the success status for this response
      *
      * @return whether this response was successful
      */
     public Boolean getSuccess() {
-        if (message.has("success"))
-            return message.getBoolean("success");
-        return false;
+        Object success = fields.get("success");
+        if (success instanceof Boolean)
+            return (Boolean) success;
+        return success != null && Boolean.parseBoolean(success.toString());
+    }
+
+
+    /**
+     * gets the error this response was replaced with, if sending the original message failed
+     *
+     * @return the {@link RadioError} stored under 'TRANSMIT_ERROR', or null if the message went through
+     */
+    public RadioError getTransmitError() {
+        Object error = fields.get("TRANSMIT_ERROR");
+        if (error == null)
+            return null;
+
+        try {
+            return RadioError.valueOf(error.toString());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
 
@@ -39,7 +71,7 @@ public class ResponseMessage extends RadioMessage {
      */
     public ResponseMessage setSuccess(boolean success) {
         if (debug) logger.info("setting success " + success);
-        message.put("success", success);
+        fields.put("success", success);
         return this;
     }
 
@@ -54,12 +86,67 @@ public class ResponseMessage extends RadioMessage {
      */
     @Override
     public ResponseMessage put(String key, String val) {
-        if (key.equals("success")) throw new IllegalArgumentException("reserved key");
         super.put(key, val);
         return this;
     }
 
 
+    @Override
+    public ResponseMessage putInt(String key, int val) {
+        super.putInt(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ResponseMessage putLong(String key, long val) {
+        super.putLong(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ResponseMessage putDouble(String key, double val) {
+        super.putDouble(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ResponseMessage putBoolean(String key, boolean val) {
+        super.putBoolean(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ResponseMessage putBytes(String key, byte[] val) {
+        super.putBytes(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ResponseMessage putMessage(String key, RadioMessage val) {
+        super.putMessage(key, val);
+        return this;
+    }
+
+
+    @Override
+    public ResponseMessage putList(String key, List<?> val) {
+        super.putList(key, val);
+        return this;
+    }
+
+
+    @Override
+    protected void store(String key, Object val) {
+        if (key.equals("success")) throw new IllegalArgumentException("reserved key");
+        super.store(key, val);
+    }
+
+
     @Override
     public ResponseMessage clear() {
         super.clear();
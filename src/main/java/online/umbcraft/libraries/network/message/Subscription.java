@@ -0,0 +1,193 @@
+package online.umbcraft.libraries.network.message;
+
+import online.umbcraft.libraries.network.RadioSocket;
+import online.umbcraft.libraries.network.errors.RadioError;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p> The receiving end of a subscription made with {@link ReasonMessage#subscribe(String, int, SubscriptionListener)} </p>
+ * <p>
+ * The subscribing message and its first reply are exchanged like any other message, after which the connection
+ * stays open and the responder's messages arrive over it, protected by session keys taken from that exchange.
+ * Every message is handed to the {@link SubscriptionListener} as it arrives, until the subscription is
+ * cancelled, closed by the responder, or the connection is lost
+ * <p>
+ * The responder may only send as many messages as this side has granted credit for. A window's worth of credit
+ * is granted when the stream opens, and credit is handed back in batches as the listener finishes with messages,
+ * so a listener which falls behind slows the responder down instead of making it buffer
+ */
+public class Subscription {
+
+    private final SubscriptionListener listener;
+    private final int window;
+    private final CountDownLatch closed;
+
+    private RadioSocket job;
+    private boolean open;
+    private boolean cancelled;
+    private volatile RadioError error;
+
+
+    Subscription(SubscriptionListener listener, int window) {
+        this.listener = listener;
+        this.window = window;
+        closed = new CountDownLatch(1);
+        open = true;
+    }
+
+
+    /**
+     * takes over the connection once the first reply has arrived
+     *
+     * @return false if the subscription was cancelled in the meantime, and the connection should be closed
+     */
+    synchronized boolean attach(RadioSocket job) {
+        if (cancelled)
+            return false;
+        this.job = job;
+        return true;
+    }
+
+
+    /**
+     * delivers the first reply, then reads the stream until it ends, on the thread which made the subscription
+     */
+    void run(ResponseMessage first) {
+        RadioError ended_with = first.getTransmitError();
+        try {
+            if (job != null)
+                job.sendCredit(window);
+            if (!isCancelled())
+                deliver(first);
+            if (job == null)
+                return;
+
+            // credit is handed back in batches of half a window, rather than a frame for every message
+            int batch = Math.max(1, window / 2);
+            int consumed = 0;
+            while (true) {
+                byte type = job.receiveFrame();
+                if (type == RadioSocket.STREAM_DATA) {
+                    deliver(new ResponseMessage(job.getFrameBody()));
+                    if (++consumed >= batch) {
+                        job.sendCredit(consumed);
+                        consumed = 0;
+                    }
+                } else if (type == RadioSocket.STREAM_END) {
+                    ended_with = parseError(job.getFrameBody());
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            ended_with = isCancelled() ? null : RadioError.BAD_NETWORK_READ;
+        } finally {
+            finish(ended_with);
+        }
+    }
+
+
+    private void deliver(ResponseMessage message) {
+        try {
+            listener.onMessage(message);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    private static RadioError parseError(byte[] body) {
+        if (body.length == 0)
+            return null;
+        try {
+            return RadioError.valueOf(new String(body, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * releases the connection and tells the listener the subscription is over
+     */
+    private void finish(RadioError ended_with) {
+        synchronized (this) {
+            open = false;
+            error = ended_with;
+            if (job != null) {
+                try {
+                    job.close();
+                } catch (IOException ignored) {
+                    // the connection is already gone, there is nothing left to flush
+                }
+                job = null;
+            }
+        }
+
+        try {
+            listener.onClose(ended_with);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        closed.countDown();
+    }
+
+
+    /**
+     * Asks the responder to end the subscription, messages already on their way may still arrive
+     */
+    public synchronized void cancel() {
+        if (cancelled)
+            return;
+        cancelled = true;
+
+        if (job != null && open) {
+            try {
+                job.sendFrame(RadioSocket.STREAM_CANCEL, new byte[0]);
+            } catch (IOException e) {
+                job.abort();
+            }
+        }
+    }
+
+
+    private synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+
+    /**
+     * Gives whether the subscription is still receiving messages
+     *
+     * @return if the subscription has not ended yet
+     */
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+
+    /**
+     * Gives why the subscription ended
+     *
+     * @return the {@link RadioError} it ended with, or null if it is still open or ended normally
+     */
+    public RadioError getError() {
+        return error;
+    }
+
+
+    /**
+     * Waits for the subscription to end
+     *
+     * @param timeout_ms the longest to wait in milliseconds
+     * @return if the subscription ended in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitClose(long timeout_ms) throws InterruptedException {
+        return closed.await(timeout_ms, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,28 @@
+package online.umbcraft.libraries.network.message;
+
+import online.umbcraft.libraries.network.errors.RadioError;
+
+/**
+ * <p> Receives the messages of a {@link Subscription} </p>
+ * both methods are called from the single thread reading the subscription, one call at a time
+ *
+ * @see ReasonMessage#subscribe(String, int, SubscriptionListener)
+ */
+public interface SubscriptionListener {
+
+    /**
+     * called for every message the responder sends, starting with its first reply to the subscription
+     *
+     * @param message a message of the subscription
+     */
+    void onMessage(ResponseMessage message);
+
+
+    /**
+     * called once when the subscription ends
+     *
+     * @param error why it ended, or null if it was cancelled or closed by the responder
+     */
+    default void onClose(RadioError error) {
+    }
+}
@@ -0,0 +1,194 @@
+package online.umbcraft.libraries.network.pool;
+
+import online.umbcraft.libraries.network.response.WalkieTalkie;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+
+/**
+ * <p> A bounded pool of reusable objects </p>
+ * <p>
+ * Objects are taken out with {@link #acquire()} and must be handed back with {@link #release(Object)}
+ * once the caller is done with them. Released objects are reset and kept for the next caller,
+ * up to the capacity of the pool; anything past that is left for the garbage collector.
+ * <p>
+ * In debug mode the pool remembers where every outstanding object was acquired,
+ * so objects that are never released (leaks) or released twice can be reported
+ *
+ * @param <T> the type of object held in the pool
+ */
+public class ObjectPool<T> {
+
+    private static final Logger logger = WalkieTalkie.getLogger();
+
+    private final String name;
+    private final Supplier<T> factory;
+    private final Consumer<T> reset;
+    private final int capacity;
+
+    private final Queue<T> idle;
+    private final AtomicInteger idle_count;
+    private final AtomicInteger created;
+
+    private final Map<T, Throwable> outstanding;
+    private volatile boolean debug;
+
+
+    /**
+     * Creates an empty ObjectPool
+     *
+     * @param name     name of the pool, used in log output
+     * @param capacity the most idle objects the pool will hold on to
+     * @param factory  creates a new object whenever the pool is empty
+     * @param reset    clears an object's state before it is put back into the pool
+     */
+    public ObjectPool(String name, int capacity, Supplier<T> factory, Consumer<T> reset) {
+        this.name = name;
+        this.capacity = capacity;
+        this.factory = factory;
+        this.reset = reset;
+
+        idle = new ConcurrentLinkedQueue<>();
+        idle_count = new AtomicInteger();
+        created = new AtomicInteger();
+        outstanding = Collections.synchronizedMap(new IdentityHashMap<>());
+    }
+
+
+    /**
+     * Takes an object out of the pool, creating a new one if none are idle
+     *
+     * @return an object which must later be given back with {@link #release(Object)}
+     */
+    public T acquire() {
+        T obj = idle.poll();
+        if (obj == null) {
+            obj = factory.get();
+            created.incrementAndGet();
+        } else {
+            idle_count.decrementAndGet();
+        }
+
+        if (debug)
+            outstanding.put(obj, new Throwable("object acquired from pool " + name + " here"));
+
+        return obj;
+    }
+
+
+    /**
+     * Resets an object and hands it back to the pool
+     *
+     * @param obj an object previously returned by {@link #acquire()}
+     */
+    public void release(T obj) {
+        if (obj == null)
+            return;
+
+        if (debug && outstanding.remove(obj) == null) {
+            logger.severe("object released to pool " + name + " twice, or was never acquired from it");
+            return;
+        }
+
+        reset.accept(obj);
+
+        if (idle_count.incrementAndGet() <= capacity)
+            idle.offer(obj);
+        else
+            idle_count.decrementAndGet();
+    }
+
+
+    /**
+     * Gives how many objects this pool has ever had to create
+     * <p>
+     * a value that keeps growing in steady state means objects are not being released
+     *
+     * @return the number of objects created by the pool factory
+     */
+    public int created() {
+        return created.get();
+    }
+
+
+    /**
+     * Gives how many objects are currently sitting idle in the pool
+     *
+     * @return the number of idle objects
+     */
+    public int idle() {
+        return idle_count.get();
+    }
+
+
+    /**
+     * Gives how many objects have been acquired but not yet released
+     * <p>
+     * only tracked while debug mode is enabled
+     *
+     * @return the number of outstanding objects
+     */
+    public int outstanding() {
+        return outstanding.size();
+    }
+
+
+    /**
+     * Logs where every outstanding object was acquired from
+     * <p>
+     * only tracked while debug mode is enabled
+     *
+     * @return the number of outstanding objects that were reported
+     */
+    public int reportLeaks() {
+        List<Throwable> sites;
+        synchronized (outstanding) {
+            sites = new ArrayList<>(outstanding.values());
+        }
+
+        for (Throwable site : sites) {
+            StringBuilder trace = new StringBuilder("possible leak in pool " + name + ": " + site.getMessage());
+            for (StackTraceElement element : site.getStackTrace())
+                trace.append("\n    at ").append(element);
+            logger.severe(trace.toString());
+        }
+        return sites.size();
+    }
+
+
+    /**
+     * Enables leak detection for this pool
+     * <p>
+     * records a stack trace for every acquire, so this should not be left on in production
+     *
+     * @return itself
+     */
+    public ObjectPool<T> enableDebug() {
+        logger.info("debugging enabled for pool " + name);
+        debug = true;
+        return this;
+    }
+
+
+    /**
+     * Disables leak detection for this pool and forgets all outstanding objects
+     *
+     * @return itself
+     */
+    public ObjectPool<T> disableDebug() {
+        logger.info("debugging disabled for pool " + name);
+        debug = false;
+        outstanding.clear();
+        return this;
+    }
+}
@@ -0,0 +1,223 @@
+package online.umbcraft.libraries.network.response;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+
+/**
+ * <p> A small group of threads accepting connections for every {@link PortListener} </p>
+ * <p>
+ * Each thread runs a {@link Selector} that any number of listening ports can be registered with,
+ * so a dozen ports no longer need a dozen accept threads. Accepted connections are handed to the port's
+ * {@link PortListener}, which reads and answers them on the shared executor.
+ * Threads are only started once they are given a port
+ *
+ * @see WalkieTalkie#sharedAcceptors()
+ */
+public class AcceptorGroup {
+
+    private static final Logger logger = WalkieTalkie.getLogger();
+
+    private final AcceptLoop[] loops;
+    private final AtomicInteger next;
+    private volatile boolean shutdown;
+
+
+    /**
+     * Creates an AcceptorGroup with one thread per core
+     */
+    public AcceptorGroup() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Creates an AcceptorGroup with a certain number of threads
+     *
+     * @param threads the most accept threads the group will run
+     */
+    public AcceptorGroup(int threads) {
+        if (threads < 1) throw new IllegalArgumentException("an acceptor group needs at least one thread");
+        loops = new AcceptLoop[threads];
+        next = new AtomicInteger();
+    }
+
+
+    /**
+     * Starts accepting connections on a bound, listening channel
+     *
+     * @param channel  the listening channel
+     * @param listener the {@link PortListener} that accepted connections are handed to
+     * @throws IOException if the channel could not be registered
+     */
+    public void register(ServerSocketChannel channel, PortListener listener) throws IOException {
+        if (shutdown) throw new IllegalStateException("acceptor group has been shut down");
+
+        channel.configureBlocking(false);
+        loopFor(Math.floorMod(next.getAndIncrement(), loops.length)).register(channel, listener);
+    }
+
+
+    /**
+     * Stops accepting connections on a channel and closes it
+     *
+     * @param channel the listening channel
+     */
+    public void close(ServerSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+
+        // the port is only released once the selector it was registered with runs again
+        for (AcceptLoop loop : loopsStarted())
+            loop.selector.wakeup();
+    }
+
+
+    /**
+     * <p> Stops every accept thread in the group </p>
+     * channels still registered are closed, and nothing can be registered afterwards
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (AcceptLoop loop : loopsStarted()) {
+            loop.running = false;
+            loop.selector.wakeup();
+        }
+    }
+
+
+    /**
+     * gets the loop for a slot, starting its thread the first time
+     */
+    private synchronized AcceptLoop loopFor(int slot) throws IOException {
+        if (loops[slot] == null) {
+            loops[slot] = new AcceptLoop(slot);
+            loops[slot].start();
+        }
+        return loops[slot];
+    }
+
+
+    /**
+     * gets every loop whose thread has been started
+     */
+    private synchronized AcceptLoop[] loopsStarted() {
+        int count = 0;
+        for (AcceptLoop loop : loops)
+            if (loop != null) count++;
+
+        AcceptLoop[] started = new AcceptLoop[count];
+        count = 0;
+        for (AcceptLoop loop : loops)
+            if (loop != null) started[count++] = loop;
+        return started;
+    }
+
+
+    /**
+     * a single accept thread and the selector it waits on
+     */
+    private static class AcceptLoop extends Thread {
+
+        private final Selector selector;
+        private final Queue<Runnable> pending;
+        private volatile boolean running;
+
+
+        private AcceptLoop(int slot) throws IOException {
+            super("RadioScanner-acceptor-" + slot);
+            setDaemon(true);
+            selector = Selector.open();
+            pending = new ConcurrentLinkedQueue<>();
+            running = true;
+        }
+
+
+        /**
+         * registration has to happen on the selector's own thread, so it is queued up and the selector woken
+         */
+        private void register(ServerSocketChannel channel, PortListener listener) {
+            pending.add(() -> {
+                try {
+                    channel.register(selector, SelectionKey.OP_ACCEPT, listener);
+                } catch (IOException e) {
+                    logger.severe("could not accept connections on port " + listener.getPort());
+                }
+            });
+            selector.wakeup();
+        }
+
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = pending.poll()) != null)
+                        task.run();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        if (key.isValid() && key.isAcceptable())
+                            acceptAll(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                logger.severe("accept thread " + getName() + " stopped: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+
+        /**
+         * accepts every connection waiting on a channel and hands each to its listener
+         */
+        private void acceptAll(SelectionKey key) {
+            ServerSocketChannel channel = (ServerSocketChannel) key.channel();
+            PortListener listener = (PortListener) key.attachment();
+
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = channel.accept();
+                    if (client == null)
+                        return;
+                    client.configureBlocking(true);
+                } catch (IOException e) {
+                    logger.severe("issue receiving client on port " + listener.getPort());
+                    return;
+                }
+
+                Socket socket = client.socket();
+                listener.accepted(socket);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package online.umbcraft.libraries.network.response;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * <p> Responds to a reason with a {@link CompletionStage} instead of blocking for the answer </p>
+ * <p>
+ * Meant for responders which wait on a database or another service. The thread which received the message is
+ * given back as soon as {@link #respondAsync(ReasonMessage)} returns, and the response is encrypted and written
+ * by the shared executor once the stage completes. A stage which completes exceptionally is answered with
+ * {@link online.umbcraft.libraries.network.errors.RadioError#ERROR_ON_RESPONSE}, and one which has not
+ * completed by the deadline of the message is dropped like any other expired message
+ */
+public abstract class AsyncReasonResponder extends ReasonResponder {
+
+    /**
+     * Creates a blank AsyncReasonResponder and sets the reason
+     *
+     * @param reason the reason of the messages this responds to
+     * @param pair   the RSA keyset used to encode / decode messages
+     */
+    public AsyncReasonResponder(String reason, HelpfulRSAKeyPair pair) {
+        super(reason, pair);
+    }
+
+
+    /**
+     * Creates a blank AsyncReasonResponder using keys from the shared {@link online.umbcraft.libraries.encrypt.RadioKeyStore}
+     *
+     * @param reason    the reason of the messages this responds to
+     * @param key_alias the name the RSA keyset used to encode / decode messages is stored under
+     */
+    public AsyncReasonResponder(String reason, String key_alias) {
+        super(reason, key_alias);
+    }
+
+
+    /**
+     * <p> starts generating the response to a message </p>
+     * should return quickly, the work itself belongs to whatever completes the stage
+     *
+     * @param message the incoming message
+     * @return the response, once it is ready
+     */
+    public abstract CompletionStage<ResponseMessage> respondAsync(ReasonMessage message);
+
+
+    /**
+     * <p> generates the response to a message, waiting for {@link #respondAsync(ReasonMessage)} to complete </p>
+     * only used when this responder is called directly, a {@link PortListener} never blocks on it
+     *
+     * @param message the incoming message
+     * @return the response
+     * @throws CompletionException if the response could not be generated
+     */
+    @Override
+    public ResponseMessage response(ReasonMessage message) {
+        return respondAsync(message).toCompletableFuture().join();
+    }
+}
@@ -0,0 +1,127 @@
+package online.umbcraft.libraries.network.response;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * <p> Adaptive limit on how many messages a {@link PortListener} handles at once </p>
+ * <p>
+ * Compares the latency of every finished message against the lowest latency seen recently (the no-load baseline).
+ * While latency stays near the baseline the limit grows by about its square root, and as latency climbs
+ * the limit shrinks in proportion (gradient). Messages that were dropped for running out of time cut the
+ * limit multiplicatively (AIMD), since they mean requests are already queueing up
+ */
+public class ConcurrencyLimiter {
+
+    private static final int BASELINE_RESET = 500;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF = 0.9;
+
+    private final AtomicInteger in_flight;
+
+    private volatile int min_limit;
+    private volatile int max_limit;
+    private volatile double limit;
+
+    private long min_rtt;
+    private long next_min_rtt;
+    private int samples;
+
+
+    /**
+     * Creates a ConcurrencyLimiter
+     *
+     * @param initial the limit to start with
+     * @param min     the limit will never go below this
+     * @param max     the limit will never go above this
+     */
+    public ConcurrencyLimiter(int initial, int min, int max) {
+        in_flight = new AtomicInteger();
+        setBounds(min, max);
+        limit = Math.max(min, Math.min(max, initial));
+    }
+
+
+    /**
+     * Changes the bounds the limit moves between, moving the current limit inside them right away
+     *
+     * @param min the limit will never go below this
+     * @param max the limit will never go above this
+     */
+    public synchronized void setBounds(int min, int max) {
+        if (min < 1 || max < min) throw new IllegalArgumentException("invalid concurrency bounds");
+        min_limit = min;
+        max_limit = max;
+        limit = Math.max(min, Math.min(max, limit));
+    }
+
+
+    /**
+     * Claims a slot for a message, if the limit allows it
+     *
+     * @return if the message may be handled, otherwise it should be rejected right away
+     */
+    public boolean tryAcquire() {
+        if (in_flight.incrementAndGet() > (int) limit) {
+            in_flight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Gives back a slot claimed with {@link #tryAcquire()} and adjusts the limit
+     *
+     * @param rtt_nanos how long the message took from acquiring the slot until it was answered
+     * @param dropped   if the message was dropped for running past its deadline
+     */
+    public void release(long rtt_nanos, boolean dropped) {
+        int was_in_flight = in_flight.getAndDecrement();
+
+        synchronized (this) {
+            if (dropped) {
+                limit = Math.max(min_limit, limit * BACKOFF);
+                return;
+            }
+
+            // the baseline is re-measured every so often in case the workload itself got slower
+            if (min_rtt == 0 || rtt_nanos < min_rtt) min_rtt = rtt_nanos;
+            if (next_min_rtt == 0 || rtt_nanos < next_min_rtt) next_min_rtt = rtt_nanos;
+            if (++samples % BASELINE_RESET == 0) {
+                min_rtt = next_min_rtt;
+                next_min_rtt = 0;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0, min_rtt / (double) Math.max(1, rtt_nanos)));
+            double target = limit * gradient + Math.sqrt(limit);
+
+            // no point growing a limit the traffic is nowhere near using
+            if (target > limit && was_in_flight < limit / 2)
+                return;
+
+            double smoothed = limit * (1 - SMOOTHING) + target * SMOOTHING;
+            limit = Math.max(min_limit, Math.min(max_limit, smoothed));
+        }
+    }
+
+
+    /**
+     * Gives the current limit
+     *
+     * @return how many messages may currently be handled at once
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+
+    /**
+     * Gives how many messages are being handled right now
+     *
+     * @return the number of claimed slots
+     */
+    public int getInFlight() {
+        return in_flight.get();
+    }
+}
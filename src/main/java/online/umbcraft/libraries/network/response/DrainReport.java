@@ -0,0 +1,101 @@
+package online.umbcraft.libraries.network.response;
+
+
+/**
+ * <p> What happened to the messages a {@link PortListener} was handling while it shut down </p>
+ *
+ * @see WalkieTalkie#stopListening(long)
+ */
+public class DrainReport {
+
+    private final int completed;
+    private final int rejected;
+    private final int abandoned;
+    private final long drain_ms;
+
+
+    /**
+     * Creates a DrainReport
+     *
+     * @param completed how many messages accepted before the shutdown finished while draining
+     * @param rejected  how many messages arrived during the shutdown and were turned away
+     * @param abandoned how many messages were still being handled when the drain timed out
+     * @param drain_ms  how long the drain took in milliseconds
+     */
+    public DrainReport(int completed, int rejected, int abandoned, long drain_ms) {
+        this.completed = completed;
+        this.rejected = rejected;
+        this.abandoned = abandoned;
+        this.drain_ms = drain_ms;
+    }
+
+
+    /**
+     * Combines this report with another, as if both ports were drained as one
+     *
+     * @param other the report of another port
+     * @return a report holding the counts of both
+     */
+    public DrainReport merge(DrainReport other) {
+        return new DrainReport(completed + other.completed, rejected + other.rejected,
+                abandoned + other.abandoned, Math.max(drain_ms, other.drain_ms));
+    }
+
+
+    /**
+     * Gives how many messages accepted before the shutdown were still answered during it
+     *
+     * @return the number of messages that finished while draining
+     */
+    public int getCompleted() {
+        return completed;
+    }
+
+
+    /**
+     * Gives how many messages arrived after the shutdown began, and were turned away with
+     * {@link online.umbcraft.libraries.network.errors.RadioError#SHUTTING_DOWN} without being processed
+     *
+     * @return the number of turned away messages
+     */
+    public int getRejected() {
+        return rejected;
+    }
+
+
+    /**
+     * Gives how many messages were still being handled when the drain ran out of time
+     *
+     * @return the number of messages that may not have been answered
+     */
+    public int getAbandoned() {
+        return abandoned;
+    }
+
+
+    /**
+     * Gives how long the drain took
+     *
+     * @return the drain time in milliseconds
+     */
+    public long getDrainTime() {
+        return drain_ms;
+    }
+
+
+    /**
+     * Gives whether every message that was accepted got to finish
+     *
+     * @return if no messages were abandoned
+     */
+    public boolean isClean() {
+        return abandoned == 0;
+    }
+
+
+    @Override
+    public String toString() {
+        return "DrainReport{completed=" + completed + ", rejected=" + rejected
+                + ", abandoned=" + abandoned + ", drain_ms=" + drain_ms + "}";
+    }
+}
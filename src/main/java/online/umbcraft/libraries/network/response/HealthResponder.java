@@ -0,0 +1,41 @@
+package online.umbcraft.libraries.network.response;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+
+/**
+ * <p> Answers with the live {@link RadioStats} of a {@link WalkieTalkie} </p>
+ * <p>
+ * Registered with {@link WalkieTalkie#enableHealthReason(int, HelpfulRSAKeyPair, String...)}, and scheduled as
+ * {@link ReasonPriority#CONTROL} so it still answers quickly while the ports are saturated.
+ * Like any other responder it only answers senders whose keys were added with {@link #addKnown(String)}
+ */
+public class HealthResponder extends ReasonResponder {
+
+    /**
+     * the reason health checks are sent with
+     */
+    public static final String REASON = "radio-health";
+
+    private final RadioStats stats;
+
+
+    /**
+     * Creates a HealthResponder for the statistics of a WalkieTalkie
+     *
+     * @param stats the statistics to answer with
+     * @param pair  the RSA keyset used to encode / decode messages
+     */
+    public HealthResponder(RadioStats stats, HelpfulRSAKeyPair pair) {
+        super(REASON, pair);
+        this.stats = stats;
+        setPriority(ReasonPriority.CONTROL);
+    }
+
+
+    @Override
+    public ResponseMessage response(ReasonMessage message) {
+        return stats.snapshot();
+    }
+}
@@ -0,0 +1,102 @@
+package online.umbcraft.libraries.network.response;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * <p> A lock-free histogram of latencies in microseconds </p>
+ * <p>
+ * Values below 16 get a bucket each, above that every power of two is split into 8 buckets,
+ * so any percentile is off by at most an eighth of its value. Recording is a single atomic increment
+ * <p>
+ * Used by {@link RadioStats} for the latency of answered messages, and by tools measuring latency from outside
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+    private static final int LINEAR = 16;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - 4 + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong max;
+
+
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        max = new AtomicLong();
+    }
+
+
+    /**
+     * Records a single latency, counting negative values as 0
+     *
+     * @param micros the latency in microseconds
+     */
+    public void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+        counts.incrementAndGet(bucketOf(micros));
+        if (micros > max.get())
+            max.accumulateAndGet(micros, Math::max);
+    }
+
+
+    /**
+     * Gives the value below which the given fraction of recorded values lie,
+     * rounded up to the top of its bucket
+     *
+     * @param fraction the fraction of values, from 0 to 1
+     * @return the percentile in microseconds, or 0 if nothing was recorded
+     */
+    public long percentile(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+
+        long wanted = Math.max(1, (long) Math.ceil(total * fraction));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= wanted)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+
+    /**
+     * Gives the largest latency recorded
+     *
+     * @return the largest latency in microseconds, or 0 if nothing was recorded
+     */
+    public long max() {
+        return max.get();
+    }
+
+
+    private static int bucketOf(long micros) {
+        if (micros < LINEAR)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int sub = (int) (micros >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+
+    private static long upperBound(int bucket) {
+        if (bucket < LINEAR)
+            return bucket;
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 3)) - 1;
+    }
+}
@@ -0,0 +1,102 @@
+package online.umbcraft.libraries.network.response;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.RadioSocket;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.PublicKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * <p> Delivers messages to a {@link WalkieTalkie} in the same JVM without going through TCP </p>
+ * <p>
+ * Every port a WalkieTalkie listens on is registered here. A message sent to a loopback address
+ * (anything {@link InetAddress#isLoopbackAddress()} accepts) on a registered port whose WalkieTalkie has
+ * loopback enabled is answered directly by the {@link ReasonResponder}, on the thread which would otherwise have
+ * waited on the socket. The sender's key is still checked against the responder's known keys, the key the
+ * sender expects must be the responder's, and rate limits, concurrency limits and deadlines still apply,
+ * whether or not local senders are trusted. Unless the WalkieTalkie trusts them, both the message and its
+ * response are still encrypted and signed, only the connection is skipped
+ *
+ * @see WalkieTalkie#enableLoopback(boolean)
+ */
+public final class Loopback {
+
+    private static final Map<Integer, PortListener> listeners = new ConcurrentHashMap<>();
+
+
+    private Loopback() {
+    }
+
+
+    static void register(PortListener listener) {
+        listeners.put(listener.getPort(), listener);
+    }
+
+
+    static void unregister(PortListener listener) {
+        listeners.remove(listener.getPort(), listener);
+    }
+
+
+    /**
+     * Gives whether messages to an address would be answered in-process
+     *
+     * @param IP   the address messages are sent to
+     * @param port the port messages are sent to
+     * @return if a local WalkieTalkie with loopback enabled listens there
+     */
+    public static boolean isLocal(String IP, int port) {
+        return find(IP, port) != null;
+    }
+
+
+    /**
+     * <p> Answers a message in-process, if a local WalkieTalkie with loopback enabled listens on the address </p>
+     * blocks until the response is ready, like sending over a connection would
+     *
+     * @param IP      the address the message is sent to
+     * @param port    the port the message is sent to
+     * @param message the message
+     * @param sealed  the body sealed for a broadcast, which is delivered instead of the message, or null
+     * @param sender  the keys of the sender
+     * @param remote  the public key of the responder
+     * @param until   the deadline of the message as a {@link System#nanoTime()} value
+     * @return the response, or null if nothing local listens on the address
+     */
+    public static ResponseMessage transmit(String IP, int port, ReasonMessage message, RadioSocket.SealedBody sealed,
+                                           HelpfulRSAKeyPair sender, PublicKey remote, long until) {
+        PortListener listener = find(IP, port);
+        if (listener == null)
+            return null;
+        return listener.answerLocal(message, sealed, sender, remote, until);
+    }
+
+
+    private static PortListener find(String IP, int port) {
+        if (listeners.isEmpty() || !isLoopbackAddress(IP))
+            return null;
+
+        PortListener listener = listeners.get(port);
+        if (listener == null || !listener.isLoopbackEnabled())
+            return null;
+        return listener;
+    }
+
+
+    /**
+     * checks whether an address is a loopback address, resolving it the same way opening a connection would
+     */
+    private static boolean isLoopbackAddress(String IP) {
+        try {
+            return InetAddress.getByName(IP).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+}
@@ -2,19 +2,39 @@ package online.umbcraft.libraries.network.response;
 
 import online.umbcraft.libraries.network.RadioSocket;
 import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.compress.PayloadCodecs;
 import online.umbcraft.libraries.network.errors.RadioError;
 import online.umbcraft.libraries.network.message.RadioMessage;
 import online.umbcraft.libraries.network.message.ReasonMessage;
 import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.trace.RadioTrace;
 
 import java.io.*;
-import java.net.ServerSocket;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.security.InvalidKeyException;
 import java.security.PublicKey;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
 
@@ -24,15 +44,41 @@ import java.util.logging.Logger;
  * The server listener for a single port
  * can contain multiple responders, one for any unique message reason
  */
-public class PortListener extends Thread {
+public class PortListener {
 
     private static final Logger logger = WalkieTalkie.getLogger();
 
+    // drops the messages of asynchronous responders which have not answered by the deadline
+    private static final ScheduledThreadPoolExecutor deadline_timer = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread timer = new Thread(task, "RadioScanner deadline timer");
+        timer.setDaemon(true);
+        return timer;
+    });
+
+    static {
+        deadline_timer.setRemoveOnCancelPolicy(true);
+    }
+
+    // how long a subscription ended by a drain has to take its last frame before its connection is cut
+    private static final long STREAM_END_GRACE_MS = 1000;
+
     private final int PORT;
 
-    private ServerSocket server_listener;
-    private Map<String, ReasonResponder> responders;
+    private final List<ServerSocketChannel> server_listeners;
+    private AcceptorGroup acceptor_group;
+    private final Map<String, ResponderEntry> responders;
     private WalkieTalkie talkie;
+    private final Map<String, LongAdder> expired;
+    private final ConcurrencyLimiter limiter;
+
+    private final Set<ResponseSink> streams;
+    private final AtomicInteger subscriptions;
+
+    private final AtomicInteger in_flight;
+    private final AtomicInteger drain_completed;
+    private final AtomicInteger drain_rejected;
+    private volatile boolean draining;
+    private long drain_started;
 
 
     /**
@@ -43,7 +89,15 @@ public class PortListener extends Thread {
      */
     public PortListener(WalkieTalkie talkie, int port) {
         this.talkie = talkie;
-        responders = new HashMap<>();
+        server_listeners = new ArrayList<>();
+        responders = new ConcurrentHashMap<>();
+        expired = new ConcurrentHashMap<>();
+        limiter = new ConcurrencyLimiter(talkie.getMinConcurrency() * 4, talkie.getMinConcurrency(), talkie.getMaxConcurrency());
+        streams = ConcurrentHashMap.newKeySet();
+        subscriptions = new AtomicInteger();
+        in_flight = new AtomicInteger();
+        drain_completed = new AtomicInteger();
+        drain_rejected = new AtomicInteger();
         this.PORT = port;
     }
 
@@ -59,13 +113,57 @@ public class PortListener extends Thread {
 
 
     /**
-     * Adds a {@link ReasonResponder} allowing it to reply to message recieved by this
+     * <p> Adds a {@link ReasonResponder} allowing it to reply to message recieved by this </p>
+     * if a responder for the same reason already exists it is swapped out right away,
+     * messages it is already handling still finish
      *
      * @param responder the {@link ReasonResponder} to be added
      */
     public void addResponder(ReasonResponder responder) {
-        String reason = responder.getReason();
-        responders.put(reason, responder);
+        ResponderEntry old = responders.put(responder.getReason(), new ResponderEntry(responder));
+        if (old != null)
+            old.retire();
+    }
+
+
+    /**
+     * <p> Swaps in a {@link ReasonResponder} for a reason, and waits for the one it replaces to finish its messages </p>
+     * new messages go to the new responder as soon as this is called
+     *
+     * @param responder the {@link ReasonResponder} to be added
+     * @param drain_ms  the longest to wait for the old responder in milliseconds
+     * @return if the old responder (if any) finished every message in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean replaceResponder(ReasonResponder responder, long drain_ms) throws InterruptedException {
+        ResponderEntry old = responders.put(responder.getReason(), new ResponderEntry(responder));
+        if (old == null)
+            return true;
+
+        old.retire();
+        return old.awaitDrained(drain_ms);
+    }
+
+
+    /**
+     * <p> Removes the {@link ReasonResponder} for a reason, and waits for it to finish the messages it is handling </p>
+     * new messages with that reason are turned away as soon as this is called
+     *
+     * @param reason   the reason of the responder to remove
+     * @param drain_ms the longest to wait for the responder in milliseconds
+     * @return if the responder (if any) finished every message in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean removeResponder(String reason, long drain_ms) throws InterruptedException {
+        ResponderEntry old = responders.remove(reason);
+        if (old == null)
+            return true;
+
+        if (talkie.isDebugging())
+            logger.info("removing responder " + reason + " from port " + PORT);
+
+        old.retire();
+        return old.awaitDrained(drain_ms);
     }
 
 
@@ -75,43 +173,143 @@ public class PortListener extends Thread {
      * @return all contained {@link ReasonResponder}
      */
     public Collection<ReasonResponder> getResponders() {
-        return responders.values();
+        List<ReasonResponder> current = new ArrayList<>(responders.size());
+        for (ResponderEntry entry : responders.values())
+            current.add(entry.responder);
+        return current;
+    }
+
+
+    /**
+     * Gets the adaptive concurrency limit used by this listener while the
+     * {@link WalkieTalkie} has concurrency limiting enabled
+     *
+     * @return the {@link ConcurrencyLimiter} of this port
+     */
+    public ConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+
+
+    /**
+     * gives how many accepted connections have not been finished yet, including open subscriptions
+     */
+    int getInFlight() {
+        return in_flight.get();
+    }
+
+
+    /**
+     * Gives how many messages were dropped for running past their deadline, for every reason
+     *
+     * @return the number of dropped messages per message reason
+     */
+    public Map<String, Long> getExpiredCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        expired.forEach((reason, count) -> counts.put(reason, count.sum()));
+        return counts;
     }
 
 
     /**
      * <p> Closes the server socket on this port </p>
-     * this cannot be undone
+     * messages already accepted still finish in the background, this cannot be undone
      */
     public void stopListening() {
+        beginDrain();
+    }
+
+
+    /**
+     * <p> Closes the server socket on this port, and waits for the messages already accepted to finish </p>
+     * connections still waiting to be accepted are turned away with {@link RadioError#SHUTTING_DOWN},
+     * so their senders can safely try elsewhere. this cannot be undone
+     *
+     * @param drain_ms the longest to wait for accepted messages in milliseconds
+     * @return the counts of finished, turned away and abandoned messages
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public DrainReport stopListening(long drain_ms) throws InterruptedException {
+        beginDrain();
+        return awaitDrained(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drain_ms));
+    }
+
+
+    /**
+     * stops accepting connections, turning away the ones already waiting in the backlog
+     */
+    synchronized void beginDrain() {
+        if (draining)
+            return;
 
         if (talkie.isDebugging())
             logger.info("stopping listening on port " + PORT);
 
-        if (server_listener != null) {
+        drain_started = System.nanoTime();
+        draining = true;
+        Loopback.unregister(this);
 
+        // closing the port resets connections still in the backlog, so they are taken in and turned away properly
+        for (ServerSocketChannel server_listener : server_listeners) {
             try {
-                server_listener.close();
+                SocketChannel client;
+                while (server_listener.isOpen() && (client = server_listener.accept()) != null) {
+                    client.configureBlocking(true);
+                    accepted(client.socket());
+                }
             } catch (IOException ignored) {
             }
-            super.interrupt();
+            acceptor_group.close(server_listener);
+        }
+
+        // subscriptions would otherwise keep the drain waiting until it times out. ending one writes to it,
+        // which must not hold up the drain if the subscriber stopped reading, so it is cut off if it takes too long
+        for (ResponseSink stream : streams) {
+            deadline_timer.schedule(stream::abort, STREAM_END_GRACE_MS, TimeUnit.MILLISECONDS);
+            try {
+                WalkieTalkie.sharedExecutor().execute(() -> stream.end(RadioError.SHUTTING_DOWN));
+            } catch (RejectedExecutionException e) {
+                stream.abort();
+            }
+        }
+    }
+
+
+    /**
+     * waits for every accepted message to be handled, or for a deadline to pass
+     *
+     * @param until the deadline as a {@link System#nanoTime()} value
+     */
+    synchronized DrainReport awaitDrained(long until) throws InterruptedException {
+        while (in_flight.get() > 0) {
+            long left = TimeUnit.NANOSECONDS.toMillis(until - System.nanoTime());
+            if (left <= 0)
+                break;
+            wait(left);
         }
+
+        DrainReport report = new DrainReport(drain_completed.get(), drain_rejected.get(), in_flight.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - drain_started));
+
+        if (talkie.isDebugging())
+            logger.info("port " + PORT + " drained: " + report);
+
+        return report;
     }
 
 
     /**
-     * Picks out the appropriate {@link ReasonResponder}
-     * and generates a reply to the incoming {@link RadioMessage}
+     * Generates a reply to the incoming {@link RadioMessage}
      *
-     * @param message the incoming {@link RadioMessage}
+     * @param responder the {@link ReasonResponder} the message was routed to
+     * @param message   the incoming {@link RadioMessage}
      * @return the {@link ReasonResponder} produced response
      */
-    private ResponseMessage respond(ReasonMessage message) {
+    private ResponseMessage respond(ReasonResponder responder, ReasonMessage message) {
 
         if (talkie.isDebugging())
             logger.info("responding to message " + message);
 
-        ReasonResponder responder = responders.get(message.get("reason"));
         ResponseMessage response = responder.response(message);
 
         if (talkie.isDebugging())
@@ -121,94 +319,814 @@ public class PortListener extends Thread {
     }
 
 
+    /**
+     * hands an accepted subscription to its responder, then watches the connection until the stream ends
+     *
+     * @param responder the responder the subscription was routed to
+     * @param message   the subscribing message
+     * @param stream    the sink of the subscription
+     */
+    private void runStream(SubscriptionResponder responder, ReasonMessage message, ResponseSink stream) {
+        streams.add(stream);
+        try {
+            if (draining) {
+                stream.end(RadioError.SHUTTING_DOWN);
+                return;
+            }
+
+            try {
+                responder.subscribe(message, stream);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                logger.severe("ERROR VALUE: " + RadioError.ERROR_ON_RESPONSE.name() + " - " + e.getClass().getSimpleName());
+                stream.end(RadioError.ERROR_ON_RESPONSE);
+                return;
+            }
+
+            stream.readUntilClosed();
+        } finally {
+            streams.remove(stream);
+        }
+    }
+
+
+    /**
+     * Starts generating a reply to the incoming {@link RadioMessage} without waiting for it
+     *
+     * @param responder the {@link AsyncReasonResponder} the message was routed to
+     * @param message   the incoming {@link RadioMessage}
+     * @return the pending response
+     */
+    private CompletionStage<ResponseMessage> respondAsync(AsyncReasonResponder responder, ReasonMessage message) {
+
+        if (talkie.isDebugging())
+            logger.info("responding asynchronously to message " + message);
+
+        CompletionStage<ResponseMessage> response = responder.respondAsync(message);
+        if (response == null)
+            throw new IllegalStateException("responder returned no CompletionStage");
+        return response;
+    }
+
+
+    /**
+     * gives whether messages from the same JVM are answered without a connection
+     */
+    boolean isLoopbackEnabled() {
+        return talkie.isLoopbackEnabled() && !draining;
+    }
+
+
+    /**
+     * answers a message from the same JVM without a connection, with the same checks as one which was received.
+     * unless local senders are trusted, the message and response are still encrypted and signed.
+     * the sender's key must be known and the key it expects must be the responder's either way
+     *
+     * @param message  the message as it was sent
+     * @param sealed   the body sealed for a broadcast, which is delivered instead of the message, or null
+     * @param sender   the keys of the sender
+     * @param remote   the public key the sender expects the responder to have
+     * @param deadline the deadline of the message as a {@link System#nanoTime()} value
+     * @return the response as the sender receives it
+     */
+    ResponseMessage answerLocal(ReasonMessage message, RadioSocket.SealedBody sealed, HelpfulRSAKeyPair sender,
+                                PublicKey remote, long deadline) {
+
+        final long accepted = System.nanoTime();
+        final boolean late = draining;
+        in_flight.incrementAndGet();
+
+        ResponderEntry entry = null;
+        long admitted = 0;
+        RadioError error = RadioError.SHUTTING_DOWN;
+        ResponseMessage response;
+        try {
+            if (late)
+                throw new IllegalStateException("port is shutting down");
+
+            error = RadioError.NO_VALID_REASON;
+            entry = responders.get(message.getReason());
+            if (entry == null || !entry.enter()) {
+                entry = null;
+                throw new IllegalStateException("no valid reason specified");
+            }
+            ReasonResponder responder = entry.responder;
+            HelpfulRSAKeyPair selfPair = responder.getKeypair();
+
+            error = RadioError.UNKNOWN_HOST;
+            if (!responder.isKnown(sender.pub64()))
+                throw new IllegalStateException("host key is not recognized");
+
+            // a message for another key could not have been read over a connection, trusted or not
+            error = RadioError.BAD_CRYPT_KEY;
+            if (!selfPair.pub().equals(remote))
+                throw new InvalidKeyException("message is meant for a different key");
+
+            error = RadioError.RATE_LIMITED;
+            RateLimiter rate_limit = responder.getRateLimiter();
+            if (rate_limit != null && !rate_limit.tryAcquire(sender.pub64(), InetAddress.getLoopbackAddress()))
+                throw new IllegalStateException("sender went over the rate limit");
+
+            error = RadioError.OVERLOADED;
+            if (talkie.isLimitingConcurrency() && responder.getPriority() != ReasonPriority.CONTROL) {
+                if (!limiter.tryAcquire())
+                    throw new IllegalStateException("concurrency limit of " + limiter.getLimit() + " reached");
+                admitted = System.nanoTime();
+            }
+
+            error = RadioError.DEADLINE_EXCEEDED;
+            checkDeadline(deadline);
+
+            // a broadcast delivers the body as it was sealed, like it would over a connection
+            boolean crypto = talkie.isLoopbackEncrypted();
+            byte[] body;
+            error = RadioError.BAD_CRYPT_KEY;
+            if (crypto) {
+                RadioSocket.Envelope envelope = sealed != null
+                        ? RadioSocket.envelope(sealed, remote)
+                        : RadioSocket.envelope(message.encode(), remote, sender.priv());
+                body = RadioSocket.openEnvelope(envelope, sender.pub(), selfPair.priv());
+                talkie.getStats().recordVerify();
+                talkie.getStats().recordDecrypt();
+            } else {
+                body = sealed != null ? RadioSocket.unseal(sealed) : message.encode();
+            }
+
+            error = RadioError.INVALID_JSON;
+            ReasonMessage incoming = new ReasonMessage(body);
+            incoming.setDeadline(deadline);
+
+            error = RadioError.REASON_MISMATCH;
+            if (!responder.getReason().equals(incoming.getReason()))
+                throw new IllegalStateException("sealed reason and routed reason do not match");
+
+            error = RadioError.ERROR_ON_RESPONSE;
+            ResponseMessage answer;
+            if (responder instanceof AsyncReasonResponder) {
+                CompletableFuture<ResponseMessage> pending =
+                        respondAsync((AsyncReasonResponder) responder, incoming).toCompletableFuture();
+                try {
+                    answer = pending.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    error = RadioError.DEADLINE_EXCEEDED;
+                    throw e;
+                }
+            } else {
+                answer = respond(responder, incoming);
+            }
+            if (answer == null)
+                throw new IllegalStateException("responder gave no response");
+
+            error = RadioError.DEADLINE_EXCEEDED;
+            checkDeadline(deadline);
+
+            byte[] reply = answer.encode();
+            if (crypto) {
+                error = RadioError.BAD_CRYPT_KEY;
+                RadioSocket.Envelope envelope = RadioSocket.envelope(reply, sender.pub(), selfPair.priv());
+                talkie.getStats().recordEncrypt();
+                reply = RadioSocket.openEnvelope(envelope, selfPair.pub(), sender.priv());
+            }
+
+            error = RadioError.INVALID_JSON;
+            response = new ResponseMessage(reply);
+            error = null;
+
+        } catch (Exception e) {
+            if (error == RadioError.DEADLINE_EXCEEDED)
+                expired.computeIfAbsent(message.getReason(), r -> new LongAdder()).increment();
+            else if (error == RadioError.ERROR_ON_RESPONSE || error == RadioError.BAD_CRYPT_KEY)
+                e.printStackTrace();
+            if (talkie.isDebugging())
+                logger.info("local message failed with " + error.name() + ", " + e.getMessage());
+
+            if (e instanceof InterruptedException)
+                Thread.currentThread().interrupt();
+            response = new ResponseMessage().put("TRANSMIT_ERROR", error.name());
+        }
+
+        if (entry != null) {
+            entry.exit();
+            talkie.getStats().recordMessage(entry.responder.getReason(), error, System.nanoTime() - accepted);
+        } else {
+            talkie.getStats().recordError(error);
+        }
+        if (admitted != 0)
+            limiter.release(System.nanoTime() - admitted, error == RadioError.DEADLINE_EXCEEDED);
+
+        finished(late);
+        return response;
+    }
+
+
+    /**
+     * Makes sure the sender of a message is still waiting for the answer,
+     * checked before every expensive step so no work is done for senders who have given up
+     *
+     * @param deadline the deadline of the message as a {@link System#nanoTime()} value
+     * @throws IllegalStateException if the deadline has passed
+     */
+    private void checkDeadline(long deadline) {
+        if (deadline - System.nanoTime() <= 0)
+            throw new IllegalStateException("sender stopped waiting before the message was handled");
+    }
+
+
     /**
      * <p> starts listening for {@link RadioMessage}s and responds with {@link ReasonResponder}s </p>
+     * the port is bound before this returns, connections are then accepted by the shared {@link AcceptorGroup}.
+     * <p>
+     * If the {@link WalkieTalkie} asks for more than one acceptor per port, the port is bound that many times
+     * with SO_REUSEPORT and the kernel spreads new connections over the sockets, each accepted on its own thread.
+     * Where SO_REUSEPORT is not supported a single socket is bound instead.
+     * If the port cannot be bound, or the shared AcceptorGroup has been shut down, nothing is left bound
      */
-    @Override
-    public void run() {
+    public synchronized void start() {
+        int acceptors = talkie.getAcceptorsPerPort();
+        SocketOption<Boolean> reuse_port = acceptors > 1 ? reusePortOption() : null;
 
+        // the sockets are closed through the same group later on, even if the shared one has been replaced by then
+        acceptor_group = WalkieTalkie.sharedAcceptors();
         try {
-            server_listener = new ServerSocket(PORT);
-        } catch (IOException e) {
+            do {
+                ServerSocketChannel server_listener = ServerSocketChannel.open();
+                server_listeners.add(server_listener);
+                if (reuse_port != null && server_listener.supportedOptions().contains(reuse_port))
+                    server_listener.setOption(reuse_port, true);
+                else if (acceptors > 1) {
+                    logger.warning("SO_REUSEPORT is not supported, using a single acceptor on port " + PORT);
+                    acceptors = 1;
+                }
+
+                talkie.getSocketOptions().bind(server_listener, PORT);
+                acceptor_group.register(server_listener, this);
+            } while (server_listeners.size() < acceptors);
+
+            if (talkie.isDebugging())
+                logger.info("listening on port " + PORT + " with " + server_listeners.size() + " acceptors");
+
+            Loopback.register(this);
+
+        } catch (IOException | IllegalStateException e) {
             e.printStackTrace();
+            logger.severe("NOT LISTENING ON PORT " + PORT);
+
+            // a port which failed part way through lets go of the sockets it did bind
+            for (ServerSocketChannel server_listener : server_listeners)
+                acceptor_group.close(server_listener);
+            server_listeners.clear();
+        }
+    }
+
+
+    /**
+     * looks up the SO_REUSEPORT option, which only exists from java 9 on
+     *
+     * @return the option, or null if this java version does not have it
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
         }
-        while (true) {
+    }
+
+
+    /**
+     * Hands a newly accepted connection to the shared executor to be read and answered
+     *
+     * @param clientSocket the accepted connection
+     */
+    void accepted(Socket clientSocket) {
+
+        if (talkie.isDebugging())
+            logger.info("receiving message from IP " + clientSocket.getInetAddress());
 
-            final Socket clientSocket;
+        final long accepted = System.nanoTime();
+        final boolean late = draining;
 
+        in_flight.incrementAndGet();
+        try {
+            WalkieTalkie.sharedExecutor().submit(() -> handle(clientSocket, accepted, late));
+        } catch (RejectedExecutionException e) {
+            logger.severe("executor is shut down, dropping connection on port " + PORT);
             try {
-                clientSocket = server_listener.accept();
-            } catch (IOException e) {
+                clientSocket.close();
+            } catch (IOException ignored) {
+            }
+            finished(late);
+        }
+    }
 
-                logger.severe("issue receiving client on port " + PORT);
 
-                if (server_listener.isClosed()) {
-                    logger.severe("NO LONGER LISTENING ON PORT " + PORT);
+    /**
+     * marks an accepted connection as done, waking up a drain waiting on it
+     */
+    private void finished(boolean late) {
+        if (draining)
+            (late ? drain_rejected : drain_completed).incrementAndGet();
+
+        if (in_flight.decrementAndGet() == 0 && draining) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * reads a single message from a connection, and answers it with the matching {@link ReasonResponder}
+     *
+     * @param clientSocket the accepted connection
+     * @param accepted     when the connection was accepted, as a {@link System#nanoTime()} value
+     * @param late         if the connection was accepted after this port began shutting down
+     */
+    private void handle(Socket clientSocket, long accepted, boolean late) {
+
+        Exchange ex = new Exchange(clientSocket, accepted, late);
+        long deadline;
+        try {
+            ex.job = RadioSocket.wrap(clientSocket, talkie.getSocketOptions());
+
+            // only the header is read until the message is known to be wanted
+            ex.error = RadioError.BAD_NETWORK_READ;
+            ex.trace = RadioTrace.begin("server");
+            stage(ex, RadioTrace.Stage.READ);
+            ex.job.receiveHeader();
+
+            ex.error = RadioError.SHUTTING_DOWN;
+            if (late) {
+                ex.job.sendRejection(RadioError.SHUTTING_DOWN);
+                throw new IllegalStateException("port is shutting down");
+            }
+
+            ex.error = RadioError.UNSUPPORTED_CODEC;
+            if (!ex.job.getRemoteCodec().isEmpty() && PayloadCodecs.get(ex.job.getRemoteCodec()) == null) {
+                ex.job.sendRejection(RadioError.UNSUPPORTED_CODEC);
+                throw new IllegalStateException("body is compressed with unknown codec " + ex.job.getRemoteCodec());
+            }
+
+            // the deadline counts from when the connection was accepted, so time spent queued is included
+            long timeout = ex.job.getRemoteTimeout() > 0 ? ex.job.getRemoteTimeout() : talkie.getDefaultDeadline();
+            deadline = accepted + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+            ex.error = RadioError.NO_VALID_REASON;
+            ex.entry = responders.get(ex.job.getRemoteReason());
+            if (ex.entry == null || !ex.entry.enter()) {
+                ex.entry = null;
+                throw new IllegalStateException("no valid reason specified");
+            }
+            ReasonResponder responder = ex.entry.responder;
+
+            ex.error = RadioError.UNKNOWN_HOST;
+            if (!responder.isKnown(ex.job.getRemotePub64()))
+                throw new IllegalStateException("host key is not recognized");
+
+            ex.error = RadioError.RATE_LIMITED;
+            RateLimiter rate_limit = responder.getRateLimiter();
+            if (rate_limit != null && !rate_limit.tryAcquire(ex.job.getRemotePub64(), clientSocket.getInetAddress())) {
+                ex.job.sendRejection(RadioError.RATE_LIMITED);
+                throw new IllegalStateException("sender went over the rate limit");
+            }
+        } catch (Exception e) {
+            fail(ex, e);
+            complete(ex);
+            return;
+        }
+
+        // a worker of the scheduler is only taken once the body is in, so a slow sender cannot hold one up
+        // while it trickles its body in. the checking and answering then waits its turn by priority.
+        // bodies are only read while their class has room in the queue, so a flood cannot fill the memory
+        if (talkie.isPrioritizing()) {
+            PriorityScheduler scheduler = talkie.getScheduler();
+            ReasonPriority priority = ex.entry.responder.getPriority();
+            try {
+                ex.error = RadioError.OVERLOADED;
+                if (!scheduler.reserve(priority)) {
+                    ex.job.sendRejection(RadioError.OVERLOADED);
+                    throw new IllegalStateException("queue of " + priority.name() + " messages is full");
+                }
+                try {
+                    receiveBody(ex, deadline);
+                } catch (Exception e) {
+                    scheduler.unreserve(priority);
+                    throw e;
+                }
+            } catch (Exception e) {
+                fail(ex, e);
+                complete(ex);
+                return;
+            }
+
+            stage(ex, RadioTrace.Stage.QUEUE);
+            scheduler.submit(priority, () -> {
+                try {
+                    admit(ex, deadline);
+                } catch (Exception e) {
+                    fail(ex, e);
+                    complete(ex);
                     return;
                 }
-                continue;
+                process(ex, deadline);
+            }, () -> {
+                ex.error = RadioError.SHUTTING_DOWN;
+                fail(ex, new IllegalStateException("executor is shut down"));
+                complete(ex);
+            });
+            return;
+        }
+
+        try {
+            admit(ex, deadline);
+            receiveBody(ex, deadline);
+        } catch (Exception e) {
+            fail(ex, e);
+            complete(ex);
+            return;
+        }
+        process(ex, deadline);
+    }
+
+
+    /**
+     * takes a place under the concurrency limit for a message, unless it is a control message
+     *
+     * @param ex       the exchange the message arrived on
+     * @param deadline the deadline of the message as a {@link System#nanoTime()} value
+     * @throws Exception if the limit is reached or the deadline has passed, with the cause recorded in the exchange
+     */
+    private void admit(Exchange ex, long deadline) throws Exception {
+        ex.error = RadioError.OVERLOADED;
+        // the flag is in the header, so a subscription over the limit is turned away before anything else is read
+        if (ex.job.isRemoteSubscribing() && ex.entry.responder instanceof SubscriptionResponder) {
+            if (subscriptions.incrementAndGet() > talkie.getMaxSubscriptions()) {
+                subscriptions.decrementAndGet();
+                ex.job.sendRejection(RadioError.OVERLOADED);
+                throw new IllegalStateException("subscription limit of " + talkie.getMaxSubscriptions() + " reached");
+            }
+            ex.subscription = true;
+        }
+        if (talkie.isLimitingConcurrency() && ex.entry.responder.getPriority() != ReasonPriority.CONTROL) {
+            if (!limiter.tryAcquire()) {
+                ex.job.sendRejection(RadioError.OVERLOADED);
+                throw new IllegalStateException("concurrency limit of " + limiter.getLimit() + " reached");
+            }
+            ex.admitted = System.nanoTime();
+        }
+
+        ex.error = RadioError.DEADLINE_EXCEEDED;
+        checkDeadline(deadline);
+    }
+
+
+    /**
+     * reads the body of a message whose header has been accepted
+     *
+     * @param ex       the exchange the message arrived on
+     * @param deadline the deadline of the message as a {@link System#nanoTime()} value
+     * @throws Exception if the body could not be read in time, with the cause recorded in the exchange
+     */
+    private void receiveBody(Exchange ex, long deadline) throws Exception {
+        ex.error = RadioError.BAD_NETWORK_READ;
+        stage(ex, RadioTrace.Stage.READ);
+        ex.job.receiveBody();
+
+        ex.error = RadioError.DEADLINE_EXCEEDED;
+        checkDeadline(deadline);
+    }
+
+
+    /**
+     * checks and answers the body of a message which has been read and admitted
+     *
+     * @param ex       the exchange the message arrived on
+     * @param deadline the deadline of the message as a {@link System#nanoTime()} value
+     */
+    private void process(Exchange ex, long deadline) {
+
+        ReasonResponder responder = ex.entry.responder;
+        try {
+            PublicKey remotePub = HelpfulRSAKeyPair.publicFrom64(ex.job.getRemotePub64());
+
+            ex.error = RadioError.INVALID_SIGNATURE;
+            stage(ex, RadioTrace.Stage.VERIFY);
+            talkie.getStats().recordVerify();
+            if (!ex.job.verifyRemoteSignature(remotePub))
+                throw new InvalidKeyException("message signature is invalid");
+
+            ex.error = RadioError.DEADLINE_EXCEEDED;
+            checkDeadline(deadline);
+
+            ex.error = RadioError.BAD_CRYPT_KEY;
+            stage(ex, RadioTrace.Stage.DECRYPT);
+            ex.job.decodeRemote(responder.getKeypair().priv());
+            talkie.getStats().recordDecrypt();
+
+            ex.error = RadioError.INVALID_JSON;
+            ReasonMessage message = new ReasonMessage(ex.job.getRemoteBodyBytes());
+
+            ex.error = RadioError.REASON_MISMATCH;
+            if(!message.getReason().equals(ex.job.getRemoteReason()))
+                throw new IllegalStateException("plaintext reason and encrypted reason do not match");
+
+            ex.error = RadioError.DEADLINE_EXCEEDED;
+            message.setDeadline(deadline);
+            checkDeadline(deadline);
+
+            ex.error = RadioError.ERROR_ON_RESPONSE;
+            stage(ex, RadioTrace.Stage.RESPOND);
+            if (responder instanceof AsyncReasonResponder) {
+                // the connection is finished by whichever thread completes the response
+                respondLater(ex, (AsyncReasonResponder) responder, message, remotePub, deadline);
+                return;
+            }
+            ResponseMessage response = respond(responder, message);
+
+            reply(ex, response, remotePub, deadline);
+
+            // an accepted subscription keeps the connection, which is then watched below,
+            // a plain message sent to a subscription responder just gets its answer
+            if (ex.job.isRemoteSubscribing() && responder instanceof SubscriptionResponder && response.getSuccess()) {
+                ex.error = RadioError.BAD_CRYPT_KEY;
+                ex.job.openStream(false);
+                ex.stream = new ResponseSink(ex.job, responder.getReason());
+                ex.subscribing = message;
             }
 
+        } catch (Exception e) {
+            fail(ex, e);
+        }
+
+        complete(ex);
+    }
+
+
+    /**
+     * waits for an {@link AsyncReasonResponder} without holding on to a thread, and sends its response
+     * from the shared executor once it completes. if it has not completed by the deadline the message is dropped
+     *
+     * @param ex        the exchange the message arrived on
+     * @param responder the responder the message was routed to
+     * @param message   the incoming message
+     * @param remotePub the public key of the sender
+     * @param deadline  the deadline of the message as a {@link System#nanoTime()} value
+     */
+    private void respondLater(Exchange ex, AsyncReasonResponder responder, ReasonMessage message,
+                              PublicKey remotePub, long deadline) {
+
+        AtomicBoolean settled = new AtomicBoolean();
+        ScheduledFuture<?> timer = deadline_timer.schedule(() -> {
+            if (!settled.compareAndSet(false, true))
+                return;
+            ex.error = RadioError.DEADLINE_EXCEEDED;
+            fail(ex, new IllegalStateException("response was not ready before the deadline"));
+            complete(ex);
+        }, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+        CompletionStage<ResponseMessage> pending;
+        try {
+            pending = respondAsync(responder, message);
+        } catch (RuntimeException e) {
+            CompletableFuture<ResponseMessage> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            pending = failed;
+        }
+
+        pending.whenCompleteAsync((response, failure) -> {
+            if (!settled.compareAndSet(false, true))
+                return;
+            timer.cancel(false);
+
+            try {
+                if (failure != null)
+                    throw new IllegalStateException("responder failed", failure);
+                if (response == null)
+                    throw new IllegalStateException("responder completed without a response");
+                reply(ex, response, remotePub, deadline);
+            } catch (Exception e) {
+                fail(ex, e);
+            }
+            complete(ex);
+        }, WalkieTalkie.sharedExecutor());
+    }
+
+
+    /**
+     * encrypts and sends the response to a message
+     *
+     * @param ex        the exchange the message arrived on
+     * @param response  the response of the {@link ReasonResponder}
+     * @param remotePub the public key of the sender
+     * @param deadline  the deadline of the message as a {@link System#nanoTime()} value
+     * @throws Exception if the response could not be sent, with the cause recorded in the exchange
+     */
+    private void reply(Exchange ex, ResponseMessage response, PublicKey remotePub, long deadline) throws Exception {
+        HelpfulRSAKeyPair selfPair = ex.entry.responder.getKeypair();
+
+        ex.error = RadioError.DEADLINE_EXCEEDED;
+        checkDeadline(deadline);
+
+        ex.error = RadioError.INVALID_JSON;
+        ex.job.setMessage(response.encode(), "", selfPair.pub64());
+        if (talkie.getCompressionThreshold() >= 0)
+            ex.job.setCompression(PayloadCodecs.pick(ex.job.getRemoteAccepts()), talkie.getCompressionThreshold());
+
+        ex.error = RadioError.BAD_CRYPT_KEY;
+        stage(ex, RadioTrace.Stage.ENCRYPT);
+        ex.job.encodeMessage(remotePub, selfPair.priv());
+        talkie.getStats().recordEncrypt();
+
+        ex.error = RadioError.BAD_NETWORK_WRITE;
+        stage(ex, RadioTrace.Stage.WRITE);
+        ex.job.sendMessage();
+    }
+
+
+    /**
+     * records why handling a message stopped early
+     */
+    private void fail(Exchange ex, Exception e) {
+        ex.failed = true;
+        RadioError error = ex.error;
+        if (error == RadioError.OVERLOADED || error == RadioError.RATE_LIMITED
+                || error == RadioError.SHUTTING_DOWN || error == RadioError.UNSUPPORTED_CODEC) {
             if (talkie.isDebugging())
-                logger.info("receiving message from IP " + clientSocket.getInetAddress());
+                logger.info("rejected message on port " + PORT + ", " + e.getMessage());
+        } else if (error == RadioError.DEADLINE_EXCEEDED) {
+            expired.computeIfAbsent(ex.job.getRemoteReason(), r -> new LongAdder()).increment();
+            if (talkie.isDebugging())
+                logger.info("dropped expired message with reason " + ex.job.getRemoteReason());
+        } else {
+            e.printStackTrace();
+            logger.severe("ERROR VALUE: " + error.name() + " - " + e.getClass().getSimpleName());
+        }
+    }
 
-            WalkieTalkie.sharedExecutor().submit(() -> {
 
-                final RadioSocket job;
-                RadioError error = RadioError.FAILED_TO_CONNECT;
-                try {
-                    job = new RadioSocket(clientSocket);
+    /**
+     * gives back everything a message held on to, and closes its connection
+     */
+    private void complete(Exchange ex) {
+        if (ex.entry != null)
+            ex.entry.exit();
 
-                    error = RadioError.BAD_NETWORK_READ;
-                    job.receiveRemote();
+        // only registered reasons are counted by name, so senders cannot grow the statistics without bound
+        RadioError error = ex.failed ? ex.error : null;
+        if (ex.entry != null)
+            talkie.getStats().recordMessage(ex.entry.responder.getReason(), error, System.nanoTime() - ex.accepted);
+        else if (error != null)
+            talkie.getStats().recordError(error);
 
-                    error = RadioError.NO_VALID_REASON;
-                    ReasonResponder responder = responders.get(job.getRemoteReason());
-                    if (responder == null) throw new IllegalStateException("no valid reason specified");
+        if (ex.trace != null) {
+            if (ex.job != null) {
+                ex.trace.setReason(ex.job.getRemoteReason());
+                ex.trace.setPeer(ex.job.getRemotePub64());
+                ex.trace.end(ex.job.getRemoteBodyLength(), ex.failed ? 0 : ex.job.getSentBodyLength(), error);
+            } else {
+                ex.trace.end(0, 0, error);
+            }
+        }
 
+        if (ex.admitted != 0)
+            limiter.release(System.nanoTime() - ex.admitted, ex.failed && ex.error == RadioError.DEADLINE_EXCEEDED);
 
-                    error = RadioError.UNKNOWN_HOST;
-                    if (!responder.isKnown(job.getRemotePub64()))
-                        throw new IllegalStateException("host key is not recognized");
+        // the responder and concurrency limit are given back first, and a subscription may stay open for a long
+        // time, so it is watched from a thread of its own instead of holding on to a worker of the executor
+        // there are never more of these threads than the subscription limit
+        if (ex.stream != null) {
+            Thread watcher = new Thread(() -> {
+                runStream((SubscriptionResponder) ex.entry.responder, ex.subscribing, ex.stream);
+                subscriptions.decrementAndGet();
+                disconnect(ex);
+            }, "RadioScanner subscription " + ex.entry.responder.getReason());
+            watcher.setDaemon(true);
+            watcher.start();
+            return;
+        }
+        if (ex.subscription)
+            subscriptions.decrementAndGet();
 
-                    PublicKey remotePub = HelpfulRSAKeyPair.publicFrom64(job.getRemotePub64());
+        disconnect(ex);
+    }
+
+
+    /**
+     * closes the connection of an exchange, waking up a drain waiting on it
+     */
+    private void disconnect(Exchange ex) {
+        try {
+            if (ex.job != null) ex.job.close();
+            else ex.socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
-                    error = RadioError.INVALID_SIGNATURE;
-                    if (!job.verifyRemoteSignature(remotePub))
-                        throw new InvalidKeyException("message signature is invalid");
+        finished(ex.late);
+    }
 
-                    HelpfulRSAKeyPair selfPair = responder.getKeypair();
 
-                    error = RadioError.BAD_CRYPT_KEY;
-                    job.decodeRemote(selfPair.priv());
+    /**
+     * moves the trace of an exchange on to its next stage, if it is being traced
+     */
+    private static void stage(Exchange ex, RadioTrace.Stage stage) {
+        if (ex.trace != null)
+            ex.trace.stage(stage);
+    }
 
-                    error = RadioError.INVALID_JSON;
-                    ReasonMessage message = new ReasonMessage(job.getRemoteBody());
 
-                    error = RadioError.REASON_MISMATCH;
-                    if(!message.getReason().equals(job.getRemoteReason()))
-                        throw new IllegalStateException("plaintext reason and encrypted reason do not match");
+    /**
+     * everything known about a single message while it is being handled, which may span several threads
+     */
+    private static class Exchange {
 
-                    error = RadioError.ERROR_ON_RESPONSE;
-                    ResponseMessage response = respond(message);
+        private final Socket socket;
+        private final long accepted;
+        private final boolean late;
 
-                    error = RadioError.INVALID_JSON;
-                    job.setMessage(response.json(), "", selfPair.pub64());
+        private volatile RadioSocket job;
+        private volatile RadioError error = RadioError.FAILED_TO_CONNECT;
+        private volatile boolean failed;
+        private volatile long admitted;
+        private volatile ResponderEntry entry;
+        private volatile ResponseSink stream;
+        private volatile ReasonMessage subscribing;
+        private volatile boolean subscription;
+        private volatile RadioTrace trace;
 
-                    error = RadioError.BAD_CRYPT_KEY;
-                    job.encodeMessage(remotePub, selfPair.priv());
 
-                    error = RadioError.BAD_NETWORK_WRITE;
-                    job.sendMessage();
+        private Exchange(Socket socket, long accepted, boolean late) {
+            this.socket = socket;
+            this.accepted = accepted;
+            this.late = late;
+        }
+    }
 
-                    error = RadioError.FAILED_TO_CONNECT;
-                    job.close();
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    logger.severe("ERROR VALUE: " + error.name() + " - " + e.getClass().getSimpleName());
+    /**
+     * a {@link ReasonResponder} registered on this port, along with how many messages it is handling right now
+     */
+    private static class ResponderEntry {
+
+        private final ReasonResponder responder;
+        private final AtomicInteger in_flight;
+        private volatile boolean retired;
+
+
+        private ResponderEntry(ReasonResponder responder) {
+            this.responder = responder;
+            in_flight = new AtomicInteger();
+        }
+
+
+        /**
+         * claims the responder for one message, fails if it has been removed in the meantime
+         */
+        private boolean enter() {
+            in_flight.incrementAndGet();
+            if (retired) {
+                exit();
+                return false;
+            }
+            return true;
+        }
+
+
+        /**
+         * gives back the responder after a message has been handled
+         */
+        private void exit() {
+            if (in_flight.decrementAndGet() == 0 && retired) {
+                synchronized (this) {
+                    notifyAll();
                 }
-            });
+            }
+        }
+
+
+        /**
+         * stops the responder from taking on new messages
+         */
+        private void retire() {
+            retired = true;
+        }
+
+
+        /**
+         * waits for every message the responder took on before retiring to be handled
+         */
+        private boolean awaitDrained(long timeout_ms) throws InterruptedException {
+            long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout_ms);
+            synchronized (this) {
+                while (in_flight.get() > 0) {
+                    long left = TimeUnit.NANOSECONDS.toMillis(until - System.nanoTime());
+                    if (left <= 0)
+                        return false;
+                    wait(left);
+                }
+            }
+            return true;
         }
     }
 }
@@ -0,0 +1,188 @@
+package online.umbcraft.libraries.network.response;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * <p> Runs tasks on the shared executor, at most a set number at once, picking waiting tasks by priority </p>
+ * <p>
+ * Uses start-time fair queueing: every waiting task is tagged with a virtual start time, which grows by
+ * 1 / weight for each task of the same class, and the waiting task with the smallest tag runs next.
+ * Classes which have been idle start again from the current virtual time instead of their old tags,
+ * so they cannot save up a burst.
+ * Each class may only hold a limited number of messages, counting both the ones waiting here and the ones
+ * whose bodies are still being read before they are queued, so a flood of one class is turned away
+ * instead of piling up bodies in memory
+ */
+class PriorityScheduler {
+
+    private static final ReasonPriority[] classes = ReasonPriority.values();
+
+    static final int DEFAULT_QUEUE_LIMIT = 256;
+
+    private final List<ArrayDeque<Queued>> waiting;
+    private final double[] last_tag;
+    private final int[] held;
+    private double virtual_time;
+    private int running;
+    private volatile int workers;
+    private volatile int queue_limit = DEFAULT_QUEUE_LIMIT;
+
+
+    PriorityScheduler(int workers) {
+        waiting = new ArrayList<>(classes.length);
+        for (int i = 0; i < classes.length; i++)
+            waiting.add(new ArrayDeque<>());
+        last_tag = new double[classes.length];
+        held = new int[classes.length];
+        this.workers = workers;
+    }
+
+
+    void setWorkers(int workers) {
+        this.workers = workers;
+        dispatch();
+    }
+
+
+    int getWorkers() {
+        return workers;
+    }
+
+
+    void setQueueLimit(int queue_limit) {
+        this.queue_limit = queue_limit;
+    }
+
+
+    int getQueueLimit() {
+        return queue_limit;
+    }
+
+
+    /**
+     * takes a place in the queue of a class before the body of a message is read
+     *
+     * @param priority the class of the message
+     * @return false if the class already holds as many messages as it may
+     */
+    synchronized boolean reserve(ReasonPriority priority) {
+        int c = priority.ordinal();
+        if (held[c] >= queue_limit)
+            return false;
+        held[c]++;
+        return true;
+    }
+
+
+    /**
+     * gives back a place taken by {@link #reserve(ReasonPriority)} for a message which will not be submitted
+     */
+    synchronized void unreserve(ReasonPriority priority) {
+        held[priority.ordinal()]--;
+    }
+
+
+    /**
+     * gives how many tasks of a class are waiting for a worker
+     */
+    synchronized int queued(ReasonPriority priority) {
+        return waiting.get(priority.ordinal()).size();
+    }
+
+
+    /**
+     * queues a task, running it right away if a worker is free.
+     * the task must have a place from {@link #reserve(ReasonPriority)}, which it gives back once it leaves the queue
+     *
+     * @param priority the class of the task
+     * @param task     the task
+     * @param rejected run instead of the task if the executor no longer accepts tasks
+     */
+    void submit(ReasonPriority priority, Runnable task, Runnable rejected) {
+        synchronized (this) {
+            int c = priority.ordinal();
+            double tag = Math.max(virtual_time, last_tag[c]) + 1.0 / priority.getWeight();
+            last_tag[c] = tag;
+            waiting.get(c).add(new Queued(task, rejected, tag));
+        }
+        dispatch();
+    }
+
+
+    /**
+     * hands waiting tasks to the executor while workers are free
+     */
+    private void dispatch() {
+        while (true) {
+            Queued next;
+            synchronized (this) {
+                if (running >= workers)
+                    return;
+                next = poll();
+                if (next == null)
+                    return;
+                running++;
+            }
+
+            try {
+                WalkieTalkie.sharedExecutor().execute(() -> run(next.task));
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    running--;
+                }
+                next.rejected.run();
+            }
+        }
+    }
+
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                running--;
+            }
+            dispatch();
+        }
+    }
+
+
+    /**
+     * takes the waiting task with the smallest virtual start time
+     */
+    private Queued poll() {
+        int best = -1;
+        for (int c = 0; c < classes.length; c++) {
+            Queued head = waiting.get(c).peek();
+            if (head != null && (best < 0 || head.tag < waiting.get(best).peek().tag))
+                best = c;
+        }
+        if (best < 0)
+            return null;
+
+        Queued next = waiting.get(best).poll();
+        held[best]--;
+        virtual_time = next.tag;
+        return next;
+    }
+
+
+    private static class Queued {
+
+        private final Runnable task;
+        private final Runnable rejected;
+        private final double tag;
+
+
+        private Queued(Runnable task, Runnable rejected, double tag) {
+            this.task = task;
+            this.rejected = rejected;
+            this.tag = tag;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package online.umbcraft.libraries.network.response;
+
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.RadioMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * <p> Live statistics of a {@link WalkieTalkie}, shared by all of its ports </p>
+ * <p>
+ * Everything is counted with {@link LongAdder}s and a lock-free histogram, so recording costs a few
+ * uncontended atomic adds per message. Reading the statistics sums the counters without stopping the
+ * ports, so a reading taken under load is a close approximation rather than an exact instant
+ *
+ * @see HealthResponder
+ */
+public class RadioStats {
+
+    private final WalkieTalkie talkie;
+    private final long started;
+
+    private final Map<String, LongAdder> requests;
+    private final LongAdder[] errors;
+    private final LatencyHistogram latency;
+
+    private final LongAdder verified;
+    private final LongAdder decrypted;
+    private final LongAdder encrypted;
+
+
+    RadioStats(WalkieTalkie talkie) {
+        this.talkie = talkie;
+        started = System.nanoTime();
+        requests = new ConcurrentHashMap<>();
+        errors = new LongAdder[RadioError.values().length];
+        for (int i = 0; i < errors.length; i++)
+            errors[i] = new LongAdder();
+        latency = new LatencyHistogram();
+        verified = new LongAdder();
+        decrypted = new LongAdder();
+        encrypted = new LongAdder();
+    }
+
+
+    /**
+     * records a message which has been handled, whether it succeeded or not
+     *
+     * @param reason the plaintext reason of the message
+     * @param error  what went wrong, or null if it was answered
+     * @param nanos  how long it took from being accepted to being answered
+     */
+    void recordMessage(String reason, RadioError error, long nanos) {
+        requests.computeIfAbsent(reason, r -> new LongAdder()).increment();
+        if (error != null)
+            errors[error.ordinal()].increment();
+        latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+
+    void recordError(RadioError error) {
+        errors[error.ordinal()].increment();
+    }
+
+
+    void recordVerify() {
+        verified.increment();
+    }
+
+
+    void recordDecrypt() {
+        decrypted.increment();
+    }
+
+
+    void recordEncrypt() {
+        encrypted.increment();
+    }
+
+
+    /**
+     * Gives how long these statistics have been collected for
+     *
+     * @return the uptime in milliseconds
+     */
+    public long getUptime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+
+    /**
+     * Gives how many connections are currently being handled on all ports, including open subscriptions
+     *
+     * @return the number of active connections
+     */
+    public int getActiveConnections() {
+        int active = 0;
+        for (PortListener listener : talkie.getListeners())
+            active += listener.getInFlight();
+        return active;
+    }
+
+
+    /**
+     * Gives how many messages have been handled for every reason
+     *
+     * @return the number of messages per reason
+     */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        requests.forEach((reason, count) -> counts.put(reason, count.sum()));
+        return counts;
+    }
+
+
+    /**
+     * Gives how often every {@link RadioError} has ended the handling of a message
+     *
+     * @param error the error
+     * @return the number of messages which failed with it
+     */
+    public long getErrorCount(RadioError error) {
+        return errors[error.ordinal()].sum();
+    }
+
+
+    /**
+     * Gives a percentile of the time from accepting a message to answering it
+     *
+     * @param fraction the percentile as a fraction, such as 0.99
+     * @return the latency in microseconds, accurate to within an eighth
+     */
+    public long getLatencyPercentile(double fraction) {
+        return latency.percentile(fraction);
+    }
+
+
+    /**
+     * Gives how many signatures, decryptions and encryptions have been done, in that order
+     *
+     * @return the counts of each crypto operation
+     */
+    public long[] getCryptoCounts() {
+        return new long[]{verified.sum(), decrypted.sum(), encrypted.sum()};
+    }
+
+
+    /**
+     * Gives all statistics as a single message
+     *
+     * @return a {@link ResponseMessage} holding a reading of every statistic
+     */
+    public ResponseMessage snapshot() {
+        long uptime = getUptime();
+        double seconds = Math.max(uptime, 1) / 1000.0;
+
+        RadioMessage queued = new RadioMessage();
+        for (ReasonPriority priority : ReasonPriority.values())
+            queued.putInt(priority.name().toLowerCase(), talkie.getQueuedCount(priority));
+        ExecutorService executor = WalkieTalkie.sharedExecutor();
+        if (executor instanceof ThreadPoolExecutor) {
+            queued.putInt("executor", ((ThreadPoolExecutor) executor).getQueue().size());
+            queued.putInt("executor_active", ((ThreadPoolExecutor) executor).getActiveCount());
+        }
+
+        // the nested messages are plain, so a reason named like a reserved key of a response is still counted
+        RadioMessage counts = new RadioMessage();
+        requests.forEach((reason, count) -> counts.putLong(reason, count.sum()));
+
+        RadioMessage failures = new RadioMessage();
+        for (RadioError error : RadioError.values()) {
+            long count = errors[error.ordinal()].sum();
+            if (count > 0)
+                failures.putLong(error.name(), count);
+        }
+
+        RadioMessage latencies = new RadioMessage()
+                .putLong("p50", latency.percentile(0.5))
+                .putLong("p90", latency.percentile(0.9))
+                .putLong("p99", latency.percentile(0.99))
+                .putLong("p999", latency.percentile(0.999))
+                .putLong("max", latency.max());
+
+        long[] crypto = getCryptoCounts();
+        RadioMessage crypto_ops = new RadioMessage()
+                .putLong("verify", crypto[0])
+                .putLong("decrypt", crypto[1])
+                .putLong("encrypt", crypto[2])
+                .putDouble("verify_per_s", crypto[0] / seconds)
+                .putDouble("decrypt_per_s", crypto[1] / seconds)
+                .putDouble("encrypt_per_s", crypto[2] / seconds);
+
+        return new ResponseMessage()
+                .setSuccess(true)
+                .putLong("uptime_ms", uptime)
+                .putInt("active_connections", getActiveConnections())
+                .putMessage("queued", queued)
+                .putMessage("requests", counts)
+                .putMessage("errors", failures)
+                .putMessage("latency_us", latencies)
+                .putMessage("crypto", crypto_ops);
+    }
+}
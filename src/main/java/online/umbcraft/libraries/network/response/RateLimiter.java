@@ -0,0 +1,153 @@
+package online.umbcraft.libraries.network.response;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * <p> Token bucket rate limits, one bucket per sender </p>
+ * <p>
+ * Every sender (identified by its public key) gets a bucket holding up to 'burst' tokens,
+ * refilled at a steady rate; each message takes one token and is turned away if the bucket is empty.
+ * <p>
+ * Messages are limited before their signature is checked, when the key is only claimed by the sender.
+ * {@link #tryAcquire(String, InetAddress)} pairs the key with the address the connection came from,
+ * so a sender claiming someone else's key only empties a bucket of its own
+ * <p>
+ * Buckets are spread over independently locked stripes so that senders on different stripes never
+ * contend with each other. Each stripe throws away buckets that have sat idle long enough to have refilled,
+ * so the memory held is bounded by the number of recently active senders
+ */
+public class RateLimiter {
+
+    private final double per_nano;
+    private final double burst;
+    private final long idle_nanos;
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+
+    /**
+     * Creates a RateLimiter
+     *
+     * @param per_second how many messages a single sender may send per second on average
+     * @param burst      how many messages a single sender may send at once after being quiet
+     */
+    public RateLimiter(double per_second, int burst) {
+        if (per_second <= 0 || burst < 1) throw new IllegalArgumentException("invalid rate limit");
+
+        this.per_nano = per_second / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+
+        // a bucket idle for this long has refilled completely, so forgetting it changes nothing
+        this.idle_nanos = Math.max(TimeUnit.SECONDS.toNanos(1), (long) (burst / per_nano));
+
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4) - 1) << 1;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++)
+            stripes[i] = new Stripe();
+        mask = count - 1;
+    }
+
+
+    /**
+     * Takes a token from a sender's bucket
+     *
+     * @param sender the sender's public key (or any other stable identifier)
+     * @return if the sender is within its limit, otherwise the message should be rejected
+     */
+    public boolean tryAcquire(String sender) {
+        int hash = sender.hashCode();
+        Stripe stripe = stripes[(hash ^ (hash >>> 16)) & mask];
+        long now = System.nanoTime();
+
+        synchronized (stripe) {
+            if (now - stripe.last_sweep > idle_nanos)
+                stripe.sweep(now);
+
+            Bucket bucket = stripe.buckets.get(sender);
+            if (bucket == null) {
+                bucket = new Bucket(burst, now);
+                stripe.buckets.put(sender, bucket);
+            }
+
+            bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.updated) * per_nano);
+            bucket.updated = now;
+
+            if (bucket.tokens < 1)
+                return false;
+
+            bucket.tokens -= 1;
+            return true;
+        }
+    }
+
+
+    /**
+     * Takes a token from the bucket of a sender connected from a certain address
+     *
+     * @param sender the public key the sender claims to have
+     * @param from   the address the sender's connection came from
+     * @return if the sender is within its limit, otherwise the message should be rejected
+     */
+    public boolean tryAcquire(String sender, InetAddress from) {
+        return tryAcquire(sender + "@" + from.getHostAddress());
+    }
+
+
+    /**
+     * Gives how many senders currently have a bucket
+     *
+     * @return the number of tracked senders
+     */
+    public int trackedSenders() {
+        int total = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                total += stripe.buckets.size();
+            }
+        }
+        return total;
+    }
+
+
+    /**
+     * one independently locked part of the bucket table
+     */
+    private class Stripe {
+
+        private final Map<String, Bucket> buckets = new HashMap<>();
+        private long last_sweep = System.nanoTime();
+
+
+        /**
+         * forgets every bucket which has not been touched in a while
+         */
+        private void sweep(long now) {
+            Iterator<Bucket> it = buckets.values().iterator();
+            while (it.hasNext())
+                if (now - it.next().updated > idle_nanos)
+                    it.remove();
+            last_sweep = now;
+        }
+    }
+
+
+    /**
+     * the tokens left for a single sender
+     */
+    private static class Bucket {
+
+        private double tokens;
+        private long updated;
+
+        private Bucket(double tokens, long updated) {
+            this.tokens = tokens;
+            this.updated = updated;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package online.umbcraft.libraries.network.response;
+
+/**
+ * <p> The scheduling class of a {@link ReasonResponder} </p>
+ * <p>
+ * While a {@link WalkieTalkie} has priority scheduling enabled, messages waiting for a worker are picked
+ * by weighted fair queueing over these classes: when every class has messages waiting, each gets workers
+ * in proportion to its weight, so a backlog of bulk messages only delays a control message by about one
+ * bulk message, and can never starve it
+ *
+ * @see WalkieTalkie#enablePriorityScheduling(int)
+ */
+public enum ReasonPriority {
+
+    /**
+     * administrative reasons such as stopping a server or health checks, also exempt from the concurrency limit
+     */
+    CONTROL(16),
+
+    /**
+     * ordinary requests, the default
+     */
+    NORMAL(4),
+
+    /**
+     * throughput oriented traffic which can stand to wait
+     */
+    BULK(1);
+
+
+    private final int weight;
+
+
+    ReasonPriority(int weight) {
+        this.weight = weight;
+    }
+
+
+    /**
+     * Gives the share of workers this class gets while every class has messages waiting
+     *
+     * @return the relative weight of the class
+     */
+    public int getWeight() {
+        return weight;
+    }
+}
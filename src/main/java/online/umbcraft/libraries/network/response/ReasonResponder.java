@@ -1,13 +1,14 @@
 package online.umbcraft.libraries.network.response;
 
 import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.encrypt.RadioKeyStore;
 import online.umbcraft.libraries.network.message.RadioMessage;
 import online.umbcraft.libraries.network.message.ReasonMessage;
 import online.umbcraft.libraries.network.message.ResponseMessage;
 
 import java.security.PrivateKey;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p> Responsible for responding to a single type/reason of {@link RadioMessage} </p>
@@ -22,6 +23,8 @@ public abstract class ReasonResponder {
     private final String reason;
     private final HelpfulRSAKeyPair keypair;
     private final Set<String> known;
+    private volatile RateLimiter rate_limit;
+    private volatile ReasonPriority priority = ReasonPriority.NORMAL;
 
     /**
      * Creates a blank ReasonResponder and sets the reason
@@ -32,7 +35,19 @@ public abstract class ReasonResponder {
     public ReasonResponder(String reason, HelpfulRSAKeyPair pair) {
         this.reason = reason;
         this.keypair = pair;
-        known = new HashSet<>();
+        known = ConcurrentHashMap.newKeySet();
+    }
+
+
+    /**
+     * Creates a blank ReasonResponder using keys from the shared {@link RadioKeyStore}
+     *
+     * @param reason    <p> String which if any {@link RadioMessage} </p> share, this will reply to them
+     * @param key_alias the name the RSA keyset used to encode / decode messages is stored under
+     * @throws IllegalArgumentException if no keys are stored under the alias
+     */
+    public ReasonResponder(String reason, String key_alias) {
+        this(reason, RadioKeyStore.shared().require(key_alias));
     }
 
 
@@ -46,6 +61,16 @@ public abstract class ReasonResponder {
     }
 
 
+    /**
+     * removes an RSA public key from the list of recognized keys, takes effect for the next message received
+     *
+     * @param remote_public the public RSA key to be removed from the list of known keys
+     */
+    public final void removeKnown(String remote_public) {
+        known.remove(remote_public);
+    }
+
+
     /**
      * Returns whether or not this remote RSA public key is recognized
      *
@@ -57,6 +82,60 @@ public abstract class ReasonResponder {
     }
 
 
+    /**
+     * <p> Limits how many messages each known sender may send to this responder </p>
+     * messages over the limit are turned away with {@link online.umbcraft.libraries.network.errors.RadioError#RATE_LIMITED}
+     * before any of their crypto is done
+     *
+     * @param per_second how many messages a single sender may send per second on average
+     * @param burst      how many messages a single sender may send at once after being quiet
+     */
+    public final void setRateLimit(double per_second, int burst) {
+        rate_limit = new RateLimiter(per_second, burst);
+    }
+
+
+    /**
+     * Removes the per-sender rate limit from this responder
+     */
+    public final void clearRateLimit() {
+        rate_limit = null;
+    }
+
+
+    /**
+     * Returns the per-sender rate limit of this responder
+     *
+     * @return the {@link RateLimiter} in use, or null if senders are not limited
+     */
+    public final RateLimiter getRateLimiter() {
+        return rate_limit;
+    }
+
+
+    /**
+     * <p> Sets the scheduling class of the messages this responds to </p>
+     * only has an effect while the {@link WalkieTalkie} has priority scheduling enabled,
+     * except that {@link ReasonPriority#CONTROL} messages are never turned away by the concurrency limit
+     *
+     * @param priority the priority class, {@link ReasonPriority#NORMAL} by default
+     */
+    public final void setPriority(ReasonPriority priority) {
+        if (priority == null) throw new IllegalArgumentException("priority must not be null");
+        this.priority = priority;
+    }
+
+
+    /**
+     * Returns the scheduling class of the messages this responds to
+     *
+     * @return the priority class
+     */
+    public final ReasonPriority getPriority() {
+        return priority;
+    }
+
+
     /**
      * Returns the {@link RadioMessage} reason this object responds to
      *
@@ -0,0 +1,356 @@
+package online.umbcraft.libraries.network.response;
+
+import online.umbcraft.libraries.network.RadioSocket;
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+
+/**
+ * <p> The sending end of a subscription, handed to a {@link SubscriptionResponder} </p>
+ * <p>
+ * Every {@link ResponseMessage} put into the sink is sent to the subscriber encrypted with
+ * the session keys of the stream instead of a new RSA exchange. The sink stays open until the responder
+ * closes it, the subscriber cancels, the connection is lost, or the port shuts down
+ * <p>
+ * Sending is flow controlled with credits: the subscriber grants one credit for every message it is ready for,
+ * and every message sent uses one up. {@link #offer(ResponseMessage)} never blocks, it gives false when the
+ * subscriber has no credit left, and {@link #onReady(Runnable)} tells the producer when it may continue.
+ * Messages are written to the connection by a task of the shared executor, so the memory a slow subscriber
+ * can hold up on the server is bounded by the credit it granted, at most {@link #MAX_CREDITS} messages
+ * <p>
+ * Sinks may be used from any thread
+ */
+public class ResponseSink {
+
+    /**
+     * the most credit a subscriber can hold at once, however much it grants
+     */
+    public static final int MAX_CREDITS = 1024;
+
+    private static final Logger logger = WalkieTalkie.getLogger();
+
+    private final RadioSocket job;
+    private final int lease;
+    private final String reason;
+    private final Thread reader;
+
+    private final ArrayDeque<byte[]> pending;
+    private final List<Runnable> ready_listeners;
+    private final List<Runnable> close_listeners;
+    private int credits;
+    private boolean writing;
+    private boolean open;
+    private boolean ended;
+
+
+    ResponseSink(RadioSocket job, String reason) {
+        this.job = job;
+        this.lease = job.lease();
+        this.reason = reason;
+        reader = Thread.currentThread();
+        pending = new ArrayDeque<>();
+        ready_listeners = new ArrayList<>();
+        close_listeners = new ArrayList<>();
+        open = true;
+    }
+
+
+    /**
+     * <p> Queues a message to be sent to the subscriber, if the subscriber has credit for it </p>
+     * never blocks, the message is encoded right away and written in the background
+     *
+     * @param message the message to send
+     * @return whether the message was taken, false if the subscriber has no credit left or the sink is closed
+     */
+    public boolean offer(ResponseMessage message) {
+        return offerFrame(message.encode());
+    }
+
+
+    /**
+     * <p> Sends a message to the subscriber, waiting for credit if there is none </p>
+     * must not be called from within {@link SubscriptionResponder#subscribe}, since credit is
+     * received by that same thread
+     *
+     * @param message the message to send
+     * @return whether the message was taken, false once the sink is closed
+     * @throws IllegalStateException if called from the thread reading the stream while there is no credit
+     */
+    public boolean push(ResponseMessage message) {
+        byte[] frame = message.encode();
+        try {
+            while (!offerFrame(frame)) {
+                synchronized (this) {
+                    if (!open)
+                        return false;
+                    if (credits <= 0) {
+                        if (Thread.currentThread() == reader)
+                            throw new IllegalStateException("waiting for credit on the thread that receives it, use offer");
+                        wait();
+                    }
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+
+    private boolean offerFrame(byte[] frame) {
+        synchronized (this) {
+            if (!open || credits <= 0)
+                return false;
+            credits--;
+            pending.add(frame);
+            if (writing)
+                return true;
+            writing = true;
+        }
+
+        try {
+            WalkieTalkie.sharedExecutor().execute(this::write);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                writing = false;
+                notifyAll();
+            }
+            end(RadioError.SHUTTING_DOWN);
+        }
+        return true;
+    }
+
+
+    /**
+     * writes the queued messages to the connection until none are left
+     */
+    private void write() {
+        while (true) {
+            byte[] frame;
+            synchronized (this) {
+                frame = pending.poll();
+                if (frame == null) {
+                    writing = false;
+                    notifyAll();
+
+                    // a sink closed while writing is finished once everything queued has gone out
+                    if (open || ended)
+                        return;
+                }
+            }
+            if (frame == null) {
+                finish(null);
+                return;
+            }
+
+            try {
+                job.sendFrame(RadioSocket.STREAM_DATA, frame);
+            } catch (IOException e) {
+                logger.info("lost subscriber to " + reason + ", " + e.getMessage());
+                synchronized (this) {
+                    writing = false;
+                    notifyAll();
+                }
+                end(RadioError.BAD_NETWORK_WRITE);
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Gives how many more messages the subscriber is ready for
+     *
+     * @return the credit left
+     */
+    public synchronized int credits() {
+        return credits;
+    }
+
+
+    /**
+     * Gives whether messages put into this sink still reach the subscriber
+     *
+     * @return if the sink is open
+     */
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+
+    /**
+     * Adds a listener to be run once, as soon as the subscriber has credit.
+     * runs right away if there is credit already, and never if the sink closes first
+     *
+     * @param listener the code to run when messages can be offered again
+     */
+    public void onReady(Runnable listener) {
+        synchronized (this) {
+            if (!open)
+                return;
+            if (credits <= 0) {
+                ready_listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+
+    /**
+     * Ends the stream once the messages already taken have been sent, telling the subscriber no more will come
+     */
+    public void close() {
+        synchronized (this) {
+            if (!open)
+                return;
+            open = false;
+            notifyAll();
+            if (writing)
+                return;
+        }
+        finish(null);
+    }
+
+
+    /**
+     * Adds a listener to be run once the sink closes, for whatever reason,
+     * so the responder can stop producing for it. runs right away if the sink is already closed
+     *
+     * @param listener the code to run on close
+     */
+    public void onClose(Runnable listener) {
+        synchronized (this) {
+            if (!ended) {
+                close_listeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+
+    /**
+     * ends the stream right away with an error, dropping anything still queued
+     */
+    void end(RadioError error) {
+        synchronized (this) {
+            open = false;
+            pending.clear();
+            notifyAll();
+        }
+        finish(error);
+    }
+
+
+    /**
+     * cuts the connection of the stream without writing anything, which wakes up the thread reading from it
+     */
+    void abort() {
+        job.abort(lease);
+    }
+
+
+    /**
+     * tells the subscriber the stream is over if the connection still works
+     */
+    private void finish(RadioError error) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (ended)
+                return;
+            ended = true;
+            credits = 0;
+            ready_listeners.clear();
+            listeners = new ArrayList<>(close_listeners);
+            close_listeners.clear();
+        }
+
+        try {
+            byte[] body = error == null ? new byte[0] : error.name().getBytes(StandardCharsets.UTF_8);
+            job.sendFrame(RadioSocket.STREAM_END, body);
+
+            // the subscriber closes the connection once it has read everything, which wakes up the reading thread
+            job.shutdownOutput();
+        } catch (IOException e) {
+            // wakes up the thread reading from the stream, which releases the socket
+            job.abort(lease);
+        }
+
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * adds credit granted by the subscriber, and lets waiting producers continue
+     */
+    private void grant(int granted) {
+        List<Runnable> ready;
+        synchronized (this) {
+            if (!open || granted <= 0)
+                return;
+            credits = (int) Math.min(MAX_CREDITS, (long) credits + granted);
+            notifyAll();
+
+            ready = new ArrayList<>(ready_listeners);
+            ready_listeners.clear();
+        }
+
+        for (Runnable listener : ready) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * reads what the subscriber sends until the stream ends, run by the thread which owns the connection.
+     * returns only once nothing is being written anymore, so the connection can be released
+     */
+    void readUntilClosed() {
+        try {
+            while (true) {
+                byte type = job.receiveFrame();
+                if (type == RadioSocket.STREAM_CANCEL) {
+                    end(null);
+                    break;
+                }
+                if (type == RadioSocket.STREAM_CREDIT)
+                    grant(RadioSocket.readCredit(job.getFrameBody()));
+            }
+        } catch (IOException e) {
+            end(RadioError.BAD_NETWORK_READ);
+        }
+
+        boolean interrupted = false;
+        synchronized (this) {
+            while (writing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
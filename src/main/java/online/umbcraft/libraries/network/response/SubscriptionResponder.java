@@ -0,0 +1,63 @@
+package online.umbcraft.libraries.network.response;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+
+/**
+ * <p> Responds to a reason with a stream of {@link ResponseMessage}s instead of a single reply </p>
+ * <p>
+ * A subscriber sends a single {@link ReasonMessage} with {@link ReasonMessage#subscribe(String, int,
+ * online.umbcraft.libraries.network.message.SubscriptionListener)}, paying for RSA once. The connection then
+ * stays open and every message pushed into the {@link ResponseSink} is sent over it with session keys,
+ * until either side closes it. Messages sent to this reason with a plain send get only the first reply
+ *
+ * @see ResponseSink
+ */
+public abstract class SubscriptionResponder extends ReasonResponder {
+
+    /**
+     * Creates a blank SubscriptionResponder and sets the reason
+     *
+     * @param reason the reason of the messages this accepts subscriptions for
+     * @param pair   the RSA keyset used to encode / decode messages
+     */
+    public SubscriptionResponder(String reason, HelpfulRSAKeyPair pair) {
+        super(reason, pair);
+    }
+
+
+    /**
+     * Creates a blank SubscriptionResponder using keys from the shared {@link online.umbcraft.libraries.encrypt.RadioKeyStore}
+     *
+     * @param reason    the reason of the messages this accepts subscriptions for
+     * @param key_alias the name the RSA keyset used to encode / decode messages is stored under
+     */
+    public SubscriptionResponder(String reason, String key_alias) {
+        super(reason, key_alias);
+    }
+
+
+    /**
+     * <p> generates the first reply to a subscription, sent the normal way before the stream starts </p>
+     * by default the subscription is simply accepted
+     *
+     * @param message the subscribing message
+     * @return the first reply
+     */
+    @Override
+    public ResponseMessage response(ReasonMessage message) {
+        return new ResponseMessage().setSuccess(true);
+    }
+
+
+    /**
+     * <p> starts a subscription, called once the first reply has been sent </p>
+     * this should hand the sink over to whatever produces the messages and return quickly,
+     * since the calling thread goes on to watch the connection for the subscriber cancelling
+     *
+     * @param message the subscribing message
+     * @param sink    where to push the messages of the subscription
+     */
+    public abstract void subscribe(ReasonMessage message, ResponseSink sink);
+}
@@ -1,11 +1,17 @@
 package online.umbcraft.libraries.network.response;
 
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.RadioSocket;
+import online.umbcraft.libraries.network.RadioSocketOptions;
 import online.umbcraft.libraries.network.message.RadioMessage;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 
@@ -23,8 +29,22 @@ public class WalkieTalkie {
 
     private static Logger logger = Logger.getLogger(WalkieTalkie.class.getSimpleName());
     private static ExecutorService executor = Executors.newCachedThreadPool();
-    private Map<Integer, PortListener> scanners;
-    private boolean debug;
+    private static AcceptorGroup acceptors;
+    private final Map<Integer, PortListener> scanners;
+    private volatile boolean debug;
+    private volatile long default_deadline_ms = RadioSocket.DEFAULT_TIMEOUT;
+    private volatile boolean limit_concurrency;
+    private volatile int min_concurrency = 4;
+    private volatile int max_concurrency = 1000;
+    private volatile int acceptors_per_port = 1;
+    private volatile RadioSocketOptions socket_options = new RadioSocketOptions();
+    private volatile int compression_threshold = -1;
+    private volatile int max_subscriptions = 256;
+    private final PriorityScheduler scheduler;
+    private volatile boolean prioritize;
+    private final RadioStats stats;
+    private volatile boolean loopback;
+    private volatile boolean loopback_crypto = true;
 
 
     /**
@@ -34,7 +54,9 @@ public class WalkieTalkie {
      */
     public WalkieTalkie() {
 
-        scanners = new HashMap<>();
+        scanners = new ConcurrentHashMap<>();
+        scheduler = new PriorityScheduler(Runtime.getRuntime().availableProcessors());
+        stats = new RadioStats(this);
     }
 
 
@@ -60,6 +82,56 @@ public class WalkieTalkie {
     }
 
 
+    /**
+     * Sets the shared {@link AcceptorGroup} which accepts connections for every port,
+     * only ports added after this is called will use it
+     *
+     * @param acceptors the AcceptorGroup to be used by all WalkieTalkies
+     */
+    public static synchronized void setAcceptors(AcceptorGroup acceptors) {
+        WalkieTalkie.acceptors = acceptors;
+    }
+
+
+    /**
+     * Gives the shared {@link AcceptorGroup} which accepts connections for every port,
+     * creating one with a thread per core the first time it is needed
+     *
+     * @return the AcceptorGroup shared by all WalkieTalkies
+     */
+    public static synchronized AcceptorGroup sharedAcceptors() {
+        if (acceptors == null)
+            acceptors = new AcceptorGroup();
+        return acceptors;
+    }
+
+
+    /**
+     * <p> Shuts down the shared {@link ExecutorService} and {@link AcceptorGroup} </p>
+     * stops every accept thread, then waits for tasks already on the executor to finish.
+     * Anything started afterwards gets a fresh executor and AcceptorGroup,
+     * so this is meant to be called once every WalkieTalkie has stopped listening
+     *
+     * @param timeout_ms the longest to wait for running tasks in milliseconds
+     * @return if every task finished in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static boolean shutdownShared(long timeout_ms) throws InterruptedException {
+        ExecutorService old_executor;
+        synchronized (WalkieTalkie.class) {
+            if (acceptors != null)
+                acceptors.shutdown();
+            acceptors = null;
+
+            old_executor = executor;
+            executor = Executors.newCachedThreadPool();
+        }
+
+        old_executor.shutdown();
+        return old_executor.awaitTermination(timeout_ms, TimeUnit.MILLISECONDS);
+    }
+
+
     /**
      * gets the currently used logger
      *
@@ -103,11 +175,361 @@ public class WalkieTalkie {
      *
      * @return if this class is in debug mode
      */
-    public synchronized boolean isDebugging() {
+    public boolean isDebugging() {
         return debug;
     }
 
 
+    /**
+     * <p> Sets the deadline given to received messages whose sender did not specify one </p>
+     * messages still waiting to be handled once their deadline passes are dropped without being decrypted
+     *
+     * @param deadline_ms the deadline in milliseconds, counted from when the connection was accepted
+     */
+    public void setDefaultDeadline(long deadline_ms) {
+        if (deadline_ms <= 0) throw new IllegalArgumentException("deadline must be positive");
+        default_deadline_ms = deadline_ms;
+    }
+
+
+    /**
+     * Gets the deadline given to received messages whose sender did not specify one
+     *
+     * @return the deadline in milliseconds
+     */
+    public long getDefaultDeadline() {
+        return default_deadline_ms;
+    }
+
+
+    /**
+     * <p> Enables the adaptive concurrency limit on every port </p>
+     * each port then only handles as many messages at once as it can without latency climbing,
+     * and rejects the rest right away with {@link online.umbcraft.libraries.network.errors.RadioError#OVERLOADED}
+     *
+     * @see ConcurrencyLimiter
+     */
+    public void enableConcurrencyLimit() {
+        if (debug) logger.info("concurrency limit enabled for WalkieTalkie");
+        limit_concurrency = true;
+    }
+
+
+    /**
+     * Disables the adaptive concurrency limit, so every port handles every message it receives
+     */
+    public void disableConcurrencyLimit() {
+        if (debug) logger.info("concurrency limit disabled for WalkieTalkie");
+        limit_concurrency = false;
+    }
+
+
+    /**
+     * Gives whether the adaptive concurrency limit is currently enabled
+     *
+     * @return if ports reject messages over their concurrency limit
+     */
+    public boolean isLimitingConcurrency() {
+        return limit_concurrency;
+    }
+
+
+    /**
+     * Sets the bounds the adaptive concurrency limit of every port moves between
+     *
+     * @param min the fewest messages a port will always accept at once
+     * @param max the most messages a port will ever accept at once
+     */
+    public void setConcurrencyBounds(int min, int max) {
+        for (PortListener listener : scanners.values())
+            listener.getLimiter().setBounds(min, max);
+        min_concurrency = min;
+        max_concurrency = max;
+    }
+
+
+    /**
+     * Gets the lower bound of the adaptive concurrency limit
+     *
+     * @return the fewest messages a port will always accept at once
+     */
+    public int getMinConcurrency() {
+        return min_concurrency;
+    }
+
+
+    /**
+     * Gets the upper bound of the adaptive concurrency limit
+     *
+     * @return the most messages a port will ever accept at once
+     */
+    public int getMaxConcurrency() {
+        return max_concurrency;
+    }
+
+
+    /**
+     * <p> Sets how many subscriptions each port keeps open at once </p>
+     * every open subscription holds a connection and a thread watching it, so subscribing past the limit
+     * is rejected with {@link online.umbcraft.libraries.network.errors.RadioError#OVERLOADED}
+     *
+     * @param max the most subscriptions a port will keep open at once
+     */
+    public void setMaxSubscriptions(int max) {
+        if (max < 0) throw new IllegalArgumentException("subscription limit cannot be negative");
+        max_subscriptions = max;
+    }
+
+
+    /**
+     * Gets how many subscriptions each port keeps open at once
+     *
+     * @return the most subscriptions a port will keep open at once
+     */
+    public int getMaxSubscriptions() {
+        return max_subscriptions;
+    }
+
+
+    /**
+     * <p> Enables scheduling received messages by the {@link ReasonPriority} of their responder </p>
+     * once a message's header has been read, the rest of its handling waits for one of 'workers' slots shared
+     * by every port of this WalkieTalkie. Waiting messages are picked by weighted fair queueing over the
+     * priority classes, so control messages are not stuck behind a backlog of bulk messages
+     *
+     * @param workers how many messages are decrypted and answered at once
+     * @see ReasonResponder#setPriority(ReasonPriority)
+     */
+    public void enablePriorityScheduling(int workers) {
+        enablePriorityScheduling(workers, PriorityScheduler.DEFAULT_QUEUE_LIMIT);
+    }
+
+
+    /**
+     * <p> Enables scheduling received messages by priority, with a limit on how many may wait </p>
+     * each priority class holds at most 'queue_limit' messages waiting for a worker or having their body read,
+     * further messages of that class are rejected with
+     * {@link online.umbcraft.libraries.network.errors.RadioError#OVERLOADED} before their body is read
+     *
+     * @param workers     how many messages are decrypted and answered at once
+     * @param queue_limit how many messages of each priority class may wait at once
+     * @see #enablePriorityScheduling(int)
+     */
+    public void enablePriorityScheduling(int workers, int queue_limit) {
+        if (workers < 1) throw new IllegalArgumentException("at least one worker is needed");
+        if (queue_limit < 1) throw new IllegalArgumentException("at least one message must be able to wait");
+        if (debug) logger.info("priority scheduling enabled for WalkieTalkie with " + workers + " workers");
+        scheduler.setQueueLimit(queue_limit);
+        scheduler.setWorkers(workers);
+        prioritize = true;
+    }
+
+
+    /**
+     * Disables priority scheduling, so every message is handled as soon as it is accepted
+     */
+    public void disablePriorityScheduling() {
+        if (debug) logger.info("priority scheduling disabled for WalkieTalkie");
+        prioritize = false;
+    }
+
+
+    /**
+     * Gives whether messages are currently scheduled by priority
+     *
+     * @return if priority scheduling is enabled
+     */
+    public boolean isPrioritizing() {
+        return prioritize;
+    }
+
+
+    /**
+     * Gives how many messages of a priority class are waiting for a worker
+     *
+     * @param priority the priority class
+     * @return the number of waiting messages
+     */
+    public int getQueuedCount(ReasonPriority priority) {
+        return scheduler.queued(priority);
+    }
+
+
+    PriorityScheduler getScheduler() {
+        return scheduler;
+    }
+
+
+    /**
+     * <p> Enables answering messages sent from the same JVM without going through TCP </p>
+     * messages sent to a loopback address on one of this object's ports are handed straight to the responder.
+     * If 'skip_crypto' is set the message and response are passed on as they are, without RSA or AES,
+     * which is only safe because nothing outside the JVM can see them; the sender's key is still checked
+     *
+     * @param skip_crypto whether to trust local senders enough to skip encryption and signatures
+     * @see Loopback
+     */
+    public void enableLoopback(boolean skip_crypto) {
+        if (debug) logger.info("loopback enabled for WalkieTalkie" + (skip_crypto ? " without crypto" : ""));
+        loopback_crypto = !skip_crypto;
+        loopback = true;
+    }
+
+
+    /**
+     * Disables in-process delivery, so local messages go over TCP like any other
+     */
+    public void disableLoopback() {
+        if (debug) logger.info("loopback disabled for WalkieTalkie");
+        loopback = false;
+    }
+
+
+    /**
+     * Gives whether messages sent from the same JVM are answered without going through TCP
+     *
+     * @return if loopback is enabled
+     */
+    public boolean isLoopbackEnabled() {
+        return loopback;
+    }
+
+
+    /**
+     * Gives whether messages answered in-process are still encrypted and signed
+     *
+     * @return if loopback messages go through crypto
+     */
+    public boolean isLoopbackEncrypted() {
+        return loopback_crypto;
+    }
+
+
+    /**
+     * <p> Sets how many sockets each port is bound with </p>
+     * above 1, ports are bound with SO_REUSEPORT so the kernel spreads new connections over several
+     * accept threads of the shared {@link AcceptorGroup}, which helps during connection storms.
+     * Sockets beyond the AcceptorGroup's thread count share threads, and where SO_REUSEPORT
+     * is not supported a single socket is used. Only ports added after this is called are affected
+     *
+     * @param acceptors the number of listening sockets per port
+     */
+    public void setAcceptorsPerPort(int acceptors) {
+        if (acceptors < 1) throw new IllegalArgumentException("a port needs at least one acceptor");
+        acceptors_per_port = acceptors;
+    }
+
+
+    /**
+     * Gets how many sockets each newly added port is bound with
+     *
+     * @return the number of listening sockets per port
+     */
+    public int getAcceptorsPerPort() {
+        return acceptors_per_port;
+    }
+
+
+    /**
+     * Sets the TCP settings used for listening ports and the connections they accept,
+     * the backlog and receive buffer only apply to ports added after this is called
+     *
+     * @param options the {@link RadioSocketOptions} to use
+     */
+    public void setSocketOptions(RadioSocketOptions options) {
+        if (debug) logger.info("socket options for WalkieTalkie set to " + options);
+        socket_options = options;
+    }
+
+
+    /**
+     * Gets the TCP settings used for listening ports and the connections they accept
+     *
+     * @return the {@link RadioSocketOptions} in use
+     */
+    public RadioSocketOptions getSocketOptions() {
+        return socket_options;
+    }
+
+
+    /**
+     * <p> Enables compressing replies before they are encrypted </p>
+     * each reply is compressed with the first {@link online.umbcraft.libraries.network.compress.PayloadCodec}
+     * its receiver listed that is also registered here, and only if it is at least 'threshold' bytes long
+     *
+     * @param threshold the smallest reply in bytes worth compressing
+     * @see online.umbcraft.libraries.network.compress.PayloadCodecs
+     */
+    public void enableCompression(int threshold) {
+        if (threshold < 0) throw new IllegalArgumentException("threshold must not be negative");
+        if (debug) logger.info("compression enabled for WalkieTalkie above " + threshold + " bytes");
+        compression_threshold = threshold;
+    }
+
+
+    /**
+     * Disables compressing replies, compressed messages are still received
+     */
+    public void disableCompression() {
+        if (debug) logger.info("compression disabled for WalkieTalkie");
+        compression_threshold = -1;
+    }
+
+
+    /**
+     * Gets the smallest reply that is compressed
+     *
+     * @return the threshold in bytes, or -1 if compression is disabled
+     */
+    public int getCompressionThreshold() {
+        return compression_threshold;
+    }
+
+
+    /**
+     * Gives how many received messages were dropped for running past their deadline, over all ports
+     *
+     * @return the number of dropped messages per message reason
+     */
+    public Map<String, Long> getExpiredCounts() {
+        Map<String, Long> counts = new HashMap<>();
+        for (PortListener listener : scanners.values())
+            listener.getExpiredCounts().forEach((reason, count) -> counts.merge(reason, count, Long::sum));
+        return counts;
+    }
+
+
+    /**
+     * Gives the live statistics of every port of this object
+     *
+     * @return the {@link RadioStats} of this WalkieTalkie
+     */
+    public RadioStats getStats() {
+        return stats;
+    }
+
+
+    /**
+     * <p> Answers messages with the reason {@link HealthResponder#REASON} on a port with the live {@link RadioStats} </p>
+     * only senders with one of the given keys are answered
+     *
+     * @param port       network port to listen on
+     * @param pair       the RSA keyset used to encode / decode health checks
+     * @param known_keys the base64 public keys of the senders allowed to ask
+     */
+    public void enableHealthReason(int port, HelpfulRSAKeyPair pair, String... known_keys) {
+        HealthResponder responder = new HealthResponder(stats, pair);
+        for (String key : known_keys)
+            responder.addKnown(key);
+        addResponse(port, responder);
+    }
+
+
+    Collection<PortListener> getListeners() {
+        return scanners.values();
+    }
+
+
     /**
      * Closes all listening {@link ReasonResponder}s within this object
      */
@@ -120,6 +542,35 @@ public class WalkieTalkie {
     }
 
 
+    /**
+     * <p> Closes all listening {@link ReasonResponder}s within this object,
+     * and waits for the messages they already accepted to be answered </p>
+     * every port stops accepting at once. Connections that were still waiting to be accepted are turned away with
+     * {@link online.umbcraft.libraries.network.errors.RadioError#SHUTTING_DOWN}, which an
+     * {@link online.umbcraft.libraries.network.balance.EndpointGroup} sender retries on another endpoint
+     *
+     * @param drain_ms the longest to wait for accepted messages in milliseconds, over all ports
+     * @return the combined counts of finished, turned away and abandoned messages
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public DrainReport stopListening(long drain_ms) throws InterruptedException {
+        if (debug)
+            logger.info("draining all listeners in WalkieTalkie for up to " + drain_ms + "ms");
+
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drain_ms);
+        for (PortListener listener : scanners.values())
+            listener.beginDrain();
+
+        DrainReport report = new DrainReport(0, 0, 0, 0);
+        for (PortListener listener : scanners.values())
+            report = report.merge(listener.awaitDrained(until));
+
+        if (!report.isClean())
+            logger.warning("stopped listening with " + report.getAbandoned() + " messages still being handled");
+        return report;
+    }
+
+
     /**
      * Adds a {@link ReasonResponder} to this object on a certain port,
      * allowing that responder to react to {@link RadioMessage}s
@@ -133,11 +584,56 @@ public class WalkieTalkie {
         if (debug)
             logger.info("adding ReasonResponder to WalkieTalkie with reason " + responder.getReason());
 
-        if (!scanners.containsKey(port)) {
-            PortListener listener = new PortListener(this, port);
+        scanners.computeIfAbsent(port, p -> {
+            PortListener listener = new PortListener(this, p);
             listener.start();
-            scanners.put(port, listener);
+            return listener;
+        }).addResponder(responder);
+    }
+
+
+    /**
+     * <p> Removes the {@link ReasonResponder} for a reason from a port, without pausing other traffic </p>
+     * new messages with that reason are turned away right away,
+     * and this waits for the messages the responder is already handling to finish
+     *
+     * @param port     network port the responder listens on
+     * @param reason   the reason of the responder to remove
+     * @param drain_ms the longest to wait for the responder's messages in milliseconds
+     * @return if every message the responder was handling finished in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean removeResponse(int port, String reason, long drain_ms) throws InterruptedException {
+
+        if (debug)
+            logger.info("removing ReasonResponder from WalkieTalkie with reason " + reason);
+
+        PortListener listener = scanners.get(port);
+        return listener == null || listener.removeResponder(reason, drain_ms);
+    }
+
+
+    /**
+     * <p> Swaps in a {@link ReasonResponder} on a port, replacing the one with the same reason </p>
+     * new messages go to the new responder right away,
+     * and this waits for the messages the old one is already handling to finish
+     *
+     * @param port      network port to listen on
+     * @param responder the new {@link ReasonResponder}
+     * @param drain_ms  the longest to wait for the old responder's messages in milliseconds
+     * @return if every message the old responder was handling finished in time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean replaceResponse(int port, ReasonResponder responder, long drain_ms) throws InterruptedException {
+
+        if (debug)
+            logger.info("replacing ReasonResponder in WalkieTalkie with reason " + responder.getReason());
+
+        PortListener listener = scanners.get(port);
+        if (listener == null) {
+            addResponse(port, responder);
+            return true;
         }
-        scanners.get(port).addResponder(responder);
+        return listener.replaceResponder(responder, drain_ms);
     }
 }
@@ -0,0 +1,74 @@
+package online.umbcraft.libraries.network.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * <p> Flight Recorder event for a whole message exchange, on either side of the connection </p>
+ * the event's own duration covers the exchange, and the time spent in every stage is broken out in its fields
+ */
+@Name("online.umbcraft.radio.Exchange")
+@Label("Radio Exchange")
+@Category({"RadioScanner"})
+@Description("A message sent or answered by RadioScanner")
+@Enabled(false)
+@StackTrace(false)
+public final class ExchangeEvent extends jdk.jfr.Event {
+
+    @Label("Side")
+    @Description("client for messages sent, server for messages answered")
+    String side;
+
+    @Label("Reason")
+    String reason;
+
+    @Label("Peer")
+    @Description("The first 8 bytes of the SHA-256 of the other side's public key")
+    String peer;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("Error")
+    @Description("The RadioError the exchange failed with, empty if it succeeded")
+    String error;
+
+    @Label("Queued")
+    @Timespan
+    long queued;
+
+    @Label("Read")
+    @Timespan
+    long read;
+
+    @Label("Verify")
+    @Timespan
+    long verify;
+
+    @Label("Decrypt")
+    @Timespan
+    long decrypt;
+
+    @Label("Respond")
+    @Timespan
+    long respond;
+
+    @Label("Encrypt")
+    @Timespan
+    long encrypt;
+
+    @Label("Write")
+    @Timespan
+    long write;
+}
@@ -0,0 +1,242 @@
+package online.umbcraft.libraries.network.trace;
+
+import jdk.jfr.EventType;
+import online.umbcraft.libraries.network.errors.RadioError;
+import org.apache.commons.codec.binary.Base64;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+
+
+/**
+ * <p> Records a message exchange as Java Flight Recorder events </p>
+ * <p>
+ * Both events are disabled by default, and are turned on through JFR settings, for example
+ * {@code jcmd <pid> JFR.start settings=radio.jfc} with
+ * {@code online.umbcraft.radio.Exchange#enabled=true} and {@code online.umbcraft.radio.ExchangeStage#enabled=true}.
+ * While neither is enabled {@link #begin(String)} gives null without creating any event, so the
+ * only cost is a check of two flags per exchange, and an event is only created while its type is enabled.
+ * <p>
+ * Building needs a JDK which has {@code jdk.jfr}, which is 8u262 or later. At runtime the events are only
+ * touched once Flight Recorder is known to be there, so on an older JVM tracing is simply always off
+ * <p>
+ * A trace belongs to a single exchange, and is handed between threads along with it rather than shared
+ *
+ * @see ExchangeEvent
+ * @see StageEvent
+ */
+public final class RadioTrace {
+
+    /**
+     * the stages an exchange is broken into
+     */
+    public enum Stage {
+        /** waiting for a worker */
+        QUEUE,
+        /** reading from the connection */
+        READ,
+        /** checking the signature */
+        VERIFY,
+        /** unwrapping and decrypting the body */
+        DECRYPT,
+        /** generating the response, on the server */
+        RESPOND,
+        /** encrypting and signing the body */
+        ENCRYPT,
+        /** writing to the connection */
+        WRITE
+    }
+
+    private static final boolean AVAILABLE = flightRecorderPresent();
+
+    private final String side;
+    private final ExchangeEvent exchange;
+    private final long[] spent;
+
+    private StageEvent stage_event;
+    private Stage stage;
+    private long stage_started;
+
+    private String reason;
+    private String peer64;
+    private PublicKey peer_key;
+    private String peer;
+
+
+    /**
+     * the types of both events, looked up once. only loaded when Flight Recorder is present
+     */
+    private static final class Types {
+        private static final EventType EXCHANGE = EventType.getEventType(ExchangeEvent.class);
+        private static final EventType STAGE = EventType.getEventType(StageEvent.class);
+    }
+
+
+    private RadioTrace(String side, ExchangeEvent exchange) {
+        this.side = side;
+        this.exchange = exchange;
+        spent = new long[Stage.values().length];
+    }
+
+
+    private static boolean flightRecorderPresent() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return Types.EXCHANGE != null && Types.STAGE != null;
+        } catch (ClassNotFoundException | LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * Starts tracing an exchange, if a recording wants it
+     *
+     * @param side "client" for a message being sent, "server" for one being answered
+     * @return the trace, or null if no recording has the RadioScanner events enabled
+     */
+    public static RadioTrace begin(String side) {
+        if (!AVAILABLE)
+            return null;
+
+        boolean exchange_enabled = Types.EXCHANGE.isEnabled();
+        if (!exchange_enabled && !Types.STAGE.isEnabled())
+            return null;
+
+        ExchangeEvent exchange = null;
+        if (exchange_enabled) {
+            exchange = new ExchangeEvent();
+            exchange.begin();
+        }
+        return new RadioTrace(side, exchange);
+    }
+
+
+    /**
+     * Moves the exchange on to a stage, ending the one it was in
+     *
+     * @param next the stage starting now
+     */
+    public void stage(Stage next) {
+        endStage();
+        stage = next;
+        stage_started = System.nanoTime();
+
+        if (Types.STAGE.isEnabled()) {
+            stage_event = new StageEvent();
+            stage_event.begin();
+        }
+    }
+
+
+    private void endStage() {
+        if (stage == null)
+            return;
+        spent[stage.ordinal()] += System.nanoTime() - stage_started;
+
+        if (stage_event != null) {
+            stage_event.end();
+            if (stage_event.shouldCommit()) {
+                stage_event.side = side;
+                stage_event.reason = reason;
+                stage_event.peer = peer();
+                stage_event.stage = stage.name();
+                stage_event.commit();
+            }
+            stage_event = null;
+        }
+        stage = null;
+    }
+
+
+    /**
+     * Sets the reason of the message being exchanged
+     *
+     * @param reason the plaintext reason
+     */
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+
+    /**
+     * Sets the other side of the exchange
+     *
+     * @param pub64 the base64 public key of the other side
+     */
+    public void setPeer(String pub64) {
+        peer64 = pub64;
+    }
+
+
+    /**
+     * Sets the other side of the exchange
+     *
+     * @param key the public key of the other side
+     */
+    public void setPeer(PublicKey key) {
+        peer_key = key;
+    }
+
+
+    /**
+     * Ends the exchange and records it
+     *
+     * @param bytes_in  how many bytes of message body were received
+     * @param bytes_out how many bytes of message body were sent
+     * @param error     what the exchange failed with, or null if it succeeded
+     */
+    public void end(long bytes_in, long bytes_out, RadioError error) {
+        endStage();
+
+        if (exchange == null)
+            return;
+        exchange.end();
+        if (!exchange.shouldCommit())
+            return;
+
+        exchange.side = side;
+        exchange.reason = reason;
+        exchange.peer = peer();
+        exchange.bytesIn = bytes_in;
+        exchange.bytesOut = bytes_out;
+        exchange.error = error == null ? "" : error.name();
+        exchange.queued = spent[Stage.QUEUE.ordinal()];
+        exchange.read = spent[Stage.READ.ordinal()];
+        exchange.verify = spent[Stage.VERIFY.ordinal()];
+        exchange.decrypt = spent[Stage.DECRYPT.ordinal()];
+        exchange.respond = spent[Stage.RESPOND.ordinal()];
+        exchange.encrypt = spent[Stage.ENCRYPT.ordinal()];
+        exchange.write = spent[Stage.WRITE.ordinal()];
+        exchange.commit();
+    }
+
+
+    /**
+     * the fingerprint of the other side, worked out the first time it is needed
+     */
+    private String peer() {
+        if (peer != null)
+            return peer;
+
+        byte[] encoded = null;
+        if (peer_key != null)
+            encoded = peer_key.getEncoded();
+        else if (peer64 != null)
+            encoded = Base64.decodeBase64(peer64);
+        if (encoded == null)
+            return null;
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+            StringBuilder hex = new StringBuilder(16);
+            for (int i = 0; i < 8; i++)
+                hex.append(String.format("%02x", digest[i]));
+            peer = hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            peer = "";
+        }
+        return peer;
+    }
+}
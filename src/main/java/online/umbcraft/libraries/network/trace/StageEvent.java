@@ -0,0 +1,35 @@
+package online.umbcraft.libraries.network.trace;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p> Flight Recorder event for a single stage of a message exchange </p>
+ * committed by the thread which ended the stage. for most stages that is the thread which ran it, so the event
+ * lines up with the socket and crypto events of that thread, but QUEUE is ended by the worker which picked the
+ * message up, and RESPOND of an asynchronous responder by the thread its response completed on
+ */
+@Name("online.umbcraft.radio.ExchangeStage")
+@Label("Radio Exchange Stage")
+@Category({"RadioScanner"})
+@Description("One stage of a message sent or answered by RadioScanner")
+@Enabled(false)
+@StackTrace(false)
+public final class StageEvent extends jdk.jfr.Event {
+
+    @Label("Side")
+    String side;
+
+    @Label("Reason")
+    String reason;
+
+    @Label("Peer")
+    String peer;
+
+    @Label("Stage")
+    String stage;
+}
@@ -0,0 +1,123 @@
+package online.umbcraft.tests;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.ReasonResponder;
+import online.umbcraft.libraries.network.response.WalkieTalkie;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * <p> A WalkieTalkie on a free port, with a server and a client keypair that know each other </p>
+ * meant to be used with try-with-resources, so the port is released even when a test fails
+ */
+public class RadioFixture implements AutoCloseable {
+
+    /**
+     * how long a test waits for any single response
+     */
+    public static final long WAIT_SECONDS = 5;
+
+    public final HelpfulRSAKeyPair server_keys;
+    public final HelpfulRSAKeyPair client_keys;
+    public final WalkieTalkie walkie;
+    public final int port;
+
+
+    public RadioFixture() throws IOException {
+        this(new HelpfulRSAKeyPair(), new HelpfulRSAKeyPair());
+    }
+
+
+    /**
+     * creates a fixture with existing keys, for tests with several servers sharing them
+     */
+    public RadioFixture(HelpfulRSAKeyPair server_keys, HelpfulRSAKeyPair client_keys) throws IOException {
+        this.server_keys = server_keys;
+        this.client_keys = client_keys;
+        walkie = new WalkieTalkie();
+        port = freePort();
+    }
+
+
+    /**
+     * finds a port nothing is listening on
+     */
+    public static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+
+    /**
+     * registers a responder on the fixture's port, knowing the client key
+     */
+    public <R extends ReasonResponder> R serve(R responder) {
+        responder.addKnown(client_keys.pub64());
+        walkie.addResponse(port, responder);
+        return responder;
+    }
+
+
+    /**
+     * registers a responder for a reason which answers with the given function
+     */
+    public ReasonResponder serve(String reason, Function<ReasonMessage, ResponseMessage> answer) {
+        return serve(new ReasonResponder(reason, server_keys) {
+            @Override
+            public ResponseMessage response(ReasonMessage message) {
+                return answer.apply(message);
+            }
+        });
+    }
+
+
+    /**
+     * a message from the client to the server, ready to be sent
+     */
+    public ReasonMessage message(String reason) {
+        return new ReasonMessage()
+                .setReason(reason)
+                .setRSAKeys(client_keys)
+                .setRemoteKey(server_keys.pub());
+    }
+
+
+    /**
+     * sends a message to the fixture's port and waits for the response
+     */
+    public ResponseMessage send(ReasonMessage message) throws Exception {
+        return message.send("127.0.0.1", port).get(WAIT_SECONDS, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * sends an empty message with a reason and waits for the response
+     */
+    public ResponseMessage send(String reason) throws Exception {
+        return send(message(reason));
+    }
+
+
+    /**
+     * sleeps without a checked exception, for responders simulating work
+     */
+    public static void pause(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    @Override
+    public void close() {
+        walkie.stopListening();
+    }
+}
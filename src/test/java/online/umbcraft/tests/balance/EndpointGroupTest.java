@@ -0,0 +1,57 @@
+package online.umbcraft.tests.balance;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.balance.BalanceStrategy;
+import online.umbcraft.libraries.network.balance.Endpoint;
+import online.umbcraft.libraries.network.balance.EndpointGroup;
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EndpointGroupTest {
+
+    private static final HelpfulRSAKeyPair server_keys = new HelpfulRSAKeyPair();
+
+    @Test
+    public void leastOutstandingSpreadsLoad() {
+        EndpointGroup group = new EndpointGroup(server_keys.pub())
+                .setStrategy(BalanceStrategy.LEAST_OUTSTANDING)
+                .add("127.0.0.1:1")
+                .add("127.0.0.1:2");
+
+        Endpoint first = group.pick();
+        Endpoint second = group.pick();
+
+        Assert.assertNotEquals(first, second);
+        Assert.assertEquals(first.outstanding(), 1);
+        Assert.assertEquals(second.outstanding(), 1);
+    }
+
+    @Test
+    public void ejectsAndProbesFailedEndpoint() throws InterruptedException {
+        EndpointGroup group = new EndpointGroup(server_keys.pub())
+                .setStrategy(BalanceStrategy.POWER_OF_TWO)
+                .setEjectTime(50, 50)
+                .add("127.0.0.1:1")
+                .add("127.0.0.1:2");
+
+        Endpoint bad = group.pick();
+        group.report(bad, new ResponseMessage().put("TRANSMIT_ERROR", RadioError.FAILED_TO_CONNECT.name()));
+
+        for (int i = 0; i < 20; i++) {
+            Endpoint picked = group.pick();
+            Assert.assertNotEquals(bad, picked);
+            group.report(picked, new ResponseMessage().setSuccess(true));
+        }
+
+        Thread.sleep(60);
+
+        Endpoint probe = group.pick();
+        Assert.assertEquals(bad, probe);
+        Assert.assertNotEquals(bad, group.pick());
+
+        group.report(probe, new ResponseMessage().setSuccess(true));
+        Assert.assertFalse(bad.isEjected(System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,146 @@
+package online.umbcraft.tests.balance;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.balance.BalanceStrategy;
+import online.umbcraft.libraries.network.balance.Endpoint;
+import online.umbcraft.libraries.network.balance.EndpointGroup;
+import online.umbcraft.libraries.network.balance.LatencyTracker;
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.ReasonResponder;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class HedgingTest {
+
+    @Test
+    public void deadlineExpires() throws Exception {
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve("slow", message -> {
+                RadioFixture.pause(2000);
+                return new ResponseMessage().setSuccess(true);
+            });
+
+            long started = System.nanoTime();
+            ResponseMessage response = radio.send(radio.message("slow").setTimeout(200));
+            long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+            Assert.assertEquals(RadioError.DEADLINE_EXCEEDED, response.getTransmitError());
+            Assert.assertTrue("gave up after " + took + "ms", took < 1500);
+        }
+    }
+
+
+    @Test
+    public void fastestHedgeWins() throws Exception {
+        HelpfulRSAKeyPair server_keys = new HelpfulRSAKeyPair();
+        HelpfulRSAKeyPair client_keys = new HelpfulRSAKeyPair();
+
+        try (RadioFixture slow = new RadioFixture(server_keys, client_keys);
+             RadioFixture fast = new RadioFixture(server_keys, client_keys)) {
+
+            slow.serve("hedged", message -> {
+                RadioFixture.pause(3000);
+                return new ResponseMessage().setSuccess(true).put("from", "slow");
+            });
+            fast.serve("hedged", message -> new ResponseMessage().setSuccess(true).put("from", "fast"));
+
+            // replies usually take 50ms, so a duplicate goes out after that
+            for (int i = 0; i < 20; i++)
+                LatencyTracker.forReason("hedged").record(50);
+
+            EndpointGroup group = new EndpointGroup(server_keys.pub())
+                    .setStrategy(BalanceStrategy.LEAST_OUTSTANDING)
+                    .add("127.0.0.1", slow.port)
+                    .add("127.0.0.1", fast.port);
+
+            // one request already in flight to the fast endpoint makes the slow one the first pick
+            Endpoint busy = group.pick();
+            if (busy.getPort() != fast.port) {
+                Endpoint other = group.pick();
+                group.abandon(busy);
+                busy = other;
+            }
+
+            long started = System.nanoTime();
+            ResponseMessage response = slow.message("hedged")
+                    .enableHedging()
+                    .send(group)
+                    .get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS);
+            long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+            Assert.assertTrue(response.getSuccess());
+            Assert.assertEquals("fast", response.get("from"));
+            Assert.assertTrue("answered after " + took + "ms", took < 2000);
+
+            // the slower copy was cut off rather than left to count against its endpoint
+            group.abandon(busy);
+            long until = System.currentTimeMillis() + 1000;
+            while (sumOutstanding(group) > 0 && System.currentTimeMillis() < until)
+                Thread.sleep(10);
+            Assert.assertEquals(0, sumOutstanding(group));
+            for (Endpoint endpoint : group.getEndpoints())
+                Assert.assertFalse(endpoint.isEjected(System.currentTimeMillis()));
+        }
+    }
+
+
+    @Test
+    public void failedAttemptHedgesAtOnce() throws Exception {
+        HelpfulRSAKeyPair server_keys = new HelpfulRSAKeyPair();
+        HelpfulRSAKeyPair client_keys = new HelpfulRSAKeyPair();
+
+        try (RadioFixture refusing = new RadioFixture(server_keys, client_keys);
+             RadioFixture working = new RadioFixture(server_keys, client_keys)) {
+
+            // the refusing endpoint does not know the client, so it answers with an error straight away
+            refusing.walkie.addResponse(refusing.port, new ReasonResponder("failover", server_keys) {
+                @Override
+                public ResponseMessage response(ReasonMessage message) {
+                    return new ResponseMessage().setSuccess(true);
+                }
+            });
+            working.serve("failover", message -> new ResponseMessage().setSuccess(true));
+
+            // replies usually take far longer than the test waits, so only a failure can send the duplicate
+            for (int i = 0; i < 20; i++)
+                LatencyTracker.forReason("failover").record(60_000);
+
+            EndpointGroup group = new EndpointGroup(server_keys.pub())
+                    .setStrategy(BalanceStrategy.LEAST_OUTSTANDING)
+                    .add("127.0.0.1", refusing.port)
+                    .add("127.0.0.1", working.port);
+
+            // one request already in flight to the working endpoint makes the refusing one the first pick
+            Endpoint busy = group.pick();
+            if (busy.getPort() != working.port) {
+                Endpoint other = group.pick();
+                group.abandon(busy);
+                busy = other;
+            }
+
+            long started = System.nanoTime();
+            ResponseMessage response = working.message("failover")
+                    .enableHedging()
+                    .send(group)
+                    .get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS);
+            long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            group.abandon(busy);
+
+            Assert.assertTrue(response.getSuccess());
+            Assert.assertTrue("answered after " + took + "ms", took < 2000);
+        }
+    }
+
+
+    private static int sumOutstanding(EndpointGroup group) {
+        int total = 0;
+        for (Endpoint endpoint : group.getEndpoints())
+            total += endpoint.outstanding();
+        return total;
+    }
+}
@@ -0,0 +1,49 @@
+package online.umbcraft.tests.compress;
+
+import online.umbcraft.libraries.encrypt.HelpfulAESKey;
+import online.umbcraft.libraries.encrypt.MessageEncryptor;
+import online.umbcraft.libraries.network.compress.DeflateCodec;
+import online.umbcraft.libraries.network.compress.PayloadCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * checks that compressing repetitive JSON before encrypting it saves bytes on the wire, and loses nothing
+ */
+public class CompressionSizeTest {
+
+    private static final int[] SIZES = {256, 4 * 1024, 64 * 1024};
+
+    private static byte[] json(int length, Random random) {
+        StringBuilder builder = new StringBuilder(length);
+        builder.append('[');
+        while (builder.length() < length)
+            builder.append("{\"id\":").append(random.nextInt(10_000))
+                    .append(",\"name\":\"player").append(random.nextInt(50))
+                    .append("\",\"online\":").append(random.nextBoolean()).append("},");
+        return builder.substring(0, length).getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    @Test
+    public void compressedCiphertextIsSmaller() throws Exception {
+        PayloadCodec codec = new DeflateCodec();
+        HelpfulAESKey key = new HelpfulAESKey();
+        Random random = new Random(42);
+
+        for (int size : SIZES) {
+            byte[] payload = json(size, random);
+            byte[] packed = codec.encode(payload);
+
+            int raw_bytes = MessageEncryptor.encryptAES(key, payload).length;
+            int packed_bytes = MessageEncryptor.encryptAES(key, packed).length;
+
+            Assert.assertArrayEquals(payload, codec.decode(packed, size));
+            if (size >= 4 * 1024)
+                Assert.assertTrue(size + " bytes packed to " + packed_bytes, packed_bytes < raw_bytes / 2);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package online.umbcraft.tests.compress;
+
+import online.umbcraft.libraries.network.compress.DeflateCodec;
+import online.umbcraft.libraries.network.compress.PayloadCodec;
+import online.umbcraft.libraries.network.compress.PayloadCodecs;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class PayloadCodecTest {
+
+    private static String repetitive(int length) {
+        StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length)
+            builder.append("{\"player\":\"someone\",\"score\":").append(builder.length() % 97).append("},");
+        return builder.substring(0, length);
+    }
+
+
+    @Test
+    public void deflateRoundTrip() throws IOException {
+        PayloadCodec codec = new DeflateCodec();
+        byte[] raw = repetitive(100_000).getBytes(StandardCharsets.UTF_8);
+
+        byte[] packed = codec.encode(raw);
+        Assert.assertTrue(packed.length < raw.length / 4);
+        Assert.assertTrue(Arrays.equals(raw, codec.decode(packed, raw.length)));
+    }
+
+
+    @Test(expected = IOException.class)
+    public void decodeRespectsLimit() throws IOException {
+        PayloadCodec codec = new DeflateCodec();
+        byte[] packed = codec.encode(new byte[1_000_000]);
+        codec.decode(packed, 1000);
+    }
+
+
+    @Test
+    public void picksFirstKnownCodec() {
+        Assert.assertNull(PayloadCodecs.pick("zstd-unknown"));
+        Assert.assertEquals("deflate", PayloadCodecs.pick("zstd-unknown,deflate").name());
+        Assert.assertTrue(PayloadCodecs.accepted().contains("deflate"));
+    }
+
+
+    @Test
+    public void largeCompressedExchange() throws Exception {
+
+        String payload = repetitive(200_000);
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.walkie.enableCompression(1024);
+            radio.serve("compress", message -> new ResponseMessage()
+                    .put("echo", message.get("payload"))
+                    .setSuccess(true));
+
+            ResponseMessage response = radio.send(radio.message("compress")
+                    .put("payload", payload)
+                    .enableCompression("deflate", 1024));
+
+            Assert.assertTrue(response.getSuccess());
+            Assert.assertEquals(payload, response.get("echo"));
+        }
+    }
+}
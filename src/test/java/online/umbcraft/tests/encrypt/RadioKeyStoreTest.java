@@ -0,0 +1,98 @@
+package online.umbcraft.tests.encrypt;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.encrypt.MessageEncryptor;
+import online.umbcraft.libraries.encrypt.RadioKeyStore;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.util.Arrays;
+
+public class RadioKeyStoreTest {
+
+    private Path writePEM(String type, byte[] der) throws Exception {
+        Path file = Files.createTempFile("radio-key", ".pem");
+        file.toFile().deleteOnExit();
+        String pem = "-----BEGIN " + type + "-----\n"
+                + Base64.encodeBase64String(der).replaceAll("(.{64})", "$1\n")
+                + "\n-----END " + type + "-----\n";
+        Files.write(file, pem.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+
+    @Test
+    public void loadsPKCS8PEM() throws Exception {
+        HelpfulRSAKeyPair original = new HelpfulRSAKeyPair();
+        RadioKeyStore store = new RadioKeyStore();
+
+        HelpfulRSAKeyPair loaded = store.load("service", writePEM("PRIVATE KEY", original.priv().getEncoded()));
+
+        Assert.assertSame(loaded, store.get("service"));
+        Assert.assertTrue(loaded.priv() instanceof RSAPrivateCrtKey);
+        Assert.assertEquals(original.pub64(), loaded.pub64());
+
+        String sig = MessageEncryptor.generateSignature(loaded, "apples are delicious!");
+        Assert.assertTrue(MessageEncryptor.verifySignature(original, "apples are delicious!", sig));
+    }
+
+
+    @Test
+    public void loadsPKCS1PEM() throws Exception {
+        HelpfulRSAKeyPair original = new HelpfulRSAKeyPair();
+        byte[] pkcs8 = original.priv().getEncoded();
+
+        // a 2048 bit PKCS#8 key holds the PKCS#1 key as an octet string after a fixed 26 byte header
+        Assert.assertEquals(0x04, pkcs8[22]);
+        byte[] pkcs1 = Arrays.copyOfRange(pkcs8, 26, pkcs8.length);
+
+        RadioKeyStore store = new RadioKeyStore();
+        HelpfulRSAKeyPair loaded = store.load("legacy", writePEM("RSA PRIVATE KEY", pkcs1));
+
+        Assert.assertArrayEquals(pkcs8, loaded.priv().getEncoded());
+        Assert.assertEquals(original.pub64(), loaded.pub64());
+    }
+
+
+    @Test
+    public void parsedKeysAreReused() throws Exception {
+        HelpfulRSAKeyPair original = new HelpfulRSAKeyPair();
+        RadioKeyStore store = new RadioKeyStore();
+
+        HelpfulRSAKeyPair first = store.pairFrom64(original.pub64(), original.priv64());
+        HelpfulRSAKeyPair second = store.pairFrom64(original.pub64(), original.priv64());
+
+        Assert.assertSame(first, second);
+        Assert.assertSame(HelpfulRSAKeyPair.publicFrom64(original.pub64()),
+                HelpfulRSAKeyPair.publicFrom64(original.pub64()));
+    }
+
+
+    @Test
+    public void busyPairStaysCachedWhenFull() throws Exception {
+        HelpfulRSAKeyPair original = new HelpfulRSAKeyPair();
+        RadioKeyStore store = new RadioKeyStore();
+
+        HelpfulRSAKeyPair busy = store.pairFrom64(original.pub64(), original.priv64());
+
+        // base64 skips whitespace, so padding the private key gives another cache entry for the same key
+        String padding = "";
+        for (int i = 0; i < 1500; i++) {
+            padding += " ";
+            store.pairFrom64(original.pub64(), original.priv64() + padding);
+            if (i % 100 == 0)
+                Assert.assertSame(busy, store.pairFrom64(original.pub64(), original.priv64()));
+        }
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownAliasFails() {
+        new RadioKeyStore().require("missing");
+    }
+}
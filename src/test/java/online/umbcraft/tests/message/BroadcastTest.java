@@ -0,0 +1,70 @@
+package online.umbcraft.tests.message;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.BroadcastResults;
+import online.umbcraft.libraries.network.message.BroadcastTarget;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class BroadcastTest {
+
+    @Test
+    public void everyTargetReplies() throws Exception {
+
+        HelpfulRSAKeyPair client_keys = new HelpfulRSAKeyPair();
+        List<RadioFixture> nodes = new ArrayList<>();
+        List<BroadcastTarget> targets = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                RadioFixture node = new RadioFixture(new HelpfulRSAKeyPair(), client_keys);
+                nodes.add(node);
+                node.serve("config", message -> new ResponseMessage()
+                        .setSuccess(true)
+                        .putInt("node", node.port)
+                        .put("value", message.get("value")));
+                targets.add(new BroadcastTarget("127.0.0.1", node.port, node.server_keys.pub()));
+            }
+
+            // nothing listens here, so its reply is a transmit error
+            int unused = RadioFixture.freePort();
+            targets.add(new BroadcastTarget("127.0.0.1", unused, new HelpfulRSAKeyPair().pub()));
+
+            BroadcastResults results = new ReasonMessage()
+                    .setReason("config")
+                    .setRSAKeys(client_keys)
+                    .put("value", "pushed")
+                    .broadcast(targets, 2);
+
+            Set<Integer> answered = new HashSet<>();
+            int failed = 0;
+            for (BroadcastResults.Reply reply : results) {
+                ResponseMessage response = reply.getResponse();
+                if (response.getTransmitError() != null) {
+                    Assert.assertEquals(RadioError.FAILED_TO_CONNECT, response.getTransmitError());
+                    Assert.assertEquals(unused, reply.getTarget().getPort());
+                    failed++;
+                    continue;
+                }
+                Assert.assertEquals("pushed", response.get("value"));
+                answered.add(response.getInt("node"));
+            }
+
+            Assert.assertEquals(1, failed);
+            Assert.assertEquals(3, answered.size());
+            Assert.assertFalse(results.hasMore());
+        } finally {
+            for (RadioFixture node : nodes)
+                node.close();
+        }
+    }
+}
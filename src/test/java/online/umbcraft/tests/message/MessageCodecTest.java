@@ -0,0 +1,202 @@
+package online.umbcraft.tests.message;
+
+import online.umbcraft.libraries.network.message.MessageCodec;
+import online.umbcraft.libraries.network.message.RadioMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class MessageCodecTest {
+
+    @Test
+    public void typedValuesRoundTrip() {
+        byte[] blob = {0, 1, 2, (byte) 0xFF};
+
+        RadioMessage original = new RadioMessage()
+                .put("text", "hello")
+                .putInt("small", -7)
+                .putLong("big", Long.MAX_VALUE)
+                .putDouble("ratio", 0.25)
+                .putBoolean("flag", true)
+                .putBytes("blob", blob)
+                .putMessage("nested", new RadioMessage().putInt("depth", 2))
+                .putList("list", Arrays.asList(1, "two", 3.0));
+
+        byte[] encoded = original.encode();
+        Assert.assertTrue(MessageCodec.isBinary(encoded));
+
+        RadioMessage decoded = new RadioMessage(encoded);
+        Assert.assertEquals("hello", decoded.get("text"));
+        Assert.assertEquals(Integer.valueOf(-7), decoded.getInt("small"));
+        Assert.assertEquals(Long.valueOf(Long.MAX_VALUE), decoded.getLong("big"));
+        Assert.assertEquals(0.25, decoded.getDouble("ratio"), 0);
+        Assert.assertTrue(decoded.getBoolean("flag"));
+        Assert.assertTrue(Arrays.equals(blob, decoded.getBytes("blob")));
+        Assert.assertEquals(Integer.valueOf(2), decoded.getMessage("nested").getInt("depth"));
+
+        List<Object> list = decoded.getList("list");
+        Assert.assertEquals(3, list.size());
+        Assert.assertEquals("two", list.get(1));
+        Assert.assertEquals(original.json(), decoded.json());
+    }
+
+
+    @Test
+    public void numbersReadAsText() {
+        RadioMessage decoded = new RadioMessage(new RadioMessage().putInt("value", 4).encode());
+        Assert.assertEquals("4", decoded.get("value"));
+    }
+
+
+    @Test
+    public void acceptsJsonBodies() {
+        byte[] json = "{\"success\":true,\"count\":\"12\"}".getBytes(StandardCharsets.UTF_8);
+        ResponseMessage response = new ResponseMessage(json);
+
+        Assert.assertTrue(response.getSuccess());
+        Assert.assertEquals(Integer.valueOf(12), response.getInt("count"));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedMessages() {
+        byte[] encoded = new RadioMessage().put("text", "hello").encode();
+        new RadioMessage(Arrays.copyOf(encoded, encoded.length - 2)).get("text");
+    }
+
+
+    @Test
+    public void decodesOnlyWhatIsRead() {
+        RadioMessage original = new RadioMessage()
+                .put("reason", "lookup")
+                .putBytes("payload", new byte[100_000])
+                .putInt("after", 5);
+
+        RadioMessage received = new RadioMessage(original.encode());
+        Assert.assertEquals("lookup", received.get("reason"));
+        Assert.assertEquals(Integer.valueOf(5), received.getInt("after"));
+        Assert.assertFalse(received.has("missing"));
+
+        // changing the message decodes the rest, keeping the original order
+        received.putInt("extra", 1);
+        Assert.assertEquals(100_000, received.getBytes("payload").length);
+        Assert.assertTrue(received.json().startsWith("{\"reason\":\"lookup\""));
+    }
+
+
+    /**
+     * a message holding another one, nested the given number of times
+     */
+    private static RadioMessage nested(int depth) {
+        RadioMessage message = new RadioMessage().putInt("depth", depth);
+        for (int i = 0; i < depth; i++)
+            message = new RadioMessage().putMessage("inner", message);
+        return message;
+    }
+
+
+    @Test
+    public void lazyFieldsCanBeReadFromManyThreads() throws Exception {
+        RadioMessage original = new RadioMessage();
+        for (int i = 0; i < 2000; i++)
+            original.putInt("key" + i, i);
+        byte[] encoded = original.encode();
+
+        for (int round = 0; round < 20; round++) {
+            RadioMessage decoded = new RadioMessage(encoded);
+            List<Thread> readers = new ArrayList<>();
+            Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+
+            for (int t = 0; t < 8; t++) {
+                readers.add(new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 2000; i++)
+                            Assert.assertEquals(Integer.valueOf(i), decoded.getInt("key" + i));
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+            // one more thread decodes everything while the others read single keys
+            readers.add(new Thread(() -> {
+                if (!original.json().equals(decoded.json()))
+                    failures.add(new AssertionError("fields changed while being read"));
+            }));
+
+            for (Thread reader : readers)
+                reader.start();
+            for (Thread reader : readers)
+                reader.join();
+            Assert.assertTrue(failures.toString(), failures.isEmpty());
+        }
+    }
+
+
+    @Test
+    public void nestingIsCappedInBothDecoders() throws Exception {
+        byte[] deepest = nested(MessageCodec.MAX_DEPTH).encode();
+        Assert.assertEquals(1, MessageCodec.decode(deepest).size());
+        RadioMessage lazy = new RadioMessage(deepest);
+        for (int i = 0; i < MessageCodec.MAX_DEPTH; i++)
+            lazy = lazy.getMessage("inner");
+        Assert.assertEquals(Integer.valueOf(MessageCodec.MAX_DEPTH), lazy.getInt("depth"));
+
+        byte[] too_deep = nested(MessageCodec.MAX_DEPTH + 1).encode();
+        try {
+            MessageCodec.decode(too_deep);
+            Assert.fail("eager decoder accepted a message nested too deep");
+        } catch (IOException expected) {
+        }
+        try {
+            new RadioMessage(too_deep).json();
+            Assert.fail("lazy decoder accepted a message nested too deep");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+
+    @Test
+    public void duplicateKeysAreRefusedByBothDecoders() {
+        // two fields both named "a", holding 1 and 2
+        byte[] encoded = {MessageCodec.MARKER, 2, 1, 'a', 2, 2, 1, 'a', 2, 4};
+        assertRefused(encoded);
+    }
+
+
+    @Test
+    public void trailingBytesAreRefusedByBothDecoders() {
+        // a single field "a" holding 1, followed by a stray byte
+        byte[] encoded = {MessageCodec.MARKER, 1, 1, 'a', 2, 2, 0};
+        assertRefused(encoded);
+    }
+
+
+    @Test
+    public void intOutOfRangeIsRefusedByBothDecoders() {
+        // a single field "a" tagged as an int, holding 2^31 zigzagged into a varlong
+        byte[] encoded = {MessageCodec.MARKER, 1, 1, 'a', 2, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x10};
+        assertRefused(encoded);
+    }
+
+
+    private static void assertRefused(byte[] encoded) {
+        try {
+            MessageCodec.decode(encoded);
+            Assert.fail("eager decoder accepted an invalid message");
+        } catch (IOException expected) {
+        }
+        try {
+            new RadioMessage(encoded);
+            Assert.fail("lazy decoder accepted an invalid message");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
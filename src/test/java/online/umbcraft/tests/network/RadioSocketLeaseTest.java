@@ -0,0 +1,88 @@
+package online.umbcraft.tests.network;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.RadioSocket;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class RadioSocketLeaseTest {
+
+    /**
+     * opens a pooled connection to the server socket, along with the server's end of it
+     */
+    private static RadioSocket[] connect(ServerSocket server) throws Exception {
+        CompletableFuture<RadioSocket> accepted = CompletableFuture.supplyAsync(() -> {
+            try {
+                return RadioSocket.wrap(server.accept());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        RadioSocket client = RadioSocket.open("127.0.0.1", server.getLocalPort());
+        return new RadioSocket[]{client, accepted.get(5, TimeUnit.SECONDS)};
+    }
+
+
+    @Test
+    public void closingTwiceReleasesOnce() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            RadioSocket[] pair = connect(server);
+            int lease = pair[0].lease();
+
+            pair[0].close();
+            pair[0].close();
+            Assert.assertEquals(lease + 1, pair[0].lease());
+
+            pair[1].close();
+        }
+    }
+
+
+    @Test
+    public void staleLeaseLeavesReusedSocketAlone() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            RadioSocket[] first = connect(server);
+            RadioSocket stale = first[0];
+            int lease = stale.lease();
+            first[0].close();
+            first[1].close();
+
+            // keep connecting until the pool hands the released RadioSocket out again
+            List<RadioSocket[]> opened = new ArrayList<>();
+            RadioSocket[] reused = null;
+            int idle = RadioSocket.pool().idle();
+            for (int i = 0; i < idle && reused == null; i++) {
+                RadioSocket[] pair = connect(server);
+                opened.add(pair);
+                if (pair[0] == stale || pair[1] == stale)
+                    reused = pair;
+            }
+            Assert.assertNotNull(reused);
+
+            stale.abort(lease);
+            stale.close(lease);
+
+            // the new owner's connection still works both ways
+            RadioSocket owner = reused[0] == stale ? reused[0] : reused[1];
+            RadioSocket peer = reused[0] == stale ? reused[1] : reused[0];
+            HelpfulRSAKeyPair keys = new HelpfulRSAKeyPair();
+            peer.setMessage("still here", "lease", keys.pub64());
+            peer.encodeMessage(keys.pub(), keys.priv());
+            peer.sendMessage();
+            owner.receiveRemote();
+            owner.decodeRemote(keys.priv());
+            Assert.assertEquals("still here", owner.getRemoteBody());
+
+            for (RadioSocket[] pair : opened) {
+                pair[0].close();
+                pair[1].close();
+            }
+        }
+    }
+}
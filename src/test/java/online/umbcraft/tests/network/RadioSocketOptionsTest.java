@@ -0,0 +1,37 @@
+package online.umbcraft.tests.network;
+
+import online.umbcraft.libraries.network.RadioSocketOptions;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.Socket;
+
+public class RadioSocketOptionsTest {
+
+    @Test
+    public void appliesToSocket() throws Exception {
+        RadioSocketOptions options = new RadioSocketOptions()
+                .setKeepAlive(true)
+                .setReadTimeout(1234)
+                .setSendBuffer(32 * 1024);
+
+        try (Socket socket = new Socket()) {
+            options.apply(socket);
+
+            Assert.assertTrue(socket.getTcpNoDelay());
+            Assert.assertTrue(socket.getKeepAlive());
+            Assert.assertEquals(1234, socket.getSoTimeout());
+            Assert.assertTrue(socket.getSendBufferSize() >= 32 * 1024);
+        }
+    }
+
+
+    @Test
+    public void copyIsIndependent() {
+        RadioSocketOptions original = new RadioSocketOptions().setConnectTimeout(500);
+        RadioSocketOptions copy = new RadioSocketOptions(original).setConnectTimeout(900);
+
+        Assert.assertEquals(500, original.getConnectTimeout());
+        Assert.assertEquals(900, copy.getConnectTimeout());
+    }
+}
@@ -0,0 +1,54 @@
+package online.umbcraft.tests.pool;
+
+import online.umbcraft.libraries.network.pool.ObjectPool;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ObjectPoolTest {
+
+    @Test
+    public void reusesReleasedObjects() {
+        ObjectPool<StringBuilder> pool = new ObjectPool<>("test", 4, StringBuilder::new, sb -> sb.setLength(0));
+
+        StringBuilder first = pool.acquire();
+        first.append("dirty");
+        pool.release(first);
+
+        StringBuilder second = pool.acquire();
+        Assert.assertSame(first, second);
+        Assert.assertEquals(second.length(), 0);
+        Assert.assertEquals(pool.created(), 1);
+    }
+
+    @Test
+    public void dropsObjectsPastCapacity() {
+        AtomicInteger resets = new AtomicInteger();
+        ObjectPool<Object> pool = new ObjectPool<>("test", 1, Object::new, o -> resets.incrementAndGet());
+
+        Object a = pool.acquire();
+        Object b = pool.acquire();
+        pool.release(a);
+        pool.release(b);
+
+        Assert.assertEquals(pool.idle(), 1);
+        Assert.assertEquals(resets.get(), 2);
+    }
+
+    @Test
+    public void detectsLeaksInDebug() {
+        ObjectPool<Object> pool = new ObjectPool<>("test", 4, Object::new, o -> {
+        }).enableDebug();
+
+        Object kept = pool.acquire();
+        Object returned = pool.acquire();
+        pool.release(returned);
+
+        Assert.assertEquals(pool.outstanding(), 1);
+        Assert.assertEquals(pool.reportLeaks(), 1);
+
+        pool.release(kept);
+        Assert.assertEquals(pool.outstanding(), 0);
+    }
+}
@@ -0,0 +1,73 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.AcceptorGroup;
+import online.umbcraft.libraries.network.response.WalkieTalkie;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.BindException;
+import java.net.ServerSocket;
+
+public class AcceptorGroupTest {
+
+    /**
+     * waits for a port to be free again, failing if it is still held after a while
+     */
+    private static void assertReleased(int port) throws Exception {
+        long until = System.currentTimeMillis() + 2000;
+        while (true) {
+            try {
+                new ServerSocket(port).close();
+                return;
+            } catch (BindException e) {
+                if (System.currentTimeMillis() > until)
+                    throw e;
+                Thread.sleep(10);
+            }
+        }
+    }
+
+
+    @Test
+    public void stopsThroughTheGroupItRegisteredWith() throws Exception {
+        AcceptorGroup original = WalkieTalkie.sharedAcceptors();
+        AcceptorGroup replacement = new AcceptorGroup(1);
+
+        RadioFixture radio = new RadioFixture();
+        try {
+            radio.serve("ping", message -> new ResponseMessage().setSuccess(true));
+            Assert.assertTrue(radio.send("ping").getSuccess());
+
+            // ports added before the shared group was swapped still stop properly
+            WalkieTalkie.setAcceptors(replacement);
+            radio.close();
+            assertReleased(radio.port);
+        } finally {
+            radio.close();
+            WalkieTalkie.setAcceptors(original);
+            replacement.shutdown();
+        }
+    }
+
+
+    @Test
+    public void shutDownGroupLeavesNothingBound() throws Exception {
+        AcceptorGroup original = WalkieTalkie.sharedAcceptors();
+        AcceptorGroup dead = new AcceptorGroup(1);
+        dead.shutdown();
+
+        WalkieTalkie.setAcceptors(dead);
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.walkie.setAcceptorsPerPort(2);
+            radio.serve("ping", message -> new ResponseMessage().setSuccess(true));
+
+            Assert.assertEquals(RadioError.FAILED_TO_CONNECT, radio.send("ping").getTransmitError());
+            assertReleased(radio.port);
+        } finally {
+            WalkieTalkie.setAcceptors(original);
+        }
+    }
+}
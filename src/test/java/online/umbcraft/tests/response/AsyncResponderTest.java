@@ -0,0 +1,111 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.AsyncReasonResponder;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncResponderTest {
+
+    private static final ScheduledExecutorService backend = Executors.newSingleThreadScheduledExecutor();
+
+
+    /**
+     * answers every message from another thread after the given delay, echoing its "n" field
+     */
+    private static AsyncReasonResponder delayed(HelpfulRSAKeyPair server_keys, long delay_ms) {
+        return new AsyncReasonResponder("lookup", server_keys) {
+
+            @Override
+            public CompletionStage<ResponseMessage> respondAsync(ReasonMessage message) {
+                CompletableFuture<ResponseMessage> answer = new CompletableFuture<>();
+                int n = message.getInt("n");
+                backend.schedule(() -> answer.complete(new ResponseMessage().setSuccess(true).putInt("n", n)),
+                        delay_ms, TimeUnit.MILLISECONDS);
+                return answer;
+            }
+        };
+    }
+
+
+    @Test
+    public void answersWhenStageCompletes() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve(delayed(radio.server_keys, 100));
+
+            List<Future<ResponseMessage>> pending = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                pending.add(radio.message("lookup").putInt("n", i).send("127.0.0.1", radio.port));
+
+            for (int i = 0; i < 8; i++) {
+                ResponseMessage response = pending.get(i).get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS);
+                Assert.assertTrue(response.getSuccess());
+                Assert.assertEquals(Integer.valueOf(i), response.getInt("n"));
+            }
+        }
+    }
+
+
+    @Test
+    public void failedStageIsReported() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve(new AsyncReasonResponder("lookup", radio.server_keys) {
+
+                @Override
+                public CompletionStage<ResponseMessage> respondAsync(ReasonMessage message) {
+                    CompletableFuture<ResponseMessage> answer = new CompletableFuture<>();
+                    answer.completeExceptionally(new IllegalStateException("backend is down"));
+                    return answer;
+                }
+            });
+
+            Assert.assertFalse(radio.send("lookup").getSuccess());
+        }
+    }
+
+
+    @Test
+    public void nullStageIsReported() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve(new AsyncReasonResponder("lookup", radio.server_keys) {
+
+                @Override
+                public CompletionStage<ResponseMessage> respondAsync(ReasonMessage message) {
+                    return null;
+                }
+            });
+
+            Assert.assertFalse(radio.send("lookup").getSuccess());
+        }
+    }
+
+
+    @Test
+    public void lateStageIsDropped() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve(delayed(radio.server_keys, 2000));
+
+            long started = System.nanoTime();
+            ResponseMessage response = radio.send(radio.message("lookup").setTimeout(300).putInt("n", 0));
+
+            Assert.assertFalse(response.getSuccess());
+            Assert.assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(1500));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.network.response.ConcurrencyLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void rejectsOverLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10);
+
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire());
+        Assert.assertEquals(limiter.getInFlight(), 2);
+    }
+
+    @Test
+    public void growsAtBaselineAndShrinksUnderLatency() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100);
+
+        // fully used at baseline latency
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < limiter.getLimit(); j++) limiter.tryAcquire();
+            while (limiter.getInFlight() > 0) limiter.release(1_000_000, false);
+        }
+        int grown = limiter.getLimit();
+        Assert.assertTrue(grown > 10);
+
+        // latency four times the baseline
+        for (int i = 0; i < 50; i++) {
+            limiter.tryAcquire();
+            limiter.release(4_000_000, false);
+        }
+        Assert.assertTrue(limiter.getLimit() < grown);
+    }
+
+    @Test
+    public void backsOffOnDrops() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 5, 100);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.tryAcquire();
+            limiter.release(1_000_000, true);
+        }
+        Assert.assertEquals(limiter.getLimit(), 5);
+    }
+
+    @Test
+    public void newBoundsApplyRightAway() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(50, 5, 100);
+
+        limiter.setBounds(1, 10);
+        Assert.assertEquals(limiter.getLimit(), 10);
+
+        limiter.setBounds(20, 40);
+        Assert.assertEquals(limiter.getLimit(), 20);
+    }
+}
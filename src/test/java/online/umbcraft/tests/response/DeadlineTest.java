@@ -0,0 +1,83 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeadlineTest {
+
+    /**
+     * waits for a message with a reason to be counted as expired
+     */
+    private static long awaitExpired(RadioFixture radio, String reason) throws InterruptedException {
+        long until = System.currentTimeMillis() + 3000;
+        while (System.currentTimeMillis() < until) {
+            Long count = radio.walkie.getExpiredCounts().get(reason);
+            if (count != null)
+                return count;
+            Thread.sleep(10);
+        }
+        return 0;
+    }
+
+
+    @Test
+    public void queuedMessageExpiresBeforeCrypto() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            AtomicInteger answered = new AtomicInteger();
+            radio.walkie.enablePriorityScheduling(1);
+            radio.serve("slow", message -> {
+                RadioFixture.pause(600);
+                return new ResponseMessage().setSuccess(true);
+            });
+            radio.serve("quick", message -> {
+                answered.incrementAndGet();
+                return new ResponseMessage().setSuccess(true);
+            });
+
+            // a first exchange loads everything the crypto needs, so a cold start does not throw off the timing
+            radio.serve("warm", message -> new ResponseMessage().setSuccess(true));
+            Assert.assertTrue(radio.send("warm").getSuccess());
+
+            Future<ResponseMessage> slow = radio.message("slow").send("127.0.0.1", radio.port);
+            RadioFixture.pause(100);
+
+            // waits behind the slow message for longer than its sender is willing to
+            ResponseMessage quick = radio.send(radio.message("quick").setTimeout(200));
+            Assert.assertEquals(RadioError.DEADLINE_EXCEEDED, quick.getTransmitError());
+
+            Assert.assertTrue(slow.get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS).getSuccess());
+            Assert.assertEquals(1, awaitExpired(radio, "quick"));
+
+            // only the warm-up and the slow message were ever verified and decrypted
+            Assert.assertEquals(0, answered.get());
+            Assert.assertEquals(2, radio.walkie.getStats().getCryptoCounts()[0]);
+            Assert.assertEquals(2, radio.walkie.getStats().getCryptoCounts()[1]);
+        }
+    }
+
+
+    @Test
+    public void responderSeesTimeRemaining() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve("budget", message -> {
+                ResponseMessage response = new ResponseMessage().setSuccess(!message.isExpired());
+                response.putLong("left", message.getTimeRemaining());
+                return response;
+            });
+
+            ResponseMessage response = radio.send(radio.message("budget").setTimeout(2000));
+            Assert.assertTrue(response.getSuccess());
+            long left = response.getLong("left");
+            Assert.assertTrue("left " + left, left > 0 && left <= 2000);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.network.balance.EndpointGroup;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.DrainReport;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class DrainTest {
+
+    /**
+     * answers every "drain" message after 300ms
+     */
+    private static void serveSlowly(RadioFixture radio) {
+        radio.serve("drain", message -> {
+            RadioFixture.pause(300);
+            return new ResponseMessage().setSuccess(true);
+        });
+    }
+
+
+    @Test
+    public void inFlightMessageFinishes() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            serveSlowly(radio);
+
+            Future<ResponseMessage> pending = radio.message("drain").send("127.0.0.1", radio.port);
+
+            Thread.sleep(150);
+            DrainReport report = radio.walkie.stopListening(5000);
+
+            Assert.assertTrue(report.isClean());
+            Assert.assertEquals(1, report.getCompleted());
+            Assert.assertTrue(pending.get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS).getSuccess());
+        }
+    }
+
+
+    @Test
+    public void groupSkipsStoppedEndpoint() throws Exception {
+
+        try (RadioFixture stopped = new RadioFixture();
+             RadioFixture running = new RadioFixture(stopped.server_keys, stopped.client_keys)) {
+            serveSlowly(stopped);
+            serveSlowly(running);
+            stopped.walkie.stopListening(1000);
+
+            EndpointGroup group = new EndpointGroup(stopped.server_keys.pub())
+                    .add("127.0.0.1", stopped.port)
+                    .add("127.0.0.1", running.port);
+
+            for (int i = 0; i < 4; i++) {
+                ResponseMessage response = running.message("drain")
+                        .send(group)
+                        .get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS);
+                Assert.assertNull(response.getTransmitError());
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.RadioSocket;
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EarlyRejectTest {
+
+    /**
+     * waits for the server to count a message as failed with an error
+     */
+    private static long awaitErrors(RadioFixture radio, RadioError error) throws InterruptedException {
+        long until = System.currentTimeMillis() + 3000;
+        while (radio.walkie.getStats().getErrorCount(error) == 0 && System.currentTimeMillis() < until)
+            Thread.sleep(10);
+        return radio.walkie.getStats().getErrorCount(error);
+    }
+
+
+    private static ReasonMessage withPayload(ReasonMessage message, int size) {
+        byte[] payload = new byte[size];
+        Arrays.fill(payload, (byte) 7);
+        return message.putBytes("payload", payload);
+    }
+
+
+    @Test
+    public void unknownReasonIsNeverDecrypted() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve("known", message -> new ResponseMessage().setSuccess(true));
+
+            Assert.assertNotNull(radio.send("unknown").getTransmitError());
+            Assert.assertEquals(1, awaitErrors(radio, RadioError.NO_VALID_REASON));
+            Assert.assertTrue(Arrays.equals(new long[]{0, 0, 0}, radio.walkie.getStats().getCryptoCounts()));
+        }
+    }
+
+
+    @Test
+    public void unknownHostIsNeverDecrypted() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            AtomicInteger answered = new AtomicInteger();
+            radio.serve("known", message -> {
+                answered.incrementAndGet();
+                return new ResponseMessage().setSuccess(true);
+            });
+
+            ReasonMessage stranger = new ReasonMessage()
+                    .setReason("known")
+                    .setRSAKeys(new HelpfulRSAKeyPair())
+                    .setRemoteKey(radio.server_keys.pub());
+
+            Assert.assertNotNull(radio.send(stranger).getTransmitError());
+            Assert.assertEquals(1, awaitErrors(radio, RadioError.UNKNOWN_HOST));
+            Assert.assertEquals(0, answered.get());
+            Assert.assertTrue(Arrays.equals(new long[]{0, 0, 0}, radio.walkie.getStats().getCryptoCounts()));
+
+            // the sender it does know still gets through
+            Assert.assertTrue(radio.send("known").getSuccess());
+        }
+    }
+
+
+    @Test
+    public void oversizedBodyIsRefusedFromItsHeader() throws Exception {
+
+        int max_body = RadioSocket.getMaxBodyLength();
+        try (RadioFixture radio = new RadioFixture()) {
+            AtomicInteger answered = new AtomicInteger();
+            radio.serve("known", message -> {
+                answered.incrementAndGet();
+                return new ResponseMessage().setSuccess(true);
+            });
+
+            RadioSocket.setMaxBodyLength(4096);
+            Assert.assertNotNull(radio.send(withPayload(radio.message("known"), 16 * 1024)).getTransmitError());
+            Assert.assertTrue(radio.send(withPayload(radio.message("known"), 512)).getSuccess());
+
+            Assert.assertEquals(1, answered.get());
+            Assert.assertEquals(1, radio.walkie.getStats().getCryptoCounts()[1]);
+        } finally {
+            RadioSocket.setMaxBodyLength(max_body);
+        }
+    }
+}
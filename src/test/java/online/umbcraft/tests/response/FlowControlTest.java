@@ -0,0 +1,89 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.message.Subscription;
+import online.umbcraft.libraries.network.message.SubscriptionListener;
+import online.umbcraft.libraries.network.response.ResponseSink;
+import online.umbcraft.libraries.network.response.SubscriptionResponder;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FlowControlTest {
+
+    private static final int WINDOW = 4;
+    private static final int TOTAL = 20;
+
+
+    @Test
+    public void slowSubscriberBoundsOutstandingMessages() throws Exception {
+
+        AtomicInteger offered = new AtomicInteger();
+        AtomicInteger received = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        AtomicInteger most_outstanding = new AtomicInteger();
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve(new SubscriptionResponder("bulk", radio.server_keys) {
+
+                @Override
+                public void subscribe(ReasonMessage message, ResponseSink sink) {
+                    produce(sink);
+                }
+
+                // offers until the sink runs out of credit, then continues once it is ready again
+                private void produce(ResponseSink sink) {
+                    while (offered.get() < TOTAL) {
+                        if (!sink.offer(new ResponseMessage().putInt("n", offered.get()))) {
+                            refused.incrementAndGet();
+                            sink.onReady(() -> produce(sink));
+                            return;
+                        }
+                        int outstanding = offered.incrementAndGet() - received.get();
+                        most_outstanding.accumulateAndGet(outstanding, Math::max);
+                    }
+                    sink.close();
+                }
+            });
+
+            List<Integer> order = new CopyOnWriteArrayList<>();
+            CountDownLatch done = new CountDownLatch(1);
+
+            Subscription subscription = radio.message("bulk")
+                    .setStreamWindow(WINDOW)
+                    .subscribe("127.0.0.1", radio.port, new SubscriptionListener() {
+                        @Override
+                        public void onMessage(ResponseMessage message) {
+                            if (message.has("n")) {
+                                RadioFixture.pause(20);
+                                order.add(message.getInt("n"));
+                                received.incrementAndGet();
+                            }
+                        }
+
+                        @Override
+                        public void onClose(RadioError error) {
+                            done.countDown();
+                        }
+                    });
+
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertNull(subscription.getError());
+
+            Assert.assertEquals(TOTAL, order.size());
+            for (int i = 0; i < TOTAL; i++)
+                Assert.assertEquals(Integer.valueOf(i), order.get(i));
+
+            Assert.assertTrue(refused.get() > 0);
+            Assert.assertTrue("outstanding " + most_outstanding.get(), most_outstanding.get() <= WINDOW);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.RadioMessage;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.HealthResponder;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HealthTest {
+
+    @Test
+    public void healthReasonReportsStats() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve("echo", message -> new ResponseMessage().setSuccess(true));
+            radio.walkie.enableHealthReason(radio.port, radio.server_keys, radio.client_keys.pub64());
+
+            for (int i = 0; i < 5; i++)
+                Assert.assertTrue(radio.send("echo").getSuccess());
+
+            // a sender without a known key is counted as an error
+            radio.send(new ReasonMessage()
+                    .setReason("echo")
+                    .setRSAKeys(new HelpfulRSAKeyPair())
+                    .setRemoteKey(radio.server_keys.pub()));
+
+            ResponseMessage health = health(radio, "echo", 6);
+
+            Assert.assertTrue(health.getSuccess());
+            Assert.assertEquals(Long.valueOf(6), health.getMessage("requests").getLong("echo"));
+            Assert.assertEquals(Long.valueOf(1), health.getMessage("errors").getLong(RadioError.UNKNOWN_HOST.name()));
+            // the health check itself was decrypted before the stats were read
+            Assert.assertTrue(health.getMessage("crypto").getLong("decrypt") >= 6);
+            Assert.assertTrue(health.getInt("active_connections") >= 1);
+
+            RadioMessage latency = health.getMessage("latency_us");
+            Assert.assertTrue(latency.getLong("p50") > 0);
+            Assert.assertTrue(latency.getLong("p50") <= latency.getLong("p99"));
+            Assert.assertTrue(latency.getLong("p99") <= latency.getLong("max"));
+        }
+    }
+
+
+    @Test
+    public void reasonNamedLikeAReservedKeyIsCounted() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve("success", message -> new ResponseMessage().setSuccess(true));
+            radio.walkie.enableHealthReason(radio.port, radio.server_keys, radio.client_keys.pub64());
+
+            Assert.assertTrue(radio.send("success").getSuccess());
+
+            ResponseMessage health = health(radio, "success", 1);
+            Assert.assertTrue(health.getSuccess());
+            Assert.assertEquals(Long.valueOf(1), health.getMessage("requests").getLong("success"));
+        }
+    }
+
+
+    // a message is counted once its connection is done with, which can be just after its reply arrives
+    private static ResponseMessage health(RadioFixture radio, String reason, long count) throws Exception {
+        ResponseMessage health = radio.send(HealthResponder.REASON);
+        for (int i = 0; i < 50; i++) {
+            Long seen = health.getMessage("requests").getLong(reason);
+            if (seen != null && seen >= count)
+                break;
+            radio.pause(100);
+            health = radio.send(HealthResponder.REASON);
+        }
+        return health;
+    }
+}
@@ -0,0 +1,124 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.BroadcastResults;
+import online.umbcraft.libraries.network.message.BroadcastTarget;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.Loopback;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LoopbackTest {
+
+    private static void serveEcho(RadioFixture radio) {
+        radio.serve("echo", message -> new ResponseMessage().setSuccess(true).put("said", message.get("say")));
+    }
+
+
+    private static ResponseMessage say(RadioFixture radio, HelpfulRSAKeyPair client_keys, HelpfulRSAKeyPair server_keys)
+            throws Exception {
+        return radio.send(new ReasonMessage()
+                .setReason("echo")
+                .setRSAKeys(client_keys)
+                .setRemoteKey(server_keys.pub())
+                .put("say", "hello"));
+    }
+
+
+    @Test
+    public void encryptedLoopback() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            serveEcho(radio);
+            Assert.assertFalse(Loopback.isLocal("127.0.0.1", radio.port));
+
+            radio.walkie.enableLoopback(false);
+            Assert.assertTrue(Loopback.isLocal("127.0.0.1", radio.port));
+            Assert.assertTrue(Loopback.isLocal("localhost", radio.port));
+            Assert.assertTrue(Loopback.isLocal("::1", radio.port));
+            Assert.assertFalse(Loopback.isLocal("10.0.0.1", radio.port));
+
+            ResponseMessage response = say(radio, radio.client_keys, radio.server_keys);
+            Assert.assertTrue(response.getSuccess());
+            Assert.assertEquals("hello", response.get("said"));
+            Assert.assertEquals(1, radio.walkie.getStats().getCryptoCounts()[1]);
+
+            // a message for the wrong key still cannot be read
+            HelpfulRSAKeyPair other_keys = new HelpfulRSAKeyPair();
+            Assert.assertEquals(RadioError.BAD_CRYPT_KEY, say(radio, radio.client_keys, other_keys).getTransmitError());
+
+            // strangers are still turned away
+            Assert.assertEquals(RadioError.UNKNOWN_HOST, say(radio, other_keys, radio.server_keys).getTransmitError());
+
+            radio.walkie.stopListening();
+            Assert.assertFalse(Loopback.isLocal("127.0.0.1", radio.port));
+        }
+    }
+
+
+    @Test
+    public void trustedLoopbackSkipsCrypto() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            serveEcho(radio);
+            radio.walkie.enableLoopback(true);
+
+            for (int i = 0; i < 100; i++)
+                Assert.assertEquals("hello", say(radio, radio.client_keys, radio.server_keys).get("said"));
+
+            Assert.assertEquals(100L, (long) radio.walkie.getStats().getRequestCounts().get("echo"));
+            Assert.assertTrue(Arrays.equals(new long[]{0, 0, 0}, radio.walkie.getStats().getCryptoCounts()));
+
+            // with loopback off the same message goes over TCP
+            radio.walkie.disableLoopback();
+            Assert.assertEquals("hello", say(radio, radio.client_keys, radio.server_keys).get("said"));
+            Assert.assertEquals(1, radio.walkie.getStats().getCryptoCounts()[1]);
+        }
+    }
+
+
+    @Test
+    public void trustedLoopbackStillChecksKeys() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            serveEcho(radio);
+            radio.walkie.enableLoopback(true);
+
+            HelpfulRSAKeyPair other_keys = new HelpfulRSAKeyPair();
+            Assert.assertEquals(RadioError.BAD_CRYPT_KEY, say(radio, radio.client_keys, other_keys).getTransmitError());
+            Assert.assertEquals(RadioError.UNKNOWN_HOST, say(radio, other_keys, radio.server_keys).getTransmitError());
+            Assert.assertEquals("hello", say(radio, radio.client_keys, radio.server_keys).get("said"));
+        }
+    }
+
+
+    @Test
+    public void broadcastDeliversTheSealedBody() throws Exception {
+
+        for (boolean skip_crypto : new boolean[]{false, true}) {
+            try (RadioFixture radio = new RadioFixture()) {
+                serveEcho(radio);
+                radio.walkie.enableLoopback(skip_crypto);
+
+                List<BroadcastTarget> targets = new ArrayList<>();
+                for (int i = 0; i < 8; i++)
+                    targets.add(new BroadcastTarget("127.0.0.1", radio.port, radio.server_keys.pub()));
+
+                // changing the message once it has been broadcast does not change what the targets get
+                ReasonMessage message = radio.message("echo").put("say", "hello");
+                BroadcastResults results = message.broadcast(targets, 1);
+                message.put("say", "changed");
+
+                for (BroadcastResults.Reply reply : results.awaitAll())
+                    Assert.assertEquals("hello", reply.getResponse().get("said"));
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.message.Subscription;
+import online.umbcraft.libraries.network.message.SubscriptionListener;
+import online.umbcraft.libraries.network.response.ReasonPriority;
+import online.umbcraft.libraries.network.response.ReasonResponder;
+import online.umbcraft.libraries.network.response.ResponseSink;
+import online.umbcraft.libraries.network.response.SubscriptionResponder;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class PriorityTest {
+
+    /**
+     * records the order messages were answered in, taking the given time for each
+     */
+    private static ReasonResponder recording(RadioFixture radio, String reason, List<String> order, long work_ms) {
+        return radio.serve(reason, message -> {
+            RadioFixture.pause(work_ms);
+            order.add(reason);
+            return new ResponseMessage().setSuccess(true);
+        });
+    }
+
+
+    @Test
+    public void controlMessageSkipsBulkBacklog() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            List<String> order = new CopyOnWriteArrayList<>();
+            radio.walkie.enablePriorityScheduling(1);
+            recording(radio, "bulk", order, 100).setPriority(ReasonPriority.BULK);
+            recording(radio, "stopserver", order, 0).setPriority(ReasonPriority.CONTROL);
+
+            List<Future<ResponseMessage>> pending = new ArrayList<>();
+            for (int i = 0; i < 6; i++)
+                pending.add(radio.message("bulk").setTimeout(5000).send("127.0.0.1", radio.port));
+
+            // waits for the backlog to build up behind the single worker
+            long until = System.currentTimeMillis() + 3000;
+            while (radio.walkie.getQueuedCount(ReasonPriority.BULK) < 4 && System.currentTimeMillis() < until)
+                Thread.sleep(5);
+            Assert.assertTrue(radio.walkie.getQueuedCount(ReasonPriority.BULK) >= 4);
+
+            Assert.assertTrue(radio.send("stopserver").getSuccess());
+            for (Future<ResponseMessage> response : pending)
+                Assert.assertTrue(response.get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS).getSuccess());
+
+            // at most the bulk messages already running when it arrived went first
+            Assert.assertTrue(order.toString(), order.indexOf("stopserver") <= 2);
+        }
+    }
+
+
+    @Test
+    public void fullQueueRejectsOnlyItsClass() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            List<String> order = new CopyOnWriteArrayList<>();
+            radio.walkie.enablePriorityScheduling(1, 2);
+            recording(radio, "bulk", order, 300).setPriority(ReasonPriority.BULK);
+            recording(radio, "stopserver", order, 0).setPriority(ReasonPriority.CONTROL);
+
+            // one bulk message runs and two wait, any more have no room
+            List<Future<ResponseMessage>> pending = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                pending.add(radio.message("bulk").setTimeout(5000).send("127.0.0.1", radio.port));
+                RadioFixture.pause(50);
+            }
+            ResponseMessage refused = radio.message("bulk").setTimeout(5000)
+                    .send("127.0.0.1", radio.port).get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS);
+            Assert.assertEquals(RadioError.OVERLOADED, refused.getTransmitError());
+
+            Assert.assertTrue(radio.send("stopserver").getSuccess());
+            for (Future<ResponseMessage> response : pending)
+                Assert.assertTrue(response.get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS).getSuccess());
+        }
+    }
+
+
+    @Test
+    public void subscriptionDoesNotHoldAWorker() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.walkie.enablePriorityScheduling(1);
+            radio.serve(new SubscriptionResponder("ticks", radio.server_keys) {
+                @Override
+                public void subscribe(ReasonMessage message, ResponseSink sink) {
+                }
+            });
+            radio.serve("lookup", message -> new ResponseMessage().setSuccess(true));
+
+            CountDownLatch accepted = new CountDownLatch(1);
+            Subscription subscription = radio.message("ticks").subscribe("127.0.0.1", radio.port,
+                    new SubscriptionListener() {
+                        @Override
+                        public void onMessage(ResponseMessage message) {
+                            accepted.countDown();
+                        }
+
+                        @Override
+                        public void onClose(RadioError error) {
+                        }
+                    });
+            Assert.assertTrue(accepted.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+
+            // the single worker is free again while the subscription stays open
+            Assert.assertTrue(radio.send("lookup").getSuccess());
+            Assert.assertTrue(subscription.isOpen());
+            subscription.cancel();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.RateLimiter;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+public class RateLimiterTest {
+
+    @Test
+    public void burstThenRejects() {
+        RateLimiter limiter = new RateLimiter(1, 3);
+
+        for (int i = 0; i < 3; i++)
+            Assert.assertTrue(limiter.tryAcquire("sender"));
+        Assert.assertFalse(limiter.tryAcquire("sender"));
+
+        // other senders have buckets of their own
+        Assert.assertTrue(limiter.tryAcquire("other"));
+        Assert.assertEquals(2, limiter.trackedSenders());
+    }
+
+
+    @Test
+    public void refillsOverTime() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(20, 1);
+
+        Assert.assertTrue(limiter.tryAcquire("sender"));
+        Assert.assertFalse(limiter.tryAcquire("sender"));
+
+        Thread.sleep(80);
+        Assert.assertTrue(limiter.tryAcquire("sender"));
+        Assert.assertFalse(limiter.tryAcquire("sender"));
+    }
+
+
+    @Test
+    public void refillStopsAtBurst() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(100, 2);
+
+        Thread.sleep(100);
+        Assert.assertTrue(limiter.tryAcquire("sender"));
+        Assert.assertTrue(limiter.tryAcquire("sender"));
+        Assert.assertFalse(limiter.tryAcquire("sender"));
+    }
+
+
+    @Test
+    public void claimedKeyCannotDrainAnotherAddress() throws Exception {
+        RateLimiter limiter = new RateLimiter(1, 2);
+        InetAddress victim = InetAddress.getByName("10.0.0.1");
+        InetAddress spoofer = InetAddress.getByName("10.0.0.2");
+
+        for (int i = 0; i < 2; i++)
+            Assert.assertTrue(limiter.tryAcquire("victim key", spoofer));
+        Assert.assertFalse(limiter.tryAcquire("victim key", spoofer));
+
+        Assert.assertTrue(limiter.tryAcquire("victim key", victim));
+        Assert.assertTrue(limiter.tryAcquire("victim key", victim));
+        Assert.assertFalse(limiter.tryAcquire("victim key", victim));
+    }
+
+
+    @Test
+    public void senderOverLimitIsTurnedAway() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve("limited", message -> new ResponseMessage().setSuccess(true)).setRateLimit(1, 2);
+
+            Assert.assertTrue(radio.send("limited").getSuccess());
+            Assert.assertTrue(radio.send("limited").getSuccess());
+            Assert.assertEquals(RadioError.RATE_LIMITED, radio.send("limited").getTransmitError());
+            Assert.assertEquals(2, radio.walkie.getStats().getCryptoCounts()[1]);
+        }
+    }
+}
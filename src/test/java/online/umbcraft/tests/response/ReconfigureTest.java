@@ -0,0 +1,114 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.response.ReasonResponder;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ReconfigureTest {
+
+    /**
+     * a responder which signals once it has started on a message, then answers with its name after a while
+     */
+    private static ReasonResponder slowly(RadioFixture radio, String name, CountDownLatch started, long work_ms) {
+        return new ReasonResponder("work", radio.server_keys) {
+            @Override
+            public ResponseMessage response(ReasonMessage message) {
+                started.countDown();
+                RadioFixture.pause(work_ms);
+                return new ResponseMessage().setSuccess(true).put("from", name);
+            }
+        };
+    }
+
+
+    @Test
+    public void removeWaitsForMessagesInFlight() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            CountDownLatch started = new CountDownLatch(1);
+            radio.serve(slowly(radio, "old", started, 400));
+
+            Future<ResponseMessage> in_flight = radio.message("work").send("127.0.0.1", radio.port);
+            Assert.assertTrue(started.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+
+            long began = System.nanoTime();
+            Assert.assertTrue(radio.walkie.removeResponse(radio.port, "work", 3000));
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began) >= 200);
+
+            Assert.assertEquals("old", in_flight.get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS).get("from"));
+            Assert.assertNotNull(radio.send("work").getTransmitError());
+        }
+    }
+
+
+    @Test
+    public void removeGivesUpAfterDrainTimeout() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            CountDownLatch started = new CountDownLatch(1);
+            radio.serve(slowly(radio, "old", started, 800));
+
+            Future<ResponseMessage> in_flight = radio.message("work").send("127.0.0.1", radio.port);
+            Assert.assertTrue(started.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+
+            Assert.assertFalse(radio.walkie.removeResponse(radio.port, "work", 50));
+
+            // the message still finishes, it just was not waited for
+            Assert.assertEquals("old", in_flight.get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS).get("from"));
+        }
+    }
+
+
+    @Test
+    public void replaceRoutesNewMessagesRightAway() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            // only the first message is slow, so one answered by the old responder while the new one
+            // is being put in place does not hold up the loop below
+            CountDownLatch old_started = new CountDownLatch(1);
+            radio.serve(new ReasonResponder("work", radio.server_keys) {
+                @Override
+                public ResponseMessage response(ReasonMessage message) {
+                    boolean first = old_started.getCount() > 0;
+                    old_started.countDown();
+                    if (first)
+                        RadioFixture.pause(600);
+                    return new ResponseMessage().setSuccess(true).put("from", "old");
+                }
+            });
+
+            Future<ResponseMessage> in_flight = radio.message("work").send("127.0.0.1", radio.port);
+            Assert.assertTrue(old_started.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+
+            ReasonResponder replacement = slowly(radio, "new", new CountDownLatch(1), 0);
+            replacement.addKnown(radio.client_keys.pub64());
+            CompletableFuture<Boolean> replaced = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return radio.walkie.replaceResponse(radio.port, replacement, 3000);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            });
+
+            // answered by the new responder while the old one is still busy
+            long until = System.currentTimeMillis() + 3000;
+            ResponseMessage fresh;
+            do {
+                fresh = radio.send("work");
+            } while (!"new".equals(fresh.get("from")) && System.currentTimeMillis() < until);
+            Assert.assertEquals("new", fresh.get("from"));
+            Assert.assertFalse(in_flight.isDone());
+
+            Assert.assertEquals("old", in_flight.get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS).get("from"));
+            Assert.assertTrue(replaced.get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.BindException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ReusePortTest {
+
+    @Test
+    public void severalAcceptorsAnswerEveryMessage() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.walkie.setAcceptorsPerPort(4);
+            Assert.assertEquals(4, radio.walkie.getAcceptorsPerPort());
+            radio.serve("ping", message -> new ResponseMessage().setSuccess(true));
+
+            List<Future<ResponseMessage>> pending = new ArrayList<>();
+            for (int i = 0; i < 24; i++)
+                pending.add(radio.message("ping").send("127.0.0.1", radio.port));
+            for (Future<ResponseMessage> response : pending)
+                Assert.assertTrue(response.get(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS).getSuccess());
+        }
+    }
+
+
+    @Test
+    public void stoppingReleasesEverySocket() throws Exception {
+
+        RadioFixture radio = new RadioFixture();
+        radio.walkie.setAcceptorsPerPort(3);
+        radio.serve("ping", message -> new ResponseMessage().setSuccess(true));
+        Assert.assertTrue(radio.send("ping").getSuccess());
+        radio.close();
+
+        // a socket bound without SO_REUSEPORT only succeeds once none of the acceptors hold the port,
+        // which their accept threads let go of right after
+        long until = System.currentTimeMillis() + 2000;
+        while (true) {
+            try (ServerSocket rebound = new ServerSocket(radio.port)) {
+                Assert.assertEquals(radio.port, rebound.getLocalPort());
+                return;
+            } catch (BindException e) {
+                if (System.currentTimeMillis() > until)
+                    throw e;
+                Thread.sleep(10);
+            }
+        }
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAtLeastOneAcceptor() throws Exception {
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.walkie.setAcceptorsPerPort(0);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package online.umbcraft.tests.response;
+
+import online.umbcraft.libraries.encrypt.HelpfulRSAKeyPair;
+import online.umbcraft.libraries.network.errors.RadioError;
+import online.umbcraft.libraries.network.message.ReasonMessage;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.message.Subscription;
+import online.umbcraft.libraries.network.message.SubscriptionListener;
+import online.umbcraft.libraries.network.response.DrainReport;
+import online.umbcraft.libraries.network.response.ResponseSink;
+import online.umbcraft.libraries.network.response.SubscriptionResponder;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SubscriptionTest {
+
+    /**
+     * pushes a numbered tick every 20ms until the subscriber goes away
+     */
+    private static SubscriptionResponder ticker(HelpfulRSAKeyPair server_keys, CountDownLatch stopped) {
+        return new SubscriptionResponder("ticks", server_keys) {
+
+            @Override
+            public void subscribe(ReasonMessage message, ResponseSink sink) {
+                sink.onClose(stopped::countDown);
+                new Thread(() -> {
+                    int tick = 0;
+                    while (sink.push(new ResponseMessage().putInt("tick", tick++)))
+                        RadioFixture.pause(20);
+                }).start();
+            }
+        };
+    }
+
+
+    private static class Collector implements SubscriptionListener {
+
+        private final List<ResponseMessage> received = new CopyOnWriteArrayList<>();
+        private final CountDownLatch ticks;
+        private volatile RadioError closed_with = RadioError.NO_VALID_REASON;
+
+        private Collector(int wanted) {
+            ticks = new CountDownLatch(wanted + 1);
+        }
+
+        @Override
+        public void onMessage(ResponseMessage message) {
+            received.add(message);
+            ticks.countDown();
+        }
+
+        @Override
+        public void onClose(RadioError error) {
+            closed_with = error;
+        }
+    }
+
+
+    @Test
+    public void receivesPushedMessagesUntilCancelled() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            CountDownLatch stopped = new CountDownLatch(1);
+            radio.serve(ticker(radio.server_keys, stopped));
+
+            Collector collector = new Collector(5);
+            Subscription subscription = radio.message("ticks").subscribe("127.0.0.1", radio.port, collector);
+
+            Assert.assertTrue(collector.ticks.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+            subscription.cancel();
+
+            Assert.assertTrue(subscription.awaitClose(5000));
+            Assert.assertTrue(stopped.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+            Assert.assertNull(collector.closed_with);
+            Assert.assertFalse(subscription.isOpen());
+
+            // the first reply accepts the subscription, the ticks follow in order
+            Assert.assertTrue(collector.received.get(0).getSuccess());
+            for (int i = 1; i < 6; i++)
+                Assert.assertEquals(Integer.valueOf(i - 1), collector.received.get(i).getInt("tick"));
+        }
+    }
+
+
+    @Test
+    public void shutdownEndsSubscriptions() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            CountDownLatch stopped = new CountDownLatch(1);
+            radio.serve(ticker(radio.server_keys, stopped));
+
+            Collector collector = new Collector(2);
+            Subscription subscription = radio.message("ticks").subscribe("127.0.0.1", radio.port, collector);
+
+            Assert.assertTrue(collector.ticks.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+            DrainReport report = radio.walkie.stopListening(2000);
+
+            Assert.assertTrue(report.isClean());
+            Assert.assertTrue(subscription.awaitClose(5000));
+            Assert.assertEquals(RadioError.SHUTTING_DOWN, collector.closed_with);
+            Assert.assertEquals(RadioError.SHUTTING_DOWN, subscription.getError());
+        }
+    }
+
+
+    @Test
+    public void subscriptionsOverTheLimitAreRejected() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            CountDownLatch stopped = new CountDownLatch(1);
+            radio.serve(ticker(radio.server_keys, stopped));
+            radio.walkie.setMaxSubscriptions(1);
+
+            Collector first = new Collector(1);
+            Subscription open = radio.message("ticks").subscribe("127.0.0.1", radio.port, first);
+            Assert.assertTrue(first.ticks.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+
+            Subscription refused = radio.message("ticks").subscribe("127.0.0.1", radio.port, new Collector(1));
+            Assert.assertTrue(refused.awaitClose(5000));
+            Assert.assertEquals(RadioError.OVERLOADED, refused.getError());
+
+            // the slot is given back once the open subscription ends
+            open.cancel();
+            Assert.assertTrue(stopped.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+            RadioFixture.pause(200);
+
+            Collector again = new Collector(1);
+            Subscription reopened = radio.message("ticks").subscribe("127.0.0.1", radio.port, again);
+            Assert.assertTrue(again.ticks.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+            reopened.cancel();
+        }
+    }
+
+
+    @Test
+    public void plainSendDoesNotSubscribe() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            AtomicInteger subscribed = new AtomicInteger();
+            radio.serve(new SubscriptionResponder("ticks", radio.server_keys) {
+                @Override
+                public void subscribe(ReasonMessage message, ResponseSink sink) {
+                    subscribed.incrementAndGet();
+                    sink.close();
+                }
+            });
+
+            Assert.assertTrue(radio.send("ticks").getSuccess());
+
+            DrainReport report = radio.walkie.stopListening(2000);
+            Assert.assertTrue(report.isClean());
+            Assert.assertEquals(0, subscribed.get());
+        }
+    }
+
+
+    @Test
+    public void drainCutsOffStalledSubscriber() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            // pushes messages far larger than the socket buffers, as fast as credit allows
+            radio.serve(new SubscriptionResponder("flood", radio.server_keys) {
+                @Override
+                public void subscribe(ReasonMessage message, ResponseSink sink) {
+                    new Thread(() -> {
+                        while (sink.push(new ResponseMessage().putBytes("blob", new byte[256 * 1024]))) ;
+                    }).start();
+                }
+            });
+
+            // the subscriber stops reading after the first pushed message
+            CountDownLatch stalled = new CountDownLatch(2);
+            CountDownLatch release = new CountDownLatch(1);
+            Subscription subscription = radio.message("flood").subscribe("127.0.0.1", radio.port,
+                    new SubscriptionListener() {
+                        @Override
+                        public void onMessage(ResponseMessage message) {
+                            stalled.countDown();
+                            if (stalled.getCount() == 0) {
+                                try {
+                                    release.await();
+                                } catch (InterruptedException ignored) {
+                                }
+                            }
+                        }
+
+                        @Override
+                        public void onClose(RadioError error) {
+                        }
+                    });
+
+            try {
+                Assert.assertTrue(stalled.await(RadioFixture.WAIT_SECONDS, TimeUnit.SECONDS));
+                RadioFixture.pause(300);
+
+                long began = System.nanoTime();
+                DrainReport report = radio.walkie.stopListening(4000);
+                long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began);
+
+                Assert.assertTrue(report.isClean());
+                Assert.assertTrue("drain took " + took + "ms", took < 3000);
+            } finally {
+                release.countDown();
+            }
+            Assert.assertTrue(subscription.awaitClose(5000));
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package online.umbcraft.tests.trace;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import online.umbcraft.libraries.network.message.ResponseMessage;
+import online.umbcraft.libraries.network.trace.RadioTrace;
+import online.umbcraft.tests.RadioFixture;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class RadioTraceTest {
+
+    @Test
+    public void disabledByDefault() {
+        Assert.assertNull(RadioTrace.begin("client"));
+    }
+
+
+    @Test
+    public void recordsBothSidesOfAnExchange() throws Exception {
+
+        try (RadioFixture radio = new RadioFixture()) {
+            radio.serve("traced", message -> new ResponseMessage().setSuccess(true));
+            recordExchange(radio);
+        }
+    }
+
+
+    /**
+     * dumps what the recording holds so far
+     */
+    private static List<RecordedEvent> dump(Recording recording) throws Exception {
+        Path dump = Files.createTempFile("radio", ".jfr");
+        try {
+            recording.dump(dump);
+            return RecordingFile.readAllEvents(dump);
+        } finally {
+            Files.delete(dump);
+        }
+    }
+
+
+    private static RecordedEvent exchange(List<RecordedEvent> events, String side) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("online.umbcraft.radio.Exchange")
+                    && side.equals(event.getString("side")))
+                return event;
+        }
+        return null;
+    }
+
+
+    private void recordExchange(RadioFixture radio) throws Exception {
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("online.umbcraft.radio.Exchange");
+            recording.enable("online.umbcraft.radio.ExchangeStage");
+            recording.start();
+
+            Assert.assertTrue(radio.send("traced").getSuccess());
+
+            // the server finishes its side just after the reply has been written, so the recording is
+            // read until its event shows up
+            long until = System.currentTimeMillis() + RadioFixture.WAIT_SECONDS * 1000;
+            events = dump(recording);
+            while (exchange(events, "server") == null && System.currentTimeMillis() < until) {
+                RadioFixture.pause(10);
+                events = dump(recording);
+            }
+            recording.stop();
+        }
+
+        RecordedEvent client = exchange(events, "client");
+        RecordedEvent server = exchange(events, "server");
+        int stages = 0;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("online.umbcraft.radio.ExchangeStage"))
+                stages++;
+        }
+
+        Assert.assertNotNull(client);
+        Assert.assertNotNull(server);
+        Assert.assertTrue(stages >= 10);
+
+        Assert.assertEquals("traced", server.getString("reason"));
+        Assert.assertEquals("", server.getString("error"));
+        Assert.assertTrue(server.getLong("bytesIn") > 0);
+        Assert.assertEquals(server.getLong("bytesIn"), client.getLong("bytesOut"));
+        Assert.assertEquals(client.getLong("bytesIn"), server.getLong("bytesOut"));
+    }
+}